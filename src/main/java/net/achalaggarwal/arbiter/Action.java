@@ -21,53 +21,44 @@
 
 package net.achalaggarwal.arbiter;
 
-import lombok.Data;
-import net.achalaggarwal.arbiter.config.Prepare;
-
 import java.util.*;
 
 /**
  * Represents an Oozie Action
+ * Its fields and their equality are those of an AbstractAction
  *
  * @author Andrew Johnson
  */
-@Data
-public class Action {
-    private String comment;
-    private String name;
-    private String type;
-    private String cred;
-    private String forceOk;
-    private String forceError;
-    private Set<String> dependencies;
-    private Map<String, List<String>> positionalArgs;
-    private Map<String, String> namedArgs;
-    private Map<String, String> properties;
-    private String onlyIf;
-    private List<ConditionalKill> killIf;
-    private Prepare prepare;
-    private String retryMax;
-    private String retryInterval;
-
-    private LinkedHashMap<String, LinkedHashMap<String, String>> elem;
+public class Action extends AbstractAction {
+    /**
+     * Actions are the vertices of the workflow graphs, which hash them on nearly every graph operation, so the hash is
+     * only that of the name, which the String caches, instead of one computed from every field and collection
+     * Actions of a workflow have unique names, and a graph only compares the fields of two actions if they share one
+     *
+     * @return The hash of the name of the action
+     */
+    @Override
+    public int hashCode() {
+        return getName() == null ? 0 : getName().hashCode();
+    }
 
     public String getActualName() {
-        return onlyIf == null ? getName() : "q-" + getName();
+        return getOnlyIf() == null ? getName() : "q-" + getName();
     }
 
     public void setProperty(String name, String value) {
-        if (namedArgs == null) {
-            namedArgs = new HashMap<>();
+        if (getNamedArgs() == null) {
+            setNamedArgs(new HashMap<String, String>());
         }
-        namedArgs.put(name, value);
+        getNamedArgs().put(name, value);
     }
 
     public void setProperty(String name, ArrayList<String> value) {
-        if (positionalArgs == null) {
-            positionalArgs = new HashMap<>();
+        if (getPositionalArgs() == null) {
+            setPositionalArgs(new HashMap<String, List<String>>());
         }
 
-        positionalArgs.put(name, value);
+        getPositionalArgs().put(name, value);
     }
 
     public static Action getStartAction() {
@@ -24,15 +24,16 @@ package net.achalaggarwal.arbiter;
 import net.achalaggarwal.arbiter.config.Config;
 import net.achalaggarwal.arbiter.config.ConfigurationMerger;
 import net.achalaggarwal.arbiter.exception.ConfigurationException;
+import net.achalaggarwal.arbiter.exception.WorkflowGraphException;
+import net.achalaggarwal.arbiter.util.CompilationManifest;
 import net.achalaggarwal.arbiter.util.YamlReader;
+import net.achalaggarwal.arbiter.workflow.ForkJoinMode;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import org.apache.commons.cli.*;
 import org.apache.commons.io.filefilter.TrueFileFilter;
-import org.xml.sax.SAXException;
+import org.apache.log4j.Logger;
 
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.TransformerException;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
@@ -46,9 +47,11 @@ import static org.apache.commons.io.filefilter.FileFilterUtils.suffixFileFilter;
  * @author Andrew Johnson
  */
 public class Arbiter {
+    private static final Logger LOG = Logger.getLogger(Arbiter.class);
+
     private Arbiter() { }
 
-    public static void main(String[] args) throws ParseException, ConfigurationException, IOException, ParserConfigurationException, TransformerException, SAXException {
+    public static void main(String[] args) throws ParseException, ConfigurationException, IOException {
         Options options = getOptions();
 
         CommandLineParser cmd = new GnuParser();
@@ -58,29 +61,154 @@ public class Arbiter {
             printUsage(options);
         }
 
-        if (!parsed.hasOption("i")) {
-            throw new ParseException("Missing required argument: i");
+        if (parsed.hasOption("s")) {
+            ArbiterDaemon.serve(getDaemonPort(parsed, "s"));
+            return;
         }
 
-        String configFile = parsed.getOptionValue("c");
-        String lowPrecedenceConfigFile = parsed.getOptionValue("l");
+        if (parsed.hasOption("d")) {
+            Integer exitCode = ArbiterDaemonClient.compile(getDaemonPort(parsed, "d"), parsed);
+            if (exitCode != null) {
+                System.exit(exitCode);
+            }
+        }
+
+        try {
+            if (parsed.hasOption("w")) {
+                new ArbiterWatcher(parsed).run();
+            } else {
+                compile(parsed, loadConfig(parsed.getOptionValue("c"), parsed.getOptionValue("l")));
+            }
+        } catch (WorkflowGraphException w) {
+            LOG.error("Unable to generate workflow", w);
+            System.exit(1);
+        }
+    }
 
+    /**
+     * Read and merge the configuration files
+     *
+     * @param configFile The configuration file/dir
+     * @param lowPrecedenceConfigFile The low-precedence configuration file/dir
+     * @return The merged configuration
+     * @throws ConfigurationException If the configurations cannot be merged
+     */
+    static Config loadConfig(String configFile, String lowPrecedenceConfigFile) throws ConfigurationException {
         List<Config> parsedConfigFiles = readConfigFiles(configFile, false);
         parsedConfigFiles.addAll(readConfigFiles(lowPrecedenceConfigFile, true));
-        Config merged = ConfigurationMerger.mergeConfiguration(parsedConfigFiles);
+        return ConfigurationMerger.mergeConfiguration(parsedConfigFiles);
+    }
+
+    /**
+     * Compile the workflows named by the parsed CLI options
+     *
+     * @param parsed The parsed CLI options
+     * @param merged The merged configuration read from the files named by the options
+     * @throws ParseException If the options are invalid
+     * @throws WorkflowGraphException If the graph of a workflow is invalid
+     */
+    static void compile(CommandLine parsed, Config merged) throws ParseException, IOException, WorkflowGraphException {
+        if (!parsed.hasOption("i")) {
+            throw new ParseException("Missing required argument: i");
+        }
 
+        String configFile = parsed.getOptionValue("c");
+        String lowPrecedenceConfigFile = parsed.getOptionValue("l");
         String inputFile = parsed.getOptionValue("i");
-        Map<File, Workflow> workflows = readWorkflowFiles(inputFile);
 
         boolean generateGraphviz = parsed.hasOption("g");
         String graphvizFormat = parsed.getOptionValue("g", "svg");
 
-        new OozieWorkflowGenerator(merged)
-          .generateOozieWorkflows(
-            workflows,
-            generateGraphviz,
-            graphvizFormat
-          );
+        int threads = getThreads(parsed);
+        ForkJoinMode forkJoinMode = getForkJoinMode(parsed);
+
+        CompilationManifest manifest = null;
+        if (parsed.hasOption("n")) {
+            String configHash = CompilationManifest.hashConfiguration(getYamlFiles(configFile), getYamlFiles(lowPrecedenceConfigFile), forkJoinMode, generateGraphviz, graphvizFormat);
+            manifest = CompilationManifest.load(new File(inputFile), configHash);
+        }
+
+        new WorkflowPipeline(
+          new OozieWorkflowGenerator(merged, manifest, forkJoinMode),
+          manifest,
+          generateGraphviz,
+          graphvizFormat,
+          threads
+        ).run(inputFile);
+
+        if (manifest != null) {
+            manifest.save();
+        }
+    }
+
+    /**
+     * Gets the number of workflows to compile concurrently
+     *
+     * @param parsed The parsed CLI options
+     * @return The value of the threads option, or the number of available processors if it is not given
+     * @throws ParseException If the value is not a positive number
+     */
+    static int getThreads(CommandLine parsed) throws ParseException {
+        if (!parsed.hasOption("t")) {
+            return Runtime.getRuntime().availableProcessors();
+        }
+
+        String value = parsed.getOptionValue("t");
+        try {
+            int threads = Integer.parseInt(value);
+            if (threads > 0) {
+                return threads;
+            }
+        } catch (NumberFormatException e) {
+            // Fall through to the error below
+        }
+
+        throw new ParseException("Invalid number of threads: " + value);
+    }
+
+    /**
+     * Gets the local port of the compile daemon
+     *
+     * @param parsed The parsed CLI options
+     * @param option The option that may give the port
+     * @return The value of the option, or ArbiterDaemon.DEFAULT_PORT if it has none
+     * @throws ParseException If the value is not a valid port
+     */
+    private static int getDaemonPort(CommandLine parsed, String option) throws ParseException {
+        String value = parsed.getOptionValue(option);
+        if (value == null) {
+            return ArbiterDaemon.DEFAULT_PORT;
+        }
+
+        try {
+            int port = Integer.parseInt(value);
+            if (port > 0 && port < 65536) {
+                return port;
+            }
+        } catch (NumberFormatException e) {
+            // Fall through to the error below
+        }
+
+        throw new ParseException("Invalid daemon port: " + value);
+    }
+
+    /**
+     * Gets the mode in which to place fork/joins
+     *
+     * @param parsed The parsed CLI options
+     * @return The value of the fork/join mode option, or the level mode if it is not given
+     * @throws ParseException If the value is not a known mode
+     */
+    static ForkJoinMode getForkJoinMode(CommandLine parsed) throws ParseException {
+        if (!parsed.hasOption("m")) {
+            return ForkJoinMode.LEVELS;
+        }
+
+        try {
+            return ForkJoinMode.fromName(parsed.getOptionValue("m"));
+        } catch (IllegalArgumentException e) {
+            throw new ParseException("Invalid fork/join mode: " + parsed.getOptionValue("m"));
+        }
     }
 
     /**
@@ -89,22 +217,17 @@ public class Arbiter {
      * @param file The file/dir to read
      * @return A list of Workflow objects corresponding to the given files
      */
-    public static Map<File, Workflow> readWorkflowFiles(String file) {
+    public static Map<File, Workflow> readWorkflowFiles(String file) throws IOException {
         if (file == null) {
             return Maps.newHashMap();
         }
 
-        YamlReader<Workflow> reader = new YamlReader<>(Workflow.getYamlConstructor());
+        YamlReader<Workflow> reader = Workflow.getYamlReader();
 
         HashMap<File, Workflow> result = Maps.newHashMap();
 
-        File f = new File(file);
-        if (f.isDirectory()) {
-            for (File yamlFile : getOnlyYamlFiles(f)) {
-                result.put(yamlFile, reader.read(yamlFile));
-            }
-        } else {
-            result.put(f, reader.read(f));
+        for (File yamlFile : getYamlFiles(file)) {
+            result.put(yamlFile, reader.read(yamlFile));
         }
 
         return result;
@@ -114,6 +237,25 @@ public class Arbiter {
         return listFiles(file, suffixFileFilter(".yaml"), TrueFileFilter.INSTANCE);
     }
 
+    /**
+     * Lists the YAML files under a file/dir
+     *
+     * @param file The file/dir to list
+     * @return The YAML files in the dir, or the file itself if it is not a dir
+     */
+    public static Collection<File> getYamlFiles(String file) {
+        if (file == null) {
+            return Lists.newArrayList();
+        }
+
+        File f = new File(file);
+        if (f.isDirectory()) {
+            return getOnlyYamlFiles(f);
+        } else {
+            return Lists.newArrayList(f);
+        }
+    }
+
     /**
      * Reads in a list of configuration files
      *
@@ -126,19 +268,12 @@ public class Arbiter {
             return Lists.newArrayList();
         }
 
-        YamlReader<Config> reader = new YamlReader<>(Config.getYamlConstructor());
+        YamlReader<Config> reader = Config.getYamlReader();
         
         ArrayList<Config> result = Lists.newArrayList();
         
-        File f = new File(file);
-        if (f.isDirectory()) {
-            for (File yamlFile : getOnlyYamlFiles(f)) {
-                Config c = reader.read(yamlFile);
-                c.setLowPrecedence(lowPrecedence);
-                result.add(c);
-            }
-        } else {
-            Config c = reader.read(f);
+        for (File yamlFile : getYamlFiles(file)) {
+            Config c = reader.read(yamlFile);
             c.setLowPrecedence(lowPrecedence);
             result.add(c);
         }
@@ -163,7 +298,7 @@ public class Arbiter {
      * @return The Options object representing the supported CLI options
      */
     @SuppressWarnings("static-access")
-    private static Options getOptions() {
+    static Options getOptions() {
         Option config = OptionBuilder
                 .withArgName("config")
                 .withLongOpt("config")
@@ -198,12 +333,58 @@ public class Arbiter {
                 .withDescription("Generate the Graphviz DOT file and PNG")
                 .create("g");
 
+        Option threads = OptionBuilder
+                .withArgName("threads")
+                .withLongOpt("threads")
+                .hasArg()
+                .withDescription("Number of workflows to compile in parallel, defaults to the number of cores")
+                .create("t");
+
+        Option incremental = OptionBuilder
+                .withArgName("incremental")
+                .withLongOpt("incremental")
+                .withDescription("Only compile workflows that changed since the last run")
+                .create("n");
+
+        Option forkJoinMode = OptionBuilder
+                .withArgName("mode")
+                .withLongOpt("fork-join-mode")
+                .hasArg()
+                .withDescription("How to place fork/joins, either levels (the default), series-parallel or critical-path")
+                .create("m");
+
+        Option serve = OptionBuilder
+                .withArgName("port")
+                .withLongOpt("serve")
+                .hasOptionalArg()
+                .withDescription("Run as a compile daemon listening on a local port, " + ArbiterDaemon.DEFAULT_PORT + " by default")
+                .create("s");
+
+        Option daemon = OptionBuilder
+                .withArgName("port")
+                .withLongOpt("daemon")
+                .hasOptionalArg()
+                .withDescription("Compile on the daemon listening on a local port, or in this process if none is running")
+                .create("d");
+
+        Option watch = OptionBuilder
+                .withArgName("watch")
+                .withLongOpt("watch")
+                .withDescription("Keep running and recompile the workflows affected by every change to their files")
+                .create("w");
+
         Options options = new Options();
         options.addOption(config)
                 .addOption(lowPrecedenceConfig)
                 .addOption(inputFile)
                 .addOption(help)
-                .addOption(graphviz);
+                .addOption(graphviz)
+                .addOption(threads)
+                .addOption(incremental)
+                .addOption(forkJoinMode)
+                .addOption(serve)
+                .addOption(daemon)
+                .addOption(watch);
 
         return options;
     }
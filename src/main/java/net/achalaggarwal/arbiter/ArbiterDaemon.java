@@ -0,0 +1,252 @@
+package net.achalaggarwal.arbiter;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import net.achalaggarwal.arbiter.config.Config;
+import net.achalaggarwal.arbiter.exception.ConfigurationException;
+import net.achalaggarwal.arbiter.exception.WorkflowGraphException;
+import net.achalaggarwal.arbiter.util.CompilationManifest;
+import com.google.common.io.BaseEncoding;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Appender;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PatternLayout;
+import org.apache.log4j.WriterAppender;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+/**
+ * Compiles workflows for clients on a local port, so repeated compiles share a warm JVM
+ * A client POSTs the CLI arguments of a compile to /compile, one per line, and the log of the compile is streamed back
+ * as it is written, ending with a line giving the exit code the compile would have had as a separate process
+ * Merged configurations are kept between compiles and only read again when one of their files changes
+ * Compiles run one at a time, as the log of each is captured from the shared loggers
+ * Any local user can connect to the port, so a request must carry the token the daemon writes to a file only its owner
+ * can read
+ */
+public class ArbiterDaemon {
+    public static final int DEFAULT_PORT = 7373;
+    public static final String COMPILE_PATH = "/compile";
+    public static final String EXIT_CODE_PREFIX = "arbiter-exit: ";
+    public static final String TOKEN_HEADER = "X-Arbiter-Token";
+
+    private static final Logger LOG = Logger.getLogger(ArbiterDaemon.class);
+    private static final String LOG_PATTERN = "%-4r [%t] %-5p %c %x - %m%n";
+    private static final int TOKEN_BYTES = 32;
+
+    // The merged configuration for each pair of configuration files/dirs, with the hash of the files it was read from
+    private final Map<List<String>, CachedConfig> configs = new HashMap<>();
+    private final byte[] token;
+
+    ArbiterDaemon(String token) {
+        this.token = token.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Start a daemon on the loopback interface, writing its token to the default token directory
+     * This returns once the daemon is listening, and the daemon runs until the process is stopped
+     *
+     * @param port The port to listen on
+     * @return The server of the daemon
+     * @throws IOException If the port cannot be bound or the token cannot be written
+     */
+    public static HttpServer serve(int port) throws IOException {
+        return serve(port, getDefaultTokenDirectory());
+    }
+
+    /**
+     * Start a daemon on the loopback interface
+     * This returns once the daemon is listening, and the daemon runs until the process is stopped
+     *
+     * @param port The port to listen on, or 0 for any free port
+     * @param tokenDirectory The directory to which to write the token clients must send
+     * @return The server of the daemon
+     * @throws IOException If the port cannot be bound or the token cannot be written
+     */
+    public static HttpServer serve(int port, File tokenDirectory) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+
+        byte[] bytes = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(bytes);
+        String token = BaseEncoding.base16().lowerCase().encode(bytes);
+        File tokenFile = getTokenFile(tokenDirectory, server.getAddress().getPort());
+        writeOwnerOnly(tokenFile, token);
+        tokenFile.deleteOnExit();
+
+        final ArbiterDaemon daemon = new ArbiterDaemon(token);
+        server.createContext(COMPILE_PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                daemon.handle(exchange);
+            }
+        });
+        server.setExecutor(Executors.newSingleThreadExecutor());
+        server.start();
+
+        LOG.info("Arbiter daemon listening on " + server.getAddress() + " with its token in " + tokenFile);
+        return server;
+    }
+
+    /**
+     * @return The directory to which daemons write their tokens by default, which is .arbiter in the home directory
+     */
+    public static File getDefaultTokenDirectory() {
+        return new File(System.getProperty("user.home"), ".arbiter");
+    }
+
+    /**
+     * Gets the file holding the token of the daemon on a port
+     *
+     * @param tokenDirectory The directory to which the daemon writes its token
+     * @param port The port of the daemon
+     * @return The token file
+     */
+    public static File getTokenFile(File tokenDirectory, int port) {
+        return new File(tokenDirectory, "daemon-" + port + ".token");
+    }
+
+    /**
+     * Write a file that only its owner can read, replacing it if it exists
+     *
+     * @param file The file to write
+     * @param contents The contents of the file
+     * @throws IOException If the file cannot be written
+     */
+    private static void writeOwnerOnly(File file, String contents) throws IOException {
+        Path path = file.toPath();
+        Files.deleteIfExists(path);
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Files.createDirectories(path.getParent(), PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else {
+            Files.createDirectories(path.getParent());
+            Files.createFile(path);
+            if (!file.setReadable(false, false) || !file.setReadable(true, true)) {
+                throw new IOException("Unable to make " + file + " readable only by its owner");
+            }
+        }
+        Files.write(path, contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            if (!isAuthorized(exchange.getRequestHeaders().getFirst(TOKEN_HEADER))) {
+                LOG.warn("Rejected a compile from " + exchange.getRemoteAddress() + " without the daemon token");
+                exchange.sendResponseHeaders(403, -1);
+                return;
+            }
+
+            List<String> args = IOUtils.readLines(exchange.getRequestBody(), StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, 0);
+
+            try (Writer out = new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8)) {
+                int exitCode = compile(args, out);
+                out.write(EXIT_CODE_PREFIX + exitCode + "\n");
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Checks the token sent with a request, taking the same time whichever byte differs
+     *
+     * @param sent The token sent, or null if none was
+     * @return true if the token is the token of this daemon
+     */
+    boolean isAuthorized(String sent) {
+        return sent != null && MessageDigest.isEqual(token, sent.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Compile the workflows named by CLI arguments, writing the log of the compile to a client
+     *
+     * @param args The CLI arguments, with every path already absolute
+     * @param out The writer to which to stream the log
+     * @return The exit code of the compile
+     */
+    int compile(List<String> args, Writer out) {
+        Appender appender = new WriterAppender(new PatternLayout(LOG_PATTERN), out);
+        Logger.getRootLogger().addAppender(appender);
+
+        try {
+            CommandLine parsed = new GnuParser().parse(Arbiter.getOptions(), args.toArray(new String[args.size()]));
+            if (parsed.hasOption("h") || parsed.hasOption("s") || parsed.hasOption("d") || parsed.hasOption("w")) {
+                throw new ParseException("The help, serve, daemon and watch options cannot be sent to a daemon");
+            }
+
+            Arbiter.compile(parsed, getConfig(parsed.getOptionValue("c"), parsed.getOptionValue("l")));
+            return 0;
+        } catch (WorkflowGraphException w) {
+            LOG.error("Unable to generate workflow", w);
+            return 1;
+        } catch (Exception e) {
+            LOG.error("Unable to compile", e);
+            return 1;
+        } finally {
+            Logger.getRootLogger().removeAppender(appender);
+            try {
+                out.flush();
+            } catch (IOException e) {
+                // The client has gone away, but the compile itself is finished
+                LOG.warn("Unable to send the result of a compile", e);
+            }
+        }
+    }
+
+    /**
+     * Gets the merged configuration for a pair of configuration files/dirs, reading them again only if they changed
+     *
+     * @param configFile The configuration file/dir
+     * @param lowPrecedenceConfigFile The low-precedence configuration file/dir
+     * @return The merged configuration
+     */
+    private Config getConfig(String configFile, String lowPrecedenceConfigFile) throws IOException, ConfigurationException {
+        List<String> key = Arrays.asList(configFile, lowPrecedenceConfigFile);
+        String hash = CompilationManifest.hashConfigFiles(Arbiter.getYamlFiles(configFile), Arbiter.getYamlFiles(lowPrecedenceConfigFile));
+
+        CachedConfig cached = configs.get(key);
+        if (cached == null || !cached.hash.equals(hash)) {
+            cached = new CachedConfig(hash, Arbiter.loadConfig(configFile, lowPrecedenceConfigFile));
+            configs.put(key, cached);
+        }
+        return cached.config;
+    }
+
+    private static final class CachedConfig {
+        private final String hash;
+        private final Config config;
+
+        CachedConfig(String hash, Config config) {
+            this.hash = hash;
+            this.config = config;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package net.achalaggarwal.arbiter;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sends a compile to an ArbiterDaemon and streams its log to standard out
+ * The compile falls back to this process whenever the daemon cannot have started it: when there is no token, when the
+ * request cannot be sent, or when whatever is listening on the port does not accept it
+ */
+public class ArbiterDaemonClient {
+    private static final Logger LOG = Logger.getLogger(ArbiterDaemonClient.class);
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+    // Options whose values are paths, which are made absolute as the daemon has its own working directory
+    private static final List<String> PATH_OPTIONS = Arrays.asList("c", "l", "i");
+
+    private ArbiterDaemonClient() { }
+
+    /**
+     * Compile on the daemon listening on a local port, reading its token from the default token directory
+     *
+     * @param port The port of the daemon
+     * @param parsed The parsed CLI options of the compile
+     * @return The exit code of the compile, or null if no daemon is listening and the compile should run in this process
+     * @throws IOException If the daemon fails while compiling
+     */
+    public static Integer compile(int port, CommandLine parsed) throws IOException {
+        return compile(port, ArbiterDaemon.getDefaultTokenDirectory(), parsed);
+    }
+
+    /**
+     * Compile on the daemon listening on a local port
+     *
+     * @param port The port of the daemon
+     * @param tokenDirectory The directory to which the daemon wrote its token
+     * @param parsed The parsed CLI options of the compile
+     * @return The exit code of the compile, or null if no daemon is listening and the compile should run in this process
+     * @throws IOException If the daemon fails while compiling
+     */
+    public static Integer compile(int port, File tokenDirectory, CommandLine parsed) throws IOException {
+        File tokenFile = ArbiterDaemon.getTokenFile(tokenDirectory, port);
+        if (!tokenFile.isFile()) {
+            return null;
+        }
+
+        URL url = new URL("http", InetAddress.getLoopbackAddress().getHostAddress(), port, ArbiterDaemon.COMPILE_PATH);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            if (!send(connection, tokenFile, getDaemonArgs(parsed))) {
+                return null;
+            }
+
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.startsWith(ArbiterDaemon.EXIT_CODE_PREFIX)) {
+                        return Integer.parseInt(line.substring(ArbiterDaemon.EXIT_CODE_PREFIX.length()));
+                    }
+                    System.out.println(line);
+                }
+            }
+        } finally {
+            connection.disconnect();
+        }
+
+        throw new IOException("The daemon on port " + port + " stopped before the compile finished");
+    }
+
+    /**
+     * Send a compile to the daemon and wait for it to be accepted, which happens once any earlier compile is finished
+     * A daemon accepts a compile before it starts it, so if this returns false the compile has not run
+     *
+     * @param connection The connection to the daemon
+     * @param tokenFile The file holding the token of the daemon
+     * @param args The arguments of the compile
+     * @return true if the daemon accepted the compile, or false if it could not be sent or was refused
+     */
+    private static boolean send(HttpURLConnection connection, File tokenFile, List<String> args) {
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty(ArbiterDaemon.TOKEN_HEADER, FileUtils.readFileToString(tokenFile, StandardCharsets.UTF_8).trim());
+            connection.setDoOutput(true);
+
+            try (OutputStream out = connection.getOutputStream()) {
+                for (String arg : args) {
+                    out.write((arg + "\n").getBytes(StandardCharsets.UTF_8));
+                }
+            }
+
+            int status = connection.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                LOG.warn("The daemon on " + connection.getURL() + " refused the compile with status " + status + ", compiling in this process");
+                return false;
+            }
+        } catch (IOException e) {
+            LOG.warn("Unable to send the compile to the daemon on " + connection.getURL() + " (" + e + "), compiling in this process");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Gets the arguments to send to the daemon, which are the CLI arguments without the daemon option
+     *
+     * @param parsed The parsed CLI options
+     * @return The arguments, with the paths made absolute
+     */
+    static List<String> getDaemonArgs(CommandLine parsed) {
+        List<String> args = new ArrayList<>();
+        for (Option option : parsed.getOptions()) {
+            if (option.getOpt().equals("d")) {
+                continue;
+            }
+
+            args.add("-" + option.getOpt());
+            if (option.getValues() != null) {
+                for (String value : option.getValues()) {
+                    args.add(PATH_OPTIONS.contains(option.getOpt()) ? new File(value).getAbsolutePath() : value);
+                }
+            }
+        }
+        return args;
+    }
+}
@@ -0,0 +1,426 @@
+package net.achalaggarwal.arbiter;
+
+import net.achalaggarwal.arbiter.config.ActionType;
+import net.achalaggarwal.arbiter.config.Config;
+import net.achalaggarwal.arbiter.exception.ConfigurationException;
+import net.achalaggarwal.arbiter.exception.WorkflowGraphException;
+import net.achalaggarwal.arbiter.util.CompilationManifest;
+import net.achalaggarwal.arbiter.util.YamlReader;
+import net.achalaggarwal.arbiter.workflow.ForkJoinMode;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.filefilter.FalseFileFilter;
+import org.apache.commons.io.filefilter.TrueFileFilter;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the configuration and workflows in memory and recompiles only what a change to a file affects
+ * A changed workflow is compiled again on its own, a changed included file recompiles the workflows that include it,
+ * and a changed configuration recompiles the workflows with actions of the action types that changed, or every
+ * workflow if anything else in the configuration changed
+ */
+public class ArbiterWatcher {
+    private static final Logger LOG = Logger.getLogger(ArbiterWatcher.class);
+    // Editors often write a file in several steps, so changes are collected until none arrive for this long
+    private static final long SETTLE_MILLIS = 50;
+
+    private final String configFile;
+    private final String lowPrecedenceConfigFile;
+    private final String inputFile;
+    private final boolean generateGraphviz;
+    private final String graphvizFormat;
+    private final int threads;
+    private final ForkJoinMode forkJoinMode;
+    private final boolean saveManifest;
+
+    private final YamlReader<Workflow> workflowReader = Workflow.getYamlReader();
+    private final Map<Path, Workflow> workflows = new HashMap<>();
+    private Set<Path> configFiles = new HashSet<>();
+    private Config config;
+    private CompilationManifest manifest;
+    // Workflows affected by changes that have not been compiled yet, which outlive a failed recompile
+    private final Set<Path> pending = new HashSet<>();
+
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> watchedDirs = new HashMap<>();
+
+    /**
+     * @param parsed The parsed CLI options
+     * @throws ParseException If the options are invalid
+     * @throws IOException If the file system cannot be watched
+     */
+    public ArbiterWatcher(CommandLine parsed) throws ParseException, IOException {
+        if (!parsed.hasOption("i")) {
+            throw new ParseException("Missing required argument: i");
+        }
+
+        this.configFile = parsed.getOptionValue("c");
+        this.lowPrecedenceConfigFile = parsed.getOptionValue("l");
+        this.inputFile = parsed.getOptionValue("i");
+        this.generateGraphviz = parsed.hasOption("g");
+        this.graphvizFormat = parsed.getOptionValue("g", "svg");
+        this.threads = Arbiter.getThreads(parsed);
+        this.forkJoinMode = Arbiter.getForkJoinMode(parsed);
+        this.saveManifest = parsed.hasOption("n");
+        this.watchService = FileSystems.getDefault().newWatchService();
+    }
+
+    /**
+     * Compile every workflow, then recompile workflows as the files they depend on change
+     * This only returns if the thread is interrupted
+     *
+     * @throws ConfigurationException If the configuration cannot be merged for the first compile
+     * @throws WorkflowGraphException If a workflow is invalid in the first compile
+     */
+    public void run() throws ConfigurationException, IOException, WorkflowGraphException {
+        start();
+
+        while (!Thread.currentThread().isInterrupted()) {
+            Set<Path> changed;
+            try {
+                changed = takeChanges();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            try {
+                recompile(changed);
+            } catch (Exception e) {
+                // Keep watching, so fixing the file that broke the compile recompiles it
+                LOG.error("Unable to recompile", e);
+            }
+        }
+    }
+
+    /**
+     * Compile every workflow and start watching the files they depend on
+     *
+     * @throws ConfigurationException If the configuration cannot be merged
+     * @throws WorkflowGraphException If a workflow is invalid
+     */
+    void start() throws ConfigurationException, IOException, WorkflowGraphException {
+        loadConfig();
+        for (File file : Arbiter.getYamlFiles(inputFile)) {
+            workflows.put(normalize(file), workflowReader.read(file));
+        }
+        compile(workflows.keySet());
+        watchAll();
+    }
+
+    /**
+     * Compile the workflows affected by changed files again, along with those left pending by a failed recompile
+     * The affected workflows stay pending until they compile, so a change is not lost when its recompile fails
+     *
+     * @param changed The files that were created, changed or deleted
+     * @throws ConfigurationException If the configuration cannot be merged
+     * @throws WorkflowGraphException If a workflow is invalid
+     */
+    void recompile(Set<Path> changed) throws ConfigurationException, IOException, WorkflowGraphException {
+        long start = System.nanoTime();
+        addAffectedWorkflows(changed);
+        if (!pending.isEmpty()) {
+            int count = pending.size();
+            compile(pending);
+            pending.clear();
+            LOG.info(String.format("Recompiled %d workflows in %d ms", count, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        }
+        watchAll();
+    }
+
+    /**
+     * Add the workflows that have to be compiled again after files changed to the pending ones, reading the changed files
+     *
+     * @param changed The files that were created, changed or deleted
+     */
+    private void addAffectedWorkflows(Set<Path> changed) throws ConfigurationException, IOException {
+        Set<Path> paths = new HashSet<>(changed);
+        for (Path path : changed) {
+            // A directory created or copied into the input may already hold workflows, so it is watched before they
+            // are read, and a workflow written in between is both read now and seen as a change later
+            if (isUnder(path, inputFile) && Files.isDirectory(path)) {
+                watch(getDirs(path));
+                for (File file : Arbiter.getOnlyYamlFiles(path.toFile())) {
+                    paths.add(normalize(file));
+                }
+            }
+        }
+
+        boolean configChanged = false;
+        for (Path path : paths) {
+            configChanged |= configFiles.contains(path) || (isYaml(path) && isUnder(path, configFile, lowPrecedenceConfigFile));
+        }
+        if (configChanged) {
+            pending.addAll(reloadConfig());
+        }
+
+        for (Path path : paths) {
+            if (!isUnder(path, inputFile)) {
+                continue;
+            }
+
+            if (!Files.exists(path)) {
+                // Either a workflow was deleted, or a directory of them was deleted or moved away
+                Iterator<Path> workflowPaths = workflows.keySet().iterator();
+                while (workflowPaths.hasNext()) {
+                    Path workflow = workflowPaths.next();
+                    if (workflow.startsWith(path)) {
+                        workflowPaths.remove();
+                        pending.remove(workflow);
+                    }
+                }
+            } else if (isYaml(path) && Files.isRegularFile(path)) {
+                workflows.put(path, workflowReader.read(path.toFile()));
+                pending.add(path);
+            }
+        }
+
+        for (Path workflow : workflows.keySet()) {
+            for (File include : manifest.getIncludedFiles(workflow.toFile())) {
+                if (paths.contains(normalize(include))) {
+                    pending.add(workflow);
+                }
+            }
+        }
+    }
+
+    /**
+     * Merge the configuration files again
+     *
+     * @return The workflows affected by the differences between the old and new configuration
+     */
+    private Set<Path> reloadConfig() throws ConfigurationException, IOException {
+        Config old = config;
+        loadConfig();
+
+        Set<String> changedTypes = getChangedActionTypes(old, config);
+        if (changedTypes == null) {
+            return new HashSet<>(workflows.keySet());
+        }
+
+        Set<Path> affected = new HashSet<>();
+        for (Map.Entry<Path, Workflow> entry : workflows.entrySet()) {
+            if (usesAnyType(entry.getValue(), changedTypes)) {
+                affected.add(entry.getKey());
+            }
+        }
+        return affected;
+    }
+
+    private void loadConfig() throws ConfigurationException, IOException {
+        config = Arbiter.loadConfig(configFile, lowPrecedenceConfigFile);
+
+        configFiles = new HashSet<>();
+        for (File file : Arbiter.getYamlFiles(configFile)) {
+            configFiles.add(normalize(file));
+        }
+        for (File file : Arbiter.getYamlFiles(lowPrecedenceConfigFile)) {
+            configFiles.add(normalize(file));
+        }
+
+        // Every workflow is recorded against the configuration it is compiled with, so a new manifest is needed
+        // Included files recorded against the old one are kept, as unaffected workflows are not compiled again
+        CompilationManifest previous = manifest;
+        manifest = CompilationManifest.load(
+          new File(inputFile),
+          CompilationManifest.hashConfiguration(
+            Arbiter.getYamlFiles(configFile),
+            Arbiter.getYamlFiles(lowPrecedenceConfigFile),
+            forkJoinMode,
+            generateGraphviz,
+            graphvizFormat
+          )
+        );
+        if (previous != null) {
+            for (Path workflow : workflows.keySet()) {
+                manifest.record(workflow.toFile(), previous.getIncludedFiles(workflow.toFile()), previous.getExternalizedCopies(workflow.toFile()));
+            }
+        }
+    }
+
+    /**
+     * Gets the action types that differ between two configurations
+     *
+     * @param old The configuration before the change
+     * @param current The configuration after the change
+     * @return The names of the action types that were added, removed or changed, or null if anything other than the
+     * action types changed, which affects every workflow
+     */
+    static Set<String> getChangedActionTypes(Config old, Config current) {
+        if (!Objects.equals(old.getGlobal(), current.getGlobal())
+          || !Objects.equals(old.getKillName(), current.getKillName())
+          || !Objects.equals(old.getKillMessage(), current.getKillMessage())
+          || !Objects.equals(old.getCredentials(), current.getCredentials())
+          || !Objects.equals(old.getMaxForkWidth(), current.getMaxForkWidth())
+          || !Objects.equals(old.getMaxInlineSize(), current.getMaxInlineSize())) {
+            return null;
+        }
+
+        Set<String> changed = new HashSet<>();
+        for (ActionType actionType : old.getActionTypes()) {
+            if (!Objects.equals(actionType, current.getActionTypeByName(actionType.getName()))) {
+                changed.add(actionType.getName());
+            }
+        }
+        for (ActionType actionType : current.getActionTypes()) {
+            if (old.getActionTypeByName(actionType.getName()) == null) {
+                changed.add(actionType.getName());
+            }
+        }
+        return changed;
+    }
+
+    private static boolean usesAnyType(Workflow workflow, Set<String> types) {
+        if (workflow.getErrorHandler() != null && types.contains(workflow.getErrorHandler().getType())) {
+            return true;
+        }
+        if (workflow.getActions() != null) {
+            for (Action action : workflow.getActions()) {
+                if (types.contains(action.getType())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void compile(Collection<Path> paths) throws IOException, WorkflowGraphException {
+        Map<File, Workflow> toCompile = new LinkedHashMap<>();
+        for (Path path : paths) {
+            toCompile.put(path.toFile(), workflows.get(path));
+        }
+
+        new OozieWorkflowGenerator(config, manifest, forkJoinMode)
+          .generateOozieWorkflows(toCompile, generateGraphviz, graphvizFormat, threads);
+
+        if (saveManifest) {
+            manifest.save();
+        }
+    }
+
+    /**
+     * Watch the directories of every configuration file, workflow and included file
+     * Directories that are already watched are skipped, so this is called again whenever the set of files may have grown
+     */
+    private void watchAll() throws IOException {
+        Set<Path> dirs = new HashSet<>();
+        addDirs(dirs, configFile);
+        addDirs(dirs, lowPrecedenceConfigFile);
+        addDirs(dirs, inputFile);
+        for (Path workflow : workflows.keySet()) {
+            for (File include : manifest.getIncludedFiles(workflow.toFile())) {
+                dirs.add(normalize(include).getParent());
+            }
+        }
+
+        watch(dirs);
+    }
+
+    /**
+     * Watch directories for created, changed and deleted files, skipping those that are already watched
+     *
+     * @param dirs The directories to watch
+     */
+    private void watch(Collection<Path> dirs) throws IOException {
+        for (Path dir : dirs) {
+            if (!watchedDirs.containsValue(dir) && Files.isDirectory(dir)) {
+                WatchKey key = dir.register(
+                  watchService,
+                  StandardWatchEventKinds.ENTRY_CREATE,
+                  StandardWatchEventKinds.ENTRY_MODIFY,
+                  StandardWatchEventKinds.ENTRY_DELETE
+                );
+                watchedDirs.put(key, dir);
+            }
+        }
+    }
+
+    private static void addDirs(Set<Path> dirs, String file) throws IOException {
+        if (file == null) {
+            return;
+        }
+
+        Path path = normalize(new File(file));
+        if (!Files.isDirectory(path)) {
+            dirs.add(path.getParent());
+            return;
+        }
+
+        dirs.addAll(getDirs(path));
+    }
+
+    /**
+     * Gets a directory and every directory under it, as a file created in any of them may be a workflow
+     *
+     * @param dir The directory
+     * @return The directory and its subdirectories
+     */
+    private static Set<Path> getDirs(Path dir) {
+        Set<Path> dirs = new HashSet<>();
+        for (File subdir : FileUtils.listFilesAndDirs(dir.toFile(), FalseFileFilter.INSTANCE, TrueFileFilter.INSTANCE)) {
+            dirs.add(normalize(subdir));
+        }
+        return dirs;
+    }
+
+    /**
+     * Wait for files to change, then collect changes until they settle
+     *
+     * @return The files that changed
+     * @throws InterruptedException If the thread is interrupted while waiting
+     */
+    private Set<Path> takeChanges() throws InterruptedException {
+        Set<Path> changed = new HashSet<>();
+        WatchKey key = watchService.take();
+        while (key != null) {
+            Path dir = watchedDirs.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (dir != null && event.context() instanceof Path) {
+                    changed.add(dir.resolve((Path) event.context()));
+                }
+            }
+            if (!key.reset()) {
+                watchedDirs.remove(key);
+            }
+            key = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        return changed;
+    }
+
+    private static boolean isYaml(Path path) {
+        return path.getFileName().toString().endsWith(".yaml");
+    }
+
+    private static boolean isUnder(Path path, String... files) {
+        for (String file : files) {
+            if (file != null && path.startsWith(normalize(new File(file)))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Path normalize(File file) {
+        return file.getAbsoluteFile().toPath().normalize();
+    }
+}
@@ -23,26 +23,34 @@ package net.achalaggarwal.arbiter;
 
 import net.achalaggarwal.arbiter.config.Config;
 import net.achalaggarwal.arbiter.exception.WorkflowGraphException;
+import net.achalaggarwal.arbiter.util.CompilationManifest;
+import net.achalaggarwal.arbiter.util.DocumentWriter;
 import net.achalaggarwal.arbiter.util.GraphvizGenerator;
+import net.achalaggarwal.arbiter.util.IncludeCache;
+import net.achalaggarwal.arbiter.util.IncludeExternalizer;
+import net.achalaggarwal.arbiter.workflow.ActionGraph;
+import net.achalaggarwal.arbiter.workflow.ForkJoinLayout;
+import net.achalaggarwal.arbiter.workflow.ForkJoinMode;
 import net.achalaggarwal.arbiter.workflow.WorkflowGraphBuilder;
 import net.achalaggarwal.arbiter.workflow.WorkflowNode;
-import net.achalaggarwal.arbiter.workflow.node.ActionNode;
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheStats;
 import org.apache.commons.io.FileUtils;
 import org.apache.log4j.Logger;
-import org.jgrapht.experimental.dag.DirectedAcyclicGraph;
-import org.jgrapht.graph.DefaultEdge;
-import org.xembly.Directives;
-import org.xml.sax.SAXException;
-
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.stream.StreamResult;
+
 import java.io.File;
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
-
-import static net.achalaggarwal.arbiter.util.DocumentWriter.writeToStreamResult;
-import static org.apache.commons.io.FileUtils.writeStringToFile;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * Generates Oozie workflows from Arbiter workflows
@@ -53,9 +61,37 @@ public class OozieWorkflowGenerator {
     private static final Logger LOG = Logger.getLogger(OozieWorkflowGenerator.class);
 
     private Config config;
+    private CompilationManifest manifest;
+    private ForkJoinMode forkJoinMode;
 
     public OozieWorkflowGenerator(Config config) {
+        this(config, null);
+    }
+
+    public OozieWorkflowGenerator(Config config, CompilationManifest manifest) {
+        this(config, manifest, ForkJoinMode.LEVELS);
+    }
+
+    /**
+     * @param config The merged Arbiter configuration
+     * @param manifest If not null, every generated workflow is recorded in this manifest
+     * @param forkJoinMode How to place fork/joins in workflows that do not choose a mode themselves
+     */
+    public OozieWorkflowGenerator(Config config, CompilationManifest manifest, ForkJoinMode forkJoinMode) {
         this.config = config;
+        this.manifest = manifest;
+        this.forkJoinMode = forkJoinMode;
+    }
+
+    /**
+     * Gets the file to which the Oozie workflow for an Arbiter workflow is written
+     *
+     * @param inputFile The file the Arbiter workflow was read from
+     * @return The XML file next to the input file with the same base name
+     */
+    public static File getOutputFile(File inputFile) {
+        String inputFileName = inputFile.getName().substring(0, inputFile.getName().lastIndexOf("."));
+        return new File(inputFile.getAbsoluteFile().getParentFile(), inputFileName + ".xml");
     }
 
     /**
@@ -63,60 +99,287 @@ public class OozieWorkflowGenerator {
      * @param workflows The workflows to convert
      * @param generateGraphviz Indicate if Graphviz graphs should be generated for workflows
      * @param graphvizFormat The format in which Graphviz graphs should be generated if enabled
+     * @throws WorkflowGraphException If the graph of a workflow is invalid
      */
-    public void generateOozieWorkflows(Map<File, Workflow> workflows, boolean generateGraphviz, String graphvizFormat) throws IOException, ParserConfigurationException, TransformerException, SAXException {
-        for (File inputFile : workflows.keySet()) {
-            String parentDir = inputFile.getParentFile().getAbsolutePath();
-            String inputFileName = inputFile.getName().substring(0, inputFile.getName().lastIndexOf("."));
-            Workflow workflow = workflows.get(inputFile);
-
-            DirectedAcyclicGraph<Action, DefaultEdge> workflowGraph = null;
-            DirectedAcyclicGraph<Action, DefaultEdge> inputGraph = null;
-            try {
-                inputGraph = WorkflowGraphBuilder.buildInputGraph(workflow, config);
-                workflowGraph = WorkflowGraphBuilder.buildWorkflowGraph(inputGraph, workflow, config);
-            } catch (WorkflowGraphException w) {
-                LOG.error("Unable to generate workflow", w);
-                System.exit(1);
+    public void generateOozieWorkflows(Map<File, Workflow> workflows, boolean generateGraphviz, String graphvizFormat) throws IOException, WorkflowGraphException {
+        generateOozieWorkflows(workflows, generateGraphviz, graphvizFormat, 1);
+    }
+
+    /**
+     * Generate Oozie workflows from Arbiter workflows
+     * Each workflow is compiled as an independent task, so with more than one thread they are spread over a work-stealing pool
+     *
+     * @param workflows The workflows to convert
+     * @param generateGraphviz Indicate if Graphviz graphs should be generated for workflows
+     * @param graphvizFormat The format in which Graphviz graphs should be generated if enabled
+     * @param threads The number of workflows to compile concurrently
+     * @throws WorkflowGraphException If the graph of a workflow is invalid
+     */
+    public void generateOozieWorkflows(Map<File, Workflow> workflows, boolean generateGraphviz, String graphvizFormat, int threads) throws IOException, WorkflowGraphException {
+        CacheStats includeStatsBefore = IncludeCache.stats();
+        generateAll(workflows, generateGraphviz, graphvizFormat, threads);
+        reportIncludeCache(workflows.size(), IncludeCache.stats().minus(includeStatsBefore));
+    }
+
+    private void generateAll(Map<File, Workflow> workflows, final boolean generateGraphviz, final String graphvizFormat, int threads) throws IOException, WorkflowGraphException {
+        if (threads <= 1 || workflows.size() <= 1) {
+            for (Map.Entry<File, Workflow> entry : workflows.entrySet()) {
+                generateOozieWorkflow(entry.getKey(), entry.getValue(), generateGraphviz, graphvizFormat);
             }
+            return;
+        }
 
-            Directives directives =
-              new WorkflowNode(workflow, workflowGraph, config, inputFile)
-              .buildDOM();
-            writeDocument(parentDir, inputFileName, directives);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            List<ForkJoinTask<Void>> tasks = new ArrayList<>(workflows.size());
+            for (final Map.Entry<File, Workflow> entry : workflows.entrySet()) {
+                tasks.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        generateOozieWorkflow(entry.getKey(), entry.getValue(), generateGraphviz, graphvizFormat);
+                        return null;
+                    }
+                }));
+            }
 
-            if (generateGraphviz) {
-                generateGraphs(graphvizFormat, parentDir, inputFileName, workflowGraph, inputGraph);
+            for (ForkJoinTask<Void> task : tasks) {
+                try {
+                    task.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while generating workflows", e);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    Throwables.propagateIfInstanceOf(cause, IOException.class);
+                    Throwables.propagateIfInstanceOf(cause, WorkflowGraphException.class);
+                    throw Throwables.propagate(cause);
+                }
             }
+        } finally {
+            pool.shutdown();
         }
     }
 
-    private void generateGraphs(String graphvizFormat, String parentDir, String inputFileName, DirectedAcyclicGraph<Action, DefaultEdge> workflowGraph, DirectedAcyclicGraph<Action, DefaultEdge> inputGraph) throws IOException {
+    /**
+     * Generate the Oozie workflow for a single Arbiter workflow
+     * All state used while compiling is local to this call, so it is safe to run for several workflows at once
+     *
+     * @param inputFile The file the workflow was read from
+     * @param workflow The workflow to convert
+     * @param generateGraphviz Indicate if Graphviz graphs should be generated for the workflow
+     * @param graphvizFormat The format in which Graphviz graphs should be generated if enabled
+     * @throws WorkflowGraphException If the graph of the workflow is invalid
+     */
+    private void generateOozieWorkflow(File inputFile, Workflow workflow, boolean generateGraphviz, String graphvizFormat) throws IOException, WorkflowGraphException {
+        CompiledWorkflow compiled = build(inputFile, workflow);
+        writeDocument(compiled.getOutputFile(), compiled.getWorkflowNode());
+        finish(compiled, generateGraphviz, graphvizFormat);
+    }
+
+    /**
+     * Build the graphs of a workflow and the node from which its XML is written
+     * This is safe to run for several workflows at once
+     *
+     * @param inputFile The file the workflow was read from
+     * @param workflow The workflow to convert
+     * @return The compiled workflow, ready to be written
+     * @throws IOException If an included file cannot be read
+     * @throws WorkflowGraphException If the graph of the workflow is invalid
+     */
+    CompiledWorkflow build(File inputFile, Workflow workflow) throws IOException, WorkflowGraphException {
+        IncludeExternalizer externalizer = null;
+        Long maxInlineSize = getMaxInlineSize(workflow, config);
+        if (maxInlineSize != null) {
+            externalizer = new IncludeExternalizer(getOutputFile(inputFile), maxInlineSize);
+        }
+
+        ActionGraph inputGraph = WorkflowGraphBuilder.buildInputGraph(workflow, config);
+        ForkJoinMode mode = ForkJoinMode.forWorkflow(workflow, forkJoinMode);
+        ForkJoinLayout layout = WorkflowGraphBuilder.buildLayout(inputGraph, workflow, config, mode);
+        ActionGraph workflowGraph = layout.getWorkflowGraph();
+        reportLayout(workflow, mode, layout);
+
+        WorkflowNode workflowNode = new WorkflowNode(workflow, workflowGraph, config, inputFile, externalizer);
+        return new CompiledWorkflow(inputFile, workflow, inputGraph, workflowGraph, workflowNode, externalizer);
+    }
+
+    /**
+     * Record a workflow whose XML has been written and generate its graphs
+     * This is safe to run for several workflows at once
+     *
+     * @param compiled The compiled workflow
+     * @param generateGraphviz Indicate if Graphviz graphs should be generated for the workflow
+     * @param graphvizFormat The format in which Graphviz graphs should be generated if enabled
+     */
+    void finish(CompiledWorkflow compiled, boolean generateGraphviz, String graphvizFormat) throws IOException {
+        IncludeExternalizer externalizer = compiled.getExternalizer();
+        if (externalizer != null && externalizer.getExternalizedCount() > 0) {
+            LOG.info(String.format(
+              "Workflow %s externalized %d included files, saving %d bytes",
+              compiled.getWorkflow().getName(),
+              externalizer.getExternalizedCount(),
+              externalizer.getBytesSaved()
+            ));
+        }
+
+        if (manifest != null) {
+            // Once the new XML is written, the copies of the last compile it no longer ships are removed
+            if (externalizer != null) {
+                externalizer.removeStaleCopies(manifest.getExternalizedCopies(compiled.getInputFile()));
+            }
+            manifest.record(
+              compiled.getInputFile(),
+              compiled.getWorkflowNode().getIncludedFiles(),
+              externalizer == null ? Collections.<File>emptyList() : externalizer.getCopies()
+            );
+        }
+
+        if (generateGraphviz) {
+            File inputFile = compiled.getInputFile();
+            String parentDir = inputFile.getParentFile().getAbsolutePath();
+            String inputFileName = inputFile.getName().substring(0, inputFile.getName().lastIndexOf("."));
+            generateGraphs(graphvizFormat, parentDir, inputFileName, compiled.getWorkflowGraph(), compiled.getInputGraph());
+        }
+    }
+
+    /**
+     * Gets the size above which included files are copied next to a workflow instead of inlined
+     * A workflow may override the maxInlineSize of the configuration
+     *
+     * @param workflow The workflow
+     * @param config The merged configuration
+     * @return The size in bytes, or null if every included file is inlined
+     * @throws WorkflowGraphException If the size is negative
+     */
+    public static Long getMaxInlineSize(Workflow workflow, Config config) throws WorkflowGraphException {
+        Long maxInlineSize = workflow.getMaxInlineSize() != null ? workflow.getMaxInlineSize() : config.getMaxInlineSize();
+        if (maxInlineSize != null && maxInlineSize < 0) {
+            throw new WorkflowGraphException("Invalid maximum inline size for workflow " + workflow.getName() + ": " + maxInlineSize);
+        }
+
+        return maxInlineSize;
+    }
+
+    /**
+     * Log how the fork/joins of a workflow compare to the level ones, and whether the level ones were used instead
+     *
+     * @param workflow The workflow
+     * @param requestedMode The fork/join mode requested for the workflow
+     * @param layout The workflow graph built for it
+     */
+    private void reportLayout(Workflow workflow, ForkJoinMode requestedMode, ForkJoinLayout layout) {
+        if (requestedMode == ForkJoinMode.SERIES_PARALLEL && layout.getMode() == requestedMode) {
+            LOG.info(String.format(
+              "Workflow %s has %d false dependencies with series-parallel fork/joins and %d with level fork/joins",
+              workflow.getName(),
+              layout.getFalseDependencies(),
+              layout.getLevelFalseDependencies()
+            ));
+        } else if (requestedMode == ForkJoinMode.SERIES_PARALLEL) {
+            LOG.info(String.format(
+              "Workflow %s uses level fork/joins with %d false dependencies, as series-parallel fork/joins add more",
+              workflow.getName(),
+              layout.getLevelFalseDependencies()
+            ));
+        } else if (requestedMode == ForkJoinMode.CRITICAL_PATH && layout.getMode() == requestedMode) {
+            LOG.info(String.format(
+              "Workflow %s has a predicted makespan of %d with critical-path fork/joins and %d with level fork/joins",
+              workflow.getName(),
+              layout.getMakespan(),
+              layout.getLevelMakespan()
+            ));
+        } else if (requestedMode == ForkJoinMode.CRITICAL_PATH) {
+            LOG.info(String.format(
+              "Workflow %s uses level fork/joins with a predicted makespan of %d, as critical-path fork/joins do no better",
+              workflow.getName(),
+              layout.getLevelMakespan()
+            ));
+        }
+    }
+
+    /**
+     * Log how often the files included by a run were already in the include cache
+     *
+     * @param workflowCount The number of workflows generated by the run
+     * @param stats The include cache statistics of the run
+     */
+    void reportIncludeCache(int workflowCount, CacheStats stats) {
+        LOG.info(String.format(
+          "Generated %d workflows, included files were read %d times with %d include cache hits and %d misses",
+          workflowCount,
+          stats.requestCount(),
+          stats.hitCount(),
+          stats.missCount()
+        ));
+    }
+
+    private void generateGraphs(String graphvizFormat, String parentDir, String inputFileName, ActionGraph workflowGraph, ActionGraph inputGraph) throws IOException {
         File dotFilesBaseDir = new File(parentDir, "dot");
         FileUtils.forceMkdir(dotFilesBaseDir);
         String outputDotFilesAbsolutePath = new File(dotFilesBaseDir, inputFileName).getAbsolutePath();
-        GraphvizGenerator.generateGraphviz(inputGraph, outputDotFilesAbsolutePath + "-input.dot", graphvizFormat);
-        GraphvizGenerator.generateGraphviz(workflowGraph, outputDotFilesAbsolutePath + ".dot", graphvizFormat);
+        GraphvizGenerator.generateGraphviz(inputGraph.toDirectedAcyclicGraph(), outputDotFilesAbsolutePath + "-input.dot", graphvizFormat);
+        GraphvizGenerator.generateGraphviz(workflowGraph.toDirectedAcyclicGraph(), outputDotFilesAbsolutePath + ".dot", graphvizFormat);
     }
 
     /**
-     * Write an XML document to a file
+     * Write an XML document to a file in a single pass, streaming it straight from the workflow node
      *
-     * @param parentDir The parent dir of output file for the XML file.
-     * @param inputFileName The name of output file for the XML file.
-     * @param directives The document to write out
-     * @throws TransformerException
+     * @param outputFile The file to which to write the XML
+     * @param workflowNode The document to write out
      * @throws IOException
      */
-    private void writeDocument(String parentDir, String inputFileName, Directives directives) throws TransformerException, IOException, ParserConfigurationException, SAXException {
-        File outputFile = new File(parentDir, inputFileName + ".xml");
-        writeToStreamResult(directives, new StreamResult(outputFile));
-        writeStringToFile(outputFile, replaceArbiterCommentTags(outputFile));
+    private void writeDocument(File outputFile, WorkflowNode workflowNode) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(outputFile.toPath(), StandardCharsets.UTF_8)) {
+            DocumentWriter.write(workflowNode, writer);
+        }
     }
 
-    private static String replaceArbiterCommentTags(File outputFile) throws IOException {
-        return FileUtils.readFileToString(outputFile)
-          .replace("<" + ActionNode.ARBITER_COMMENT_TAG + ">", "<!--")
-          .replace("</" + ActionNode.ARBITER_COMMENT_TAG + ">", "-->");
+    /**
+     * A workflow whose graphs have been built, along with everything needed to write and record it
+     */
+    static final class CompiledWorkflow {
+        private final File inputFile;
+        private final Workflow workflow;
+        private final ActionGraph inputGraph;
+        private final ActionGraph workflowGraph;
+        private final WorkflowNode workflowNode;
+        private final IncludeExternalizer externalizer;
+
+        CompiledWorkflow(File inputFile, Workflow workflow, ActionGraph inputGraph, ActionGraph workflowGraph, WorkflowNode workflowNode, IncludeExternalizer externalizer) {
+            this.inputFile = inputFile;
+            this.workflow = workflow;
+            this.inputGraph = inputGraph;
+            this.workflowGraph = workflowGraph;
+            this.workflowNode = workflowNode;
+            this.externalizer = externalizer;
+        }
+
+        File getInputFile() {
+            return inputFile;
+        }
+
+        File getOutputFile() {
+            return OozieWorkflowGenerator.getOutputFile(inputFile);
+        }
+
+        Workflow getWorkflow() {
+            return workflow;
+        }
+
+        ActionGraph getInputGraph() {
+            return inputGraph;
+        }
+
+        ActionGraph getWorkflowGraph() {
+            return workflowGraph;
+        }
+
+        WorkflowNode getWorkflowNode() {
+            return workflowNode;
+        }
+
+        IncludeExternalizer getExternalizer() {
+            return externalizer;
+        }
     }
 }
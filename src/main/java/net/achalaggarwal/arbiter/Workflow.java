@@ -23,7 +23,9 @@ package net.achalaggarwal.arbiter;
 
 import net.achalaggarwal.arbiter.config.Credential;
 import net.achalaggarwal.arbiter.config.Global;
+import net.achalaggarwal.arbiter.util.YamlReader;
 import lombok.Data;
+import com.google.common.base.Supplier;
 import org.yaml.snakeyaml.TypeDescription;
 import org.yaml.snakeyaml.constructor.Constructor;
 
@@ -37,6 +39,13 @@ import java.util.List;
  */
 @Data
 public class Workflow {
+    private static final YamlReader<Workflow> YAML_READER = new YamlReader<>(new Supplier<Constructor>() {
+        @Override
+        public Constructor get() {
+            return getYamlConstructor();
+        }
+    });
+
     /**
      * Defines how to construct a Workflow objects when reading from YAML
      *
@@ -53,10 +62,22 @@ public class Workflow {
         return workflowConstructor;
     }
 
+    /**
+     * Gets the reader for Workflow YAML, which is shared by every thread
+     *
+     * @return The shared reader
+     */
+    public static YamlReader<Workflow> getYamlReader() {
+        return YAML_READER;
+    }
+
     private String name;
     private String xmlns;
     private List<Action> actions;
     private List<Credential> credentials = new ArrayList<>();
     private Action errorHandler;
     private Global global;
+    private String forkJoinMode;
+    private Integer maxForkWidth;
+    private Long maxInlineSize;
 }
@@ -0,0 +1,378 @@
+package net.achalaggarwal.arbiter;
+
+import net.achalaggarwal.arbiter.exception.WorkflowGraphException;
+import net.achalaggarwal.arbiter.util.CompilationManifest;
+import net.achalaggarwal.arbiter.util.DocumentWriter;
+import net.achalaggarwal.arbiter.util.IncludeCache;
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheStats;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.DeferredFileOutputStream;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compiles the workflows under a file/dir as they are found, instead of reading them all before compiling any
+ * Each workflow goes through five stages: the input is scanned for YAML files, each file is parsed, the graphs of the
+ * workflow are built, its XML is emitted into a buffer and the buffer is written to the output file
+ * The stages run on their own threads and are connected by bounded queues, so a stage that gets ahead blocks until
+ * the next one catches up, only a few workflows are held in memory at once, and reading files overlaps with compiling
+ * With a single thread the stages run one after another for each workflow on the calling thread instead
+ */
+public class WorkflowPipeline {
+    // How many workflows can wait between two stages for each thread
+    private static final int QUEUE_CAPACITY_PER_THREAD = 2;
+    // Emitted XML larger than this spills from memory into a temporary file beside the output
+    private static final int SPILL_THRESHOLD = 1 << 20;
+    // Marks the end of the workflows in a queue
+    private static final Job END = new Job(null);
+
+    private final OozieWorkflowGenerator generator;
+    private final CompilationManifest manifest;
+    private final boolean generateGraphviz;
+    private final String graphvizFormat;
+    private final int threads;
+
+    // Emitted XML that spilled into temporary files that have not been moved into place yet
+    private final Set<File> spilledFiles = Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+    private final AtomicInteger compiledCount = new AtomicInteger();
+
+    /**
+     * @param generator The generator with which to build and record workflows
+     * @param manifest If not null, workflows this manifest finds up to date are skipped
+     * @param generateGraphviz Indicate if Graphviz graphs should be generated for workflows
+     * @param graphvizFormat The format in which Graphviz graphs should be generated if enabled
+     * @param threads The number of threads for each of the parse, build, emit and write stages
+     */
+    public WorkflowPipeline(OozieWorkflowGenerator generator, CompilationManifest manifest, boolean generateGraphviz, String graphvizFormat, int threads) {
+        this.generator = generator;
+        this.manifest = manifest;
+        this.generateGraphviz = generateGraphviz;
+        this.graphvizFormat = graphvizFormat;
+        this.threads = threads;
+    }
+
+    /**
+     * Compile the workflows under a file/dir
+     * If a workflow fails to compile, every stage is stopped and the failure is thrown once they have
+     *
+     * @param inputFile The workflow file/dir
+     * @return The number of workflows compiled
+     * @throws WorkflowGraphException If the graph of a workflow is invalid
+     */
+    public int run(String inputFile) throws IOException, WorkflowGraphException {
+        CacheStats includeStatsBefore = IncludeCache.stats();
+
+        try {
+            if (threads <= 1) {
+                runSerially(new File(inputFile));
+            } else {
+                runConcurrently(new File(inputFile));
+            }
+        } finally {
+            for (File spilledFile : spilledFiles) {
+                FileUtils.deleteQuietly(spilledFile);
+            }
+        }
+
+        generator.reportIncludeCache(compiledCount.get(), IncludeCache.stats().minus(includeStatsBefore));
+        return compiledCount.get();
+    }
+
+    /**
+     * Run every stage for one workflow after another on the calling thread
+     *
+     * @param input The workflow file/dir
+     * @throws WorkflowGraphException If the graph of a workflow is invalid
+     */
+    private void runSerially(File input) throws IOException, WorkflowGraphException {
+        BlockingQueue<Job> scanned = new LinkedBlockingQueue<>();
+        List<Stage> stages = Arrays.asList(
+          new ParseStage(null, null, 1),
+          new BuildStage(null, null, 1),
+          new EmitStage(null, null, 1),
+          new WriteStage(null, 1)
+        );
+
+        try {
+            new ScanStage(input, scanned).call();
+            for (Job job = scanned.poll(); job != END; job = scanned.poll()) {
+                for (Stage stage : stages) {
+                    stage.process(job);
+                }
+            }
+        } catch (Exception e) {
+            Throwables.propagateIfInstanceOf(e, IOException.class);
+            Throwables.propagateIfInstanceOf(e, WorkflowGraphException.class);
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * Run each stage on its own workers, connected by bounded queues
+     *
+     * @param input The workflow file/dir
+     * @throws WorkflowGraphException If the graph of a workflow is invalid
+     */
+    private void runConcurrently(File input) throws IOException, WorkflowGraphException {
+        int capacity = threads * QUEUE_CAPACITY_PER_THREAD;
+        BlockingQueue<Job> scanned = new ArrayBlockingQueue<>(capacity);
+        BlockingQueue<Job> parsed = new ArrayBlockingQueue<>(capacity);
+        BlockingQueue<Job> built = new ArrayBlockingQueue<>(capacity);
+        BlockingQueue<Job> emitted = new ArrayBlockingQueue<>(capacity);
+
+        // Every worker blocks on the queues between stages, so each one needs a thread of its own
+        ExecutorService executor = Executors.newFixedThreadPool(1 + 4 * threads);
+        CompletionService<Void> stages = new ExecutorCompletionService<>(executor);
+        int tasks = 0;
+        try {
+            stages.submit(new ScanStage(input, scanned));
+            tasks++;
+            tasks += submit(stages, new ParseStage(scanned, parsed, threads), threads);
+            tasks += submit(stages, new BuildStage(parsed, built, threads), threads);
+            tasks += submit(stages, new EmitStage(built, emitted, threads), threads);
+            tasks += submit(stages, new WriteStage(emitted, threads), threads);
+
+            for (int i = 0; i < tasks; i++) {
+                try {
+                    stages.take().get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while generating workflows", e);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    Throwables.propagateIfInstanceOf(cause, IOException.class);
+                    Throwables.propagateIfInstanceOf(cause, WorkflowGraphException.class);
+                    throw Throwables.propagate(cause);
+                }
+            }
+        } finally {
+            // Stopping every stage unblocks the ones waiting on a queue a failed stage no longer serves
+            executor.shutdownNow();
+            awaitTermination(executor);
+        }
+    }
+
+    private static int submit(CompletionService<Void> stages, Stage stage, int workers) {
+        for (int i = 0; i < workers; i++) {
+            stages.submit(stage);
+        }
+        return workers;
+    }
+
+    private static void awaitTermination(ExecutorService executor) {
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A workflow on its way through the stages, filled in by each stage in turn
+     */
+    private static final class Job {
+        private final File inputFile;
+        private Workflow workflow;
+        private OozieWorkflowGenerator.CompiledWorkflow compiled;
+        private DeferredFileOutputStream document;
+        private File spillFile;
+
+        Job(File inputFile) {
+            this.inputFile = inputFile;
+        }
+    }
+
+    /**
+     * Finds the YAML files under the input and queues the ones that need to be compiled
+     * Links to dirs are followed, as the listing of the input used to be, and a dir reached again through a link is
+     * skipped instead of being scanned until the paths are too long
+     */
+    private final class ScanStage implements Callable<Void> {
+        private final File input;
+        private final BlockingQueue<Job> out;
+
+        ScanStage(File input, BlockingQueue<Job> out) {
+            this.input = input;
+            this.out = out;
+        }
+
+        @Override
+        public Void call() throws Exception {
+            if (input.isDirectory()) {
+                Files.walkFileTree(input.toPath(), EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                        if (file.getFileName().toString().endsWith(".yaml")) {
+                            scan(file.toFile());
+                        }
+                        return Thread.currentThread().isInterrupted() ? FileVisitResult.TERMINATE : FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+                        if (exc instanceof FileSystemLoopException) {
+                            return FileVisitResult.CONTINUE;
+                        }
+                        throw exc;
+                    }
+                });
+            } else {
+                scan(input);
+            }
+
+            out.put(END);
+            return null;
+        }
+
+        private void scan(File file) throws IOException {
+            if (manifest != null && manifest.isUpToDate(file)) {
+                return;
+            }
+
+            try {
+                out.put(new Job(file));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * A stage that takes workflows from one queue, processes them on several workers and passes them to the next
+     * Every worker runs the same instance, and once all of them have seen the end of their queue the end is passed on
+     */
+    private abstract static class Stage implements Callable<Void> {
+        private final BlockingQueue<Job> in;
+        private final BlockingQueue<Job> out;
+        private final AtomicInteger runningWorkers;
+
+        Stage(BlockingQueue<Job> in, BlockingQueue<Job> out, int workers) {
+            this.in = in;
+            this.out = out;
+            this.runningWorkers = new AtomicInteger(workers);
+        }
+
+        @Override
+        public Void call() throws Exception {
+            for (Job job = in.take(); job != END; job = in.take()) {
+                process(job);
+                if (out != null) {
+                    out.put(job);
+                }
+            }
+
+            // Leave the end in the queue for the other workers of this stage
+            in.put(END);
+            if (runningWorkers.decrementAndGet() == 0 && out != null) {
+                out.put(END);
+            }
+            return null;
+        }
+
+        abstract void process(Job job) throws Exception;
+    }
+
+    private static final class ParseStage extends Stage {
+        ParseStage(BlockingQueue<Job> in, BlockingQueue<Job> out, int workers) {
+            super(in, out, workers);
+        }
+
+        @Override
+        void process(Job job) {
+            job.workflow = Workflow.getYamlReader().read(job.inputFile);
+        }
+    }
+
+    private final class BuildStage extends Stage {
+        BuildStage(BlockingQueue<Job> in, BlockingQueue<Job> out, int workers) {
+            super(in, out, workers);
+        }
+
+        @Override
+        void process(Job job) throws IOException, WorkflowGraphException {
+            job.compiled = generator.build(job.inputFile, job.workflow);
+            job.workflow = null;
+        }
+    }
+
+    private final class EmitStage extends Stage {
+        EmitStage(BlockingQueue<Job> in, BlockingQueue<Job> out, int workers) {
+            super(in, out, workers);
+        }
+
+        @Override
+        void process(Job job) throws IOException {
+            File outputFile = job.compiled.getOutputFile();
+            job.spillFile = new File(outputFile.getParentFile(), "." + outputFile.getName() + ".tmp");
+            job.document = new DeferredFileOutputStream(SPILL_THRESHOLD, job.spillFile);
+
+            boolean emitted = false;
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(job.document, StandardCharsets.UTF_8.newEncoder()))) {
+                DocumentWriter.write(job.compiled.getWorkflowNode(), writer);
+                emitted = true;
+            } finally {
+                if (!job.document.isInMemory()) {
+                    if (emitted) {
+                        spilledFiles.add(job.spillFile);
+                    } else {
+                        FileUtils.deleteQuietly(job.spillFile);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes each emitted workflow to its output file and records it, generating its graphs if enabled
+     */
+    private final class WriteStage extends Stage {
+        WriteStage(BlockingQueue<Job> in, int workers) {
+            super(in, null, workers);
+        }
+
+        @Override
+        void process(Job job) throws IOException {
+            File outputFile = job.compiled.getOutputFile();
+            if (job.document.isInMemory()) {
+                Files.write(outputFile.toPath(), job.document.getData());
+            } else {
+                Files.move(job.spillFile.toPath(), outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                spilledFiles.remove(job.spillFile);
+            }
+
+            generator.finish(job.compiled, generateGraphviz, graphvizFormat);
+            compiledCount.incrementAndGet();
+        }
+    }
+}
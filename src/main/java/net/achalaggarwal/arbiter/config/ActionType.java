@@ -44,9 +44,10 @@ public class ActionType {
     private Map<String, String> properties = new HashMap<>();
     private Map<String, String> defaultInterpolations;
     private boolean lowPrecedence;
-    private int configurationPosition;
-    private int preparePosition;
+    private Integer configurationPosition;
+    private Integer preparePosition;
     private Prepare prepare;
+    private Long expectedDuration;
 
     public boolean isLowPrecedence() {
         return lowPrecedence;
@@ -0,0 +1,298 @@
+package net.achalaggarwal.arbiter.config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A merged configuration that can no longer be changed, so any number of workflows can be compiled against it at once
+ * Action types are indexed by name, and every action type, credential and the global configuration
+ * are copied so that nothing outside this object can change them either
+ * Every setter throws an UnsupportedOperationException
+ */
+public final class CompiledConfig extends Config {
+    private final Map<String, ActionType> actionTypesByName = new HashMap<>();
+    private final boolean compiled;
+
+    CompiledConfig(Global global, List<ActionType> actionTypes, String killName, String killMessage, List<Credential> credentials, Integer maxForkWidth, Long maxInlineSize) {
+        List<ActionType> compiledActionTypes = new ArrayList<>(actionTypes.size());
+        for (ActionType actionType : actionTypes) {
+            ActionType compiledActionType = new CompiledActionType(actionType);
+            compiledActionTypes.add(compiledActionType);
+            if (!actionTypesByName.containsKey(actionType.getName())) {
+                actionTypesByName.put(actionType.getName(), compiledActionType);
+            }
+        }
+
+        List<Credential> compiledCredentials = new ArrayList<>(credentials.size());
+        for (Credential credential : credentials) {
+            compiledCredentials.add(new CompiledCredential(credential));
+        }
+
+        super.setGlobal(global == null ? null : new CompiledGlobal(global));
+        super.setActionTypes(Collections.unmodifiableList(compiledActionTypes));
+        super.setKillName(killName);
+        super.setKillMessage(killMessage);
+        super.setCredentials(Collections.unmodifiableList(compiledCredentials));
+        super.setMaxForkWidth(maxForkWidth);
+        super.setMaxInlineSize(maxInlineSize);
+        compiled = true;
+    }
+
+    @Override
+    public ActionType getActionTypeByName(String name) {
+        return actionTypesByName.get(name);
+    }
+
+    @Override
+    public void setLowPrecedence(boolean precedence) {
+        checkNotCompiled(compiled);
+        super.setLowPrecedence(precedence);
+    }
+
+    @Override
+    public void setGlobal(Global global) {
+        checkNotCompiled(compiled);
+        super.setGlobal(global);
+    }
+
+    @Override
+    public void setActionTypes(List<ActionType> actionTypes) {
+        checkNotCompiled(compiled);
+        super.setActionTypes(actionTypes);
+    }
+
+    @Override
+    public void setKillName(String killName) {
+        checkNotCompiled(compiled);
+        super.setKillName(killName);
+    }
+
+    @Override
+    public void setKillMessage(String killMessage) {
+        checkNotCompiled(compiled);
+        super.setKillMessage(killMessage);
+    }
+
+    @Override
+    public void setCredentials(List<Credential> credentials) {
+        checkNotCompiled(compiled);
+        super.setCredentials(credentials);
+    }
+
+    @Override
+    public void setMaxForkWidth(Integer maxForkWidth) {
+        checkNotCompiled(compiled);
+        super.setMaxForkWidth(maxForkWidth);
+    }
+
+    @Override
+    public void setMaxInlineSize(Long maxInlineSize) {
+        checkNotCompiled(compiled);
+        super.setMaxInlineSize(maxInlineSize);
+    }
+
+    private static void checkNotCompiled(boolean compiled) {
+        if (compiled) {
+            throw new UnsupportedOperationException("A compiled configuration cannot be changed");
+        }
+    }
+
+    private static <K, V> Map<K, V> copyOf(Map<K, V> map) {
+        return map == null ? null : Collections.unmodifiableMap(new LinkedHashMap<>(map));
+    }
+
+    private static <K, V> Map<K, List<V>> copyOfListMap(Map<K, List<V>> map) {
+        if (map == null) {
+            return null;
+        }
+
+        Map<K, List<V>> copy = new LinkedHashMap<>();
+        for (Map.Entry<K, List<V>> entry : map.entrySet()) {
+            copy.put(entry.getKey(), entry.getValue() == null ? null : Collections.unmodifiableList(new ArrayList<>(entry.getValue())));
+        }
+        return Collections.unmodifiableMap(copy);
+    }
+
+    /**
+     * An action type that cannot be changed once it is copied
+     * Prepare exposes its map, so a copy of the prepare operations is handed out each time they are read
+     */
+    private static final class CompiledActionType extends ActionType {
+        private final boolean compiled;
+
+        CompiledActionType(ActionType actionType) {
+            super.setTag(actionType.getTag());
+            super.setName(actionType.getName());
+            super.setXmlns(actionType.getXmlns());
+            super.setCred(actionType.getCred());
+            super.setRetryMax(actionType.getRetryMax());
+            super.setRetryInterval(actionType.getRetryInterval());
+            super.setDefaultArgs(copyOfListMap(actionType.getDefaultArgs()));
+            super.setProperties(copyOf(actionType.getProperties()));
+            super.setDefaultInterpolations(copyOf(actionType.getDefaultInterpolations()));
+            super.setLowPrecedence(actionType.isLowPrecedence());
+            super.setConfigurationPosition(actionType.getConfigurationPosition());
+            super.setPreparePosition(actionType.getPreparePosition());
+            super.setPrepare(actionType.getPrepare() == null ? null : new Prepare(actionType.getPrepare()));
+            super.setExpectedDuration(actionType.getExpectedDuration());
+            compiled = true;
+        }
+
+        @Override
+        public Prepare getPrepare() {
+            return super.getPrepare() == null ? null : new Prepare(super.getPrepare());
+        }
+
+        @Override
+        public void setTag(String tag) {
+            checkNotCompiled(compiled);
+            super.setTag(tag);
+        }
+
+        @Override
+        public void setName(String name) {
+            checkNotCompiled(compiled);
+            super.setName(name);
+        }
+
+        @Override
+        public void setXmlns(String xmlns) {
+            checkNotCompiled(compiled);
+            super.setXmlns(xmlns);
+        }
+
+        @Override
+        public void setCred(String cred) {
+            checkNotCompiled(compiled);
+            super.setCred(cred);
+        }
+
+        @Override
+        public void setRetryMax(Integer retryMax) {
+            checkNotCompiled(compiled);
+            super.setRetryMax(retryMax);
+        }
+
+        @Override
+        public void setRetryInterval(Integer retryInterval) {
+            checkNotCompiled(compiled);
+            super.setRetryInterval(retryInterval);
+        }
+
+        @Override
+        public void setDefaultArgs(Map<String, List<String>> defaultArgs) {
+            checkNotCompiled(compiled);
+            super.setDefaultArgs(defaultArgs);
+        }
+
+        @Override
+        public void setProperties(Map<String, String> properties) {
+            checkNotCompiled(compiled);
+            super.setProperties(properties);
+        }
+
+        @Override
+        public void setDefaultInterpolations(Map<String, String> defaultInterpolations) {
+            checkNotCompiled(compiled);
+            super.setDefaultInterpolations(defaultInterpolations);
+        }
+
+        @Override
+        public void setLowPrecedence(boolean lowPrecedence) {
+            checkNotCompiled(compiled);
+            super.setLowPrecedence(lowPrecedence);
+        }
+
+        @Override
+        public void setConfigurationPosition(Integer configurationPosition) {
+            checkNotCompiled(compiled);
+            super.setConfigurationPosition(configurationPosition);
+        }
+
+        @Override
+        public void setPreparePosition(Integer preparePosition) {
+            checkNotCompiled(compiled);
+            super.setPreparePosition(preparePosition);
+        }
+
+        @Override
+        public void setPrepare(Prepare prepare) {
+            checkNotCompiled(compiled);
+            super.setPrepare(prepare);
+        }
+
+        @Override
+        public void setExpectedDuration(Long expectedDuration) {
+            checkNotCompiled(compiled);
+            super.setExpectedDuration(expectedDuration);
+        }
+    }
+
+    /**
+     * A credential that cannot be changed once it is copied
+     */
+    private static final class CompiledCredential extends Credential {
+        private final boolean compiled;
+
+        CompiledCredential(Credential credential) {
+            super.setName(credential.getName());
+            super.setType(credential.getType());
+            super.setProperties(copyOf(credential.getProperties()));
+            compiled = true;
+        }
+
+        @Override
+        public void setName(String name) {
+            checkNotCompiled(compiled);
+            super.setName(name);
+        }
+
+        @Override
+        public void setType(String type) {
+            checkNotCompiled(compiled);
+            super.setType(type);
+        }
+
+        @Override
+        public void setProperties(Map<String, String> properties) {
+            checkNotCompiled(compiled);
+            super.setProperties(properties);
+        }
+    }
+
+    /**
+     * A global configuration that cannot be changed once it is copied
+     */
+    private static final class CompiledGlobal extends Global {
+        private final boolean compiled;
+
+        CompiledGlobal(Global global) {
+            super.setDefaultArgs(copyOfListMap(global.getDefaultArgs()));
+            super.setProperties(copyOf(global.getProperties()));
+            super.setConfigurationPosition(global.getConfigurationPosition());
+            compiled = true;
+        }
+
+        @Override
+        public void setDefaultArgs(Map<String, List<String>> defaultArgs) {
+            checkNotCompiled(compiled);
+            super.setDefaultArgs(defaultArgs);
+        }
+
+        @Override
+        public void setProperties(Map<String, String> properties) {
+            checkNotCompiled(compiled);
+            super.setProperties(properties);
+        }
+
+        @Override
+        public void setConfigurationPosition(int configurationPosition) {
+            checkNotCompiled(compiled);
+            super.setConfigurationPosition(configurationPosition);
+        }
+    }
+}
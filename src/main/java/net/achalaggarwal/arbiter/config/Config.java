@@ -21,7 +21,9 @@
 
 package net.achalaggarwal.arbiter.config;
 
+import net.achalaggarwal.arbiter.util.YamlReader;
 import lombok.Data;
+import com.google.common.base.Supplier;
 import org.yaml.snakeyaml.TypeDescription;
 import org.yaml.snakeyaml.constructor.Constructor;
 
@@ -35,6 +37,13 @@ import java.util.List;
  */
 @Data
 public class Config {
+    private static final YamlReader<Config> YAML_READER = new YamlReader<>(new Supplier<Constructor>() {
+        @Override
+        public Constructor get() {
+            return getYamlConstructor();
+        }
+    });
+
     /**
      * Defines how to construct a Config objects when reading from YAML
      *
@@ -51,11 +60,22 @@ public class Config {
         return configConstructor;
     }
 
+    /**
+     * Gets the reader for Config YAML, which is shared by every thread
+     *
+     * @return The shared reader
+     */
+    public static YamlReader<Config> getYamlReader() {
+        return YAML_READER;
+    }
+
     private Global global;
     private List<ActionType> actionTypes = new ArrayList<>();
     private String killName;
     private String killMessage;
     private List<Credential> credentials = new ArrayList<>();
+    private Integer maxForkWidth;
+    private Long maxInlineSize;
 
     /**
      * Sets the precedence for this Config
@@ -40,21 +40,21 @@ public class ConfigurationMerger {
 
     /**
      * Merge multiple configurations together
+     * The result is indexed for lookups and cannot be changed, so it can be shared by concurrent compilations
      *
      * @param configs The list of Config objects to merge
-     * @return A Config object representing the merger of all given Configs
+     * @return A CompiledConfig object representing the merger of all given Configs
      */
-    public static Config mergeConfiguration(List<Config> configs) throws ConfigurationException {
-
-        Config mergedConfig = new Config();
-
-        mergedConfig.setGlobal(mergeGlobal(configs));
-        mergedConfig.setKillName(mergeKillName(configs));
-        mergedConfig.setKillMessage(mergeKillMessage(configs));
-        mergedConfig.setActionTypes(mergeActionTypes(configs));
-        mergedConfig.setCredentials(mergeCredentials(configs));
-
-        return mergedConfig;
+    public static CompiledConfig mergeConfiguration(List<Config> configs) throws ConfigurationException {
+        return new CompiledConfig(
+          mergeGlobal(configs),
+          mergeActionTypes(configs),
+          mergeKillName(configs),
+          mergeKillMessage(configs),
+          mergeCredentials(configs),
+          mergeMaxForkWidth(configs),
+          mergeMaxInlineSize(configs)
+        );
     }
 
     private static List<Credential> mergeCredentials(List<Config> configs) throws ConfigurationException {
@@ -132,6 +132,24 @@ public class ConfigurationMerger {
         });
     }
 
+    private static Integer mergeMaxForkWidth(List<Config> configs) {
+        return getFirstNonNull(configs, new Function<Config, Integer>() {
+            @Override
+            public Integer apply(Config input) {
+                return input.getMaxForkWidth();
+            }
+        });
+    }
+
+    private static Long mergeMaxInlineSize(List<Config> configs) {
+        return getFirstNonNull(configs, new Function<Config, Long>() {
+            @Override
+            public Long apply(Config input) {
+                return input.getMaxInlineSize();
+            }
+        });
+    }
+
     private static List<ActionType> mergeActionTypes(List<Config> configs) throws ConfigurationException {
         List<ActionType> actionTypes = new ArrayList<>();
 
@@ -190,6 +208,58 @@ public class ConfigurationMerger {
                         return input.getDefaultArgs();
                     }
                 }));
+                Map<String, String> defaultInterpolations = mergeMaps(value, new Function<ActionType, Map<String, String>>() {
+                    @Override
+                    public Map<String, String> apply(ActionType input) {
+                        return input.getDefaultInterpolations() == null ? new HashMap<String, String>() : input.getDefaultInterpolations();
+                    }
+                });
+                merged.setDefaultInterpolations(defaultInterpolations.isEmpty() ? null : defaultInterpolations);
+
+                // The types are sorted with the low-precedence ones first, so the last value set takes precedence
+                List<ActionType> highPrecedenceFirst = Lists.reverse(value);
+                merged.setCred(getFirstNonNull(highPrecedenceFirst, new Function<ActionType, String>() {
+                    @Override
+                    public String apply(ActionType input) {
+                        return input.getCred();
+                    }
+                }));
+                merged.setRetryMax(getFirstNonNull(highPrecedenceFirst, new Function<ActionType, Integer>() {
+                    @Override
+                    public Integer apply(ActionType input) {
+                        return input.getRetryMax();
+                    }
+                }));
+                merged.setRetryInterval(getFirstNonNull(highPrecedenceFirst, new Function<ActionType, Integer>() {
+                    @Override
+                    public Integer apply(ActionType input) {
+                        return input.getRetryInterval();
+                    }
+                }));
+                merged.setExpectedDuration(getFirstNonNull(highPrecedenceFirst, new Function<ActionType, Long>() {
+                    @Override
+                    public Long apply(ActionType input) {
+                        return input.getExpectedDuration();
+                    }
+                }));
+                merged.setPrepare(getFirstNonNull(highPrecedenceFirst, new Function<ActionType, Prepare>() {
+                    @Override
+                    public Prepare apply(ActionType input) {
+                        return input.getPrepare();
+                    }
+                }));
+                merged.setConfigurationPosition(getFirstNonNull(highPrecedenceFirst, new Function<ActionType, Integer>() {
+                    @Override
+                    public Integer apply(ActionType input) {
+                        return input.getConfigurationPosition();
+                    }
+                }));
+                merged.setPreparePosition(getFirstNonNull(highPrecedenceFirst, new Function<ActionType, Integer>() {
+                    @Override
+                    public Integer apply(ActionType input) {
+                        return input.getPreparePosition();
+                    }
+                }));
 
                 actionTypes.add(merged);
             }
@@ -202,9 +272,9 @@ public class ConfigurationMerger {
      * Merge multiple configurations together
      *
      * @param configs The list of Config objects to merge
-     * @return A Config object representing the merger of all given Configs
+     * @return A CompiledConfig object representing the merger of all given Configs
      */
-    public static Config mergeConfiguration(Config... configs) throws ConfigurationException {
+    public static CompiledConfig mergeConfiguration(Config... configs) throws ConfigurationException {
         return mergeConfiguration(Arrays.asList(configs));
     }
 
@@ -1,8 +1,10 @@
 package net.achalaggarwal.arbiter.config;
 
 import com.google.common.collect.LinkedListMultimap;
+import lombok.EqualsAndHashCode;
 import lombok.Getter;
 
+@EqualsAndHashCode
 public class Prepare {
   @Getter
   final private LinkedListMultimap<String, String> map;
@@ -0,0 +1,308 @@
+package net.achalaggarwal.arbiter.util;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import net.achalaggarwal.arbiter.OozieWorkflowGenerator;
+import net.achalaggarwal.arbiter.workflow.ForkJoinMode;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Records a content hash for every compiled workflow so unchanged workflows can be skipped on the next run
+ * The hash of a workflow covers the bytes of its YAML file, the configuration and generator options it was compiled
+ * with and every file it included through @@file@@ arguments
+ * The copies of included files that were externalized are recorded too, so a workflow whose copies are gone is compiled
+ * again
+ * The manifest is stored next to the generated workflows, at the root of the input directory
+ */
+public class CompilationManifest {
+    private static final Logger LOG = Logger.getLogger(CompilationManifest.class);
+
+    public static final String FILE_NAME = ".arbiter-manifest";
+    private static final String HEADER = "# Arbiter compilation manifest v2";
+
+    private final File manifestFile;
+    private final File baseDir;
+    private final String configHash;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private CompilationManifest(File manifestFile, String configHash) {
+        this.manifestFile = manifestFile;
+        this.baseDir = manifestFile.getAbsoluteFile().toPath().normalize().getParent().toFile();
+        this.configHash = configHash;
+    }
+
+    /**
+     * Load the manifest for an input file/dir, or create an empty one if none has been written yet
+     *
+     * @param input The workflow file/dir that is being compiled
+     * @param configHash The hash of the configuration the workflows are compiled against
+     * @return The manifest for the given input
+     * @throws IOException
+     */
+    public static CompilationManifest load(File input, String configHash) throws IOException {
+        File dir = input.isDirectory() ? input : input.getAbsoluteFile().getParentFile();
+        CompilationManifest manifest = new CompilationManifest(new File(dir, FILE_NAME), configHash);
+
+        if (!manifest.manifestFile.exists()) {
+            return manifest;
+        }
+
+        List<String> lines = Files.readLines(manifest.manifestFile, Charsets.UTF_8);
+        // A manifest in another format is ignored, so every workflow is compiled again and the manifest rewritten
+        if (lines.isEmpty() || !lines.get(0).equals(HEADER)) {
+            return manifest;
+        }
+
+        for (String line : lines) {
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            // A truncated or corrupt manifest is ignored as a whole, as the entries that can be read may be wrong too
+            if (!manifest.addEntry(line)) {
+                LOG.warn("Ignoring corrupt compilation manifest " + manifest.manifestFile.getPath() + ", every workflow will be compiled");
+                manifest.entries.clear();
+                return manifest;
+            }
+        }
+
+        return manifest;
+    }
+
+    /**
+     * Add an entry read from the manifest file
+     *
+     * @param line The line of the entry
+     * @return true if the line is a valid entry, false otherwise
+     */
+    private boolean addEntry(String line) {
+        // Each entry is the workflow, its hash, the number of included files, the included files and the copies
+        List<String> fields = Lists.newArrayList(Splitter.on('\t').split(line));
+        if (fields.size() < 3) {
+            return false;
+        }
+
+        int includeCount;
+        try {
+            includeCount = Integer.parseInt(fields.get(2));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        if (includeCount < 0 || includeCount > fields.size() - 3) {
+            return false;
+        }
+
+        int copiesStart = 3 + includeCount;
+        entries.put(fields.get(0), new Entry(fields.get(1), fields.subList(3, copiesStart), fields.subList(copiesStart, fields.size())));
+        return true;
+    }
+
+    /**
+     * Hash a set of configuration files along with the generator options that change the files written for a workflow
+     *
+     * @param configFiles The configuration files, in the order they are merged
+     * @param lowPrecedenceConfigFiles The low-priority configuration files, in the order they are merged
+     * @param forkJoinMode The mode in which fork/joins are placed unless a workflow chooses its own
+     * @param generateGraphviz Indicate if Graphviz graphs are generated for workflows
+     * @param graphvizFormat The format in which Graphviz graphs are generated if enabled
+     * @return A hash covering the contents of all given files and the options
+     * @throws IOException
+     */
+    public static String hashConfiguration(Collection<File> configFiles, Collection<File> lowPrecedenceConfigFiles, ForkJoinMode forkJoinMode, boolean generateGraphviz, String graphvizFormat) throws IOException {
+        return Hashing.sha256().newHasher()
+          .putString(hashConfigFiles(configFiles, lowPrecedenceConfigFiles), Charsets.UTF_8)
+          .putChar('\0')
+          .putString(forkJoinMode.getName(), Charsets.UTF_8)
+          .putChar('\0')
+          .putString(generateGraphviz ? graphvizFormat : "", Charsets.UTF_8)
+          .hash()
+          .toString();
+    }
+
+    /**
+     * Hash a set of configuration files
+     *
+     * @param configFiles The configuration files, in the order they are merged
+     * @param lowPrecedenceConfigFiles The low-priority configuration files, in the order they are merged
+     * @return A hash covering the contents of all given files
+     * @throws IOException
+     */
+    public static String hashConfigFiles(Collection<File> configFiles, Collection<File> lowPrecedenceConfigFiles) throws IOException {
+        Hasher hasher = Hashing.sha256().newHasher();
+        for (File file : configFiles) {
+            hasher.putBytes(Files.toByteArray(file));
+        }
+        hasher.putChar('\0');
+        for (File file : lowPrecedenceConfigFiles) {
+            hasher.putBytes(Files.toByteArray(file));
+        }
+
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Check whether a workflow has to be compiled again
+     *
+     * @param workflowFile The YAML file of the workflow
+     * @return true if the workflow, its configuration and its includes are unchanged since it was recorded and its output
+     * and the copies of its externalized includes still exist
+     * @throws IOException
+     */
+    public boolean isUpToDate(File workflowFile) throws IOException {
+        Entry entry = entries.get(relativePath(workflowFile));
+        if (entry == null || !OozieWorkflowGenerator.getOutputFile(workflowFile).exists()) {
+            return false;
+        }
+        for (String copy : entry.copies) {
+            if (!new File(baseDir, copy).exists()) {
+                return false;
+            }
+        }
+
+        return entry.hash.equals(hash(workflowFile, getIncludedFiles(workflowFile)));
+    }
+
+    /**
+     * Record a workflow that has just been compiled
+     * This is safe to call from several threads at once
+     *
+     * @param workflowFile The YAML file of the workflow
+     * @param includedFiles The files the workflow included through @@file@@ arguments
+     * @throws IOException
+     */
+    public void record(File workflowFile, Collection<File> includedFiles) throws IOException {
+        record(workflowFile, includedFiles, Collections.<File>emptyList());
+    }
+
+    /**
+     * Record a workflow that has just been compiled
+     * This is safe to call from several threads at once
+     *
+     * @param workflowFile The YAML file of the workflow
+     * @param includedFiles The files the workflow included through @@file@@ arguments
+     * @param externalizedCopies The copies of included files written next to the workflow instead of being inlined
+     * @throws IOException
+     */
+    public void record(File workflowFile, Collection<File> includedFiles, Collection<File> externalizedCopies) throws IOException {
+        List<String> copies = new ArrayList<>(externalizedCopies.size());
+        for (File copy : externalizedCopies) {
+            copies.add(relativePath(copy));
+        }
+        Collections.sort(copies);
+
+        List<String> includes = new ArrayList<>(includedFiles.size());
+        for (File include : includedFiles) {
+            includes.add(relativePath(include));
+        }
+        Collections.sort(includes);
+
+        List<File> sortedIncludes = new ArrayList<>(includes.size());
+        for (String include : includes) {
+            sortedIncludes.add(new File(baseDir, include));
+        }
+
+        entries.put(relativePath(workflowFile), new Entry(hash(workflowFile, sortedIncludes), includes, copies));
+    }
+
+    /**
+     * Gets the files a workflow included when it was last recorded
+     *
+     * @param workflowFile The YAML file of the workflow
+     * @return The included files, or an empty list if the workflow has not been recorded
+     */
+    public List<File> getIncludedFiles(File workflowFile) {
+        Entry entry = entries.get(relativePath(workflowFile));
+        return entry == null ? Collections.<File>emptyList() : toFiles(entry.includes);
+    }
+
+    /**
+     * Gets the copies of externalized includes a workflow had when it was last recorded
+     *
+     * @param workflowFile The YAML file of the workflow
+     * @return The copies, or an empty list if the workflow has not been recorded
+     */
+    public List<File> getExternalizedCopies(File workflowFile) {
+        Entry entry = entries.get(relativePath(workflowFile));
+        return entry == null ? Collections.<File>emptyList() : toFiles(entry.copies);
+    }
+
+    private List<File> toFiles(List<String> paths) {
+        List<File> files = new ArrayList<>(paths.size());
+        for (String path : paths) {
+            files.add(new File(baseDir, path));
+        }
+        return files;
+    }
+
+    /**
+     * Write the manifest, dropping entries for workflows that no longer exist
+     *
+     * @throws IOException
+     */
+    public void save() throws IOException {
+        StringBuilder contents = new StringBuilder(HEADER).append('\n');
+        for (Map.Entry<String, Entry> entry : new TreeMap<>(entries).entrySet()) {
+            if (!new File(baseDir, entry.getKey()).exists()) {
+                continue;
+            }
+
+            contents.append(entry.getKey())
+              .append('\t')
+              .append(entry.getValue().hash)
+              .append('\t')
+              .append(entry.getValue().includes.size());
+            for (String include : entry.getValue().includes) {
+                contents.append('\t').append(include);
+            }
+            for (String copy : entry.getValue().copies) {
+                contents.append('\t').append(copy);
+            }
+            contents.append('\n');
+        }
+
+        Files.write(contents, manifestFile, Charsets.UTF_8);
+    }
+
+    private String hash(File workflowFile, List<File> includes) throws IOException {
+        Hasher hasher = Hashing.sha256().newHasher()
+          .putString(configHash, Charsets.UTF_8)
+          .putBytes(Files.toByteArray(workflowFile));
+
+        for (File include : includes) {
+            hasher.putChar('\0').putString(relativePath(include), Charsets.UTF_8);
+            if (include.exists()) {
+                hasher.putBytes(Files.toByteArray(include));
+            }
+        }
+
+        return hasher.hash().toString();
+    }
+
+    private String relativePath(File file) {
+        String path = baseDir.toPath().relativize(file.getAbsoluteFile().toPath().normalize()).toString();
+        return Joiner.on('/').join(Splitter.on(File.separatorChar).split(path));
+    }
+
+    private static class Entry {
+        private final String hash;
+        private final List<String> includes;
+        private final List<String> copies;
+
+        Entry(String hash, List<String> includes, List<String> copies) {
+            this.hash = hash;
+            this.includes = new ArrayList<>(includes);
+            this.copies = new ArrayList<>(copies);
+        }
+    }
+}
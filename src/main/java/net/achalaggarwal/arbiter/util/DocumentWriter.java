@@ -1,51 +1,27 @@
 package net.achalaggarwal.arbiter.util;
 
-import org.w3c.dom.Document;
-import org.xembly.Directives;
-import org.xembly.ImpossibleModificationException;
-import org.xembly.Xembler;
+import net.achalaggarwal.arbiter.workflow.Node;
 
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
+import java.io.IOException;
+import java.io.Writer;
 
 public class DocumentWriter {
   private DocumentWriter() { }
   public static final String XML_HEAD = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n";
 
   /**
-   * Write an XML document to a StreamResult
+   * Write an XML document to a Writer
+   * The document is streamed straight from the node to the Writer, which is flushed but not closed
    *
-   * @param directives The document to write out
-   * @param streamResult The output StreamResult
-   * @throws TransformerException
-   * @throws ParserConfigurationException
+   * @param node The root node of the document to write out
+   * @param writer The output Writer
+   * @throws IOException
    */
-  public static void writeToStreamResult(Directives directives, StreamResult streamResult) throws ParserConfigurationException, TransformerException {
-    Document xmlDoc = DocumentBuilderFactory
-            .newInstance()
-            .newDocumentBuilder()
-            .newDocument();
+  public static void write(Node node, Writer writer) throws IOException {
+    writer.write(XML_HEAD);
 
-    try {
-      new Xembler(directives).apply(xmlDoc);
-    } catch (ImpossibleModificationException e) {
-      throw new RuntimeException(e);
-    }
-
-    TransformerFactory transformerFactory = TransformerFactory.newInstance();
-    Transformer transformer = transformerFactory.newTransformer();
-    transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-    transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
-
-    transformer.transform(
-            new DOMSource(xmlDoc),
-            streamResult
-    );
+    XmlWriter xmlWriter = new XmlWriter(writer);
+    node.appendTo(xmlWriter);
+    xmlWriter.finish();
   }
 }
@@ -21,16 +21,16 @@
 
 package net.achalaggarwal.arbiter.util;
 
-import com.google.common.base.Function;
-import com.google.common.collect.Maps;
-import org.apache.commons.lang3.StringUtils;
-
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static java.nio.charset.Charset.defaultCharset;
 
@@ -56,34 +56,129 @@ public class FileArgumentInterpolator {
      * @return A copy of input with variable interpolation performed
      */
     public static Map<String, List<String>> interpolateFileVars(final String baseDirPath, Map<String, List<String>> input) {
+        return interpolateFileVars(baseDirPath, input, null);
+    }
+
+    /**
+     * Performs variable interpolation using the named arguments from an Action
+     * This will create a new map if any interpolation is performed
+     * Every file is read once, when this is called, and the result cannot be changed
+     * Files are read through the IncludeCache, so a file included by many workflows is only read again once it changes
+     *
+     * @param baseDirPath Path of parent dir to use to find a file
+     * @param input The positional arguments possibly containing keys to be interpolated
+     * @param includedFiles If not null, every file referenced by input is added to this set
+     *
+     * @return A copy of input with variable interpolation performed
+     */
+    @SuppressWarnings("unchecked")
+    public static Map<String, List<String>> interpolateFileVars(String baseDirPath, Map<String, List<String>> input, Set<File> includedFiles) {
+        // Without streaming every value is a String
+        return (Map) interpolateFileVars(baseDirPath, input, includedFiles, false, null, null);
+    }
+
+    /**
+     * Performs variable interpolation using the named arguments from an Action, leaving large files to be streamed
+     * Files larger than IncludeCache.MAPPED_READ_THRESHOLD are not read, and are replaced by a StreamedInclude that
+     * the XmlWriter copies into the output a chunk at a time
+     *
+     * @param baseDirPath Path of parent dir to use to find a file
+     * @param input The positional arguments possibly containing keys to be interpolated
+     * @param includedFiles If not null, every file referenced by input is added to this set
+     *
+     * @return A copy of input with variable interpolation performed, where each value is a String or a StreamedInclude
+     */
+    public static Map<String, List<Object>> interpolateFileVarsForStreaming(String baseDirPath, Map<String, List<String>> input, Set<File> includedFiles) {
+        return interpolateFileVars(baseDirPath, input, includedFiles, true, null, null);
+    }
+
+    /**
+     * Performs variable interpolation using the named arguments from an Action, leaving large files to be streamed
+     * Files the externalizer finds too large to inline are copied next to the workflow instead, and the argument is
+     * given the name of the copy
+     * The file elements shipping the copies are not added to the result, as they must follow every positional element
+     *
+     * @param baseDirPath Path of parent dir to use to find a file
+     * @param input The positional arguments possibly containing keys to be interpolated
+     * @param includedFiles If not null, every file referenced by input is added to this set
+     * @param externalizer If not null, the externalizer for the workflow being written
+     * @param fileReferences The value of a file element for every externalized file is added to this list, once each
+     *
+     * @return A copy of input with variable interpolation performed, where each value is a String or a StreamedInclude
+     */
+    public static Map<String, List<Object>> interpolateFileVarsForStreaming(String baseDirPath, Map<String, List<String>> input, Set<File> includedFiles, IncludeExternalizer externalizer, List<String> fileReferences) {
+        Set<String> externalized = new LinkedHashSet<>();
+        Map<String, List<Object>> result = interpolateFileVars(baseDirPath, input, includedFiles, true, externalizer, externalized);
+        for (String name : externalized) {
+            fileReferences.add(externalizer.addFileReference(name));
+        }
+        return result;
+    }
+
+    private static Map<String, List<Object>> interpolateFileVars(String baseDirPath, Map<String, List<String>> input, Set<File> includedFiles, boolean streamLargeFiles, IncludeExternalizer externalizer, Set<String> externalized) {
         if (input == null) {
-            return input;
+            return null;
         }
 
-        return Maps.transformValues(input, new Function<List<String>, List<String>>() {
-            @Override
-            public List<String> apply(List<String> input) {
-                List<String> result = new ArrayList<>(input.size());
-                for (String s : input) {
-                    if (s.startsWith(PREFIX) && s.endsWith(SUFFIX)) {
-                        try {
-                            String fileContent = StringUtils.join(
-                              Files.readAllLines(
-                                new File(baseDirPath, s.substring(2, s.length() - 2)).toPath(),
-                                defaultCharset()
-                              ),
-                              System.lineSeparator()
-                            );
-                            result.add(fileContent);
-                        } catch (IOException e) {
-                            throw new RuntimeException(e);
-                        }
-                    } else {
-                        result.add(s);
+        Map<File, Object> fileContents = new HashMap<>();
+        Map<String, List<Object>> result = new LinkedHashMap<>();
+        for (Map.Entry<String, List<String>> entry : input.entrySet()) {
+            List<Object> values = new ArrayList<>(entry.getValue().size());
+            for (String s : entry.getValue()) {
+                if (s.startsWith(PREFIX) && s.endsWith(SUFFIX)) {
+                    File includedFile = new File(baseDirPath, s.substring(2, s.length() - 2));
+                    if (includedFiles != null) {
+                        includedFiles.add(includedFile);
+                    }
+                    if (externalizer != null && shouldExternalize(externalizer, includedFile)) {
+                        String name = externalize(externalizer, includedFile);
+                        externalized.add(name);
+                        values.add(name);
+                        continue;
+                    }
+                    if (!fileContents.containsKey(includedFile)) {
+                        fileContents.put(includedFile, streamLargeFiles && isLarge(includedFile) ? new StreamedInclude(includedFile, defaultCharset()) : readFile(includedFile));
                     }
+                    values.add(fileContents.get(includedFile));
+                } else {
+                    values.add(s);
                 }
-                return result;
             }
-        });
+            result.put(entry.getKey(), Collections.unmodifiableList(values));
+        }
+
+        return Collections.unmodifiableMap(result);
+    }
+
+    private static boolean shouldExternalize(IncludeExternalizer externalizer, File file) {
+        try {
+            return externalizer.shouldExternalize(file);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String externalize(IncludeExternalizer externalizer, File file) {
+        try {
+            return externalizer.externalize(file);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static boolean isLarge(File file) {
+        try {
+            return IncludeCache.isLarge(file);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String readFile(File file) {
+        try {
+            return IncludeCache.read(file, defaultCharset());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
     }
 }
@@ -0,0 +1,150 @@
+package net.achalaggarwal.arbiter.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import lombok.EqualsAndHashCode;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CharSequenceReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A process-wide cache of the contents of files included through @@file@@ arguments
+ * Entries are keyed by the real path, modification time and size of a file, so a file that changes is read again
+ * The cache holds at most MAX_CACHED_CHARS characters and evicts the least recently used files first
+ * Files larger than MAPPED_READ_THRESHOLD bytes are not cached, and are either streamed through openReader or memory
+ * mapped instead of read into a heap buffer
+ */
+public final class IncludeCache {
+    public static final long MAX_CACHED_CHARS = 32L * 1024 * 1024;
+    public static final long MAPPED_READ_THRESHOLD = 4L * 1024 * 1024;
+
+    private static final Cache<Key, String> CACHE = CacheBuilder.newBuilder()
+      .maximumWeight(MAX_CACHED_CHARS)
+      .weigher(new Weigher<Key, String>() {
+          @Override
+          public int weigh(Key key, String value) {
+              return value.length();
+          }
+      })
+      .recordStats()
+      .build();
+
+    private IncludeCache() { }
+
+    /**
+     * Read an included file, with its lines joined by the line separator of the platform as Files.readAllLines would
+     *
+     * @param file The file to read
+     * @param charset The charset of the file
+     * @return The contents of the file
+     * @throws IOException If the file cannot be read or is not valid in the charset
+     */
+    public static String read(File file, final Charset charset) throws IOException {
+        final Path path = file.toPath().toRealPath();
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+
+        if (attributes.size() > MAPPED_READ_THRESHOLD) {
+            return readMapped(path, charset);
+        }
+
+        try {
+            return CACHE.get(new Key(path.toString(), attributes.lastModifiedTime().toMillis(), attributes.size(), charset.name()), new Callable<String>() {
+                @Override
+                public String call() throws IOException {
+                    return joinLines(charset.newDecoder().decode(ByteBuffer.wrap(Files.readAllBytes(path))));
+                }
+            });
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * @return The hit and miss counts of the cache since the process started
+     */
+    public static CacheStats stats() {
+        return CACHE.stats();
+    }
+
+    /**
+     * Drop every cached file
+     */
+    public static void clear() {
+        CACHE.invalidateAll();
+    }
+
+    /**
+     * Open an included file to be streamed rather than read into memory
+     * The text read is the same as the text read returns
+     *
+     * @param file The file to open
+     * @param charset The charset of the file
+     * @return A reader of the contents of the file
+     * @throws IOException If the file cannot be opened
+     */
+    public static Reader openReader(File file, Charset charset) throws IOException {
+        return new LineJoiningReader(Files.newBufferedReader(file.toPath(), charset));
+    }
+
+    /**
+     * Checks if an included file is large enough that it should be streamed rather than read into memory
+     *
+     * @param file The file to check
+     * @return true if the file is larger than MAPPED_READ_THRESHOLD
+     * @throws IOException If the size of the file cannot be read
+     */
+    public static boolean isLarge(File file) throws IOException {
+        return Files.size(file.toPath()) > MAPPED_READ_THRESHOLD;
+    }
+
+    private static String readMapped(Path path, Charset charset) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return joinLines(charset.newDecoder().decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())));
+        }
+    }
+
+    /**
+     * Replace every line terminator with the line separator of the platform, dropping the one that ends the text
+     *
+     * @param text The text to convert
+     * @return The lines of the text joined by the line separator
+     */
+    static String joinLines(CharSequence text) throws IOException {
+        try (Reader reader = new LineJoiningReader(new CharSequenceReader(text))) {
+            return IOUtils.toString(reader);
+        }
+    }
+
+    @EqualsAndHashCode
+    private static final class Key {
+        private final String path;
+        private final long lastModified;
+        private final long size;
+        private final String charset;
+
+        Key(String path, long lastModified, long size, String charset) {
+            this.path = path;
+            this.lastModified = lastModified;
+            this.size = size;
+            this.charset = charset;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package net.achalaggarwal.arbiter.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps a generated workflow small by copying large included files next to it instead of inlining their contents
+ * An externalized file is copied into a directory beside the workflow XML, the argument that included it is given the
+ * name of the copy, and the action ships the copy with a file element so the name resolves in its working directory
+ * One externalizer is used for each workflow, and it is not safe to share between threads
+ */
+public class IncludeExternalizer {
+    public static final String FILE_ELEMENT = "file";
+
+    private final File directory;
+    private final long maxInlineSize;
+    private final Map<File, String> names = new HashMap<>();
+    private final Set<String> usedNames = new HashSet<>();
+    private long inlinedBytes = 0;
+    private long referenceBytes = 0;
+
+    /**
+     * @param workflowXml The file to which the workflow is written
+     * @param maxInlineSize The size in bytes above which an included file is externalized
+     */
+    public IncludeExternalizer(File workflowXml, long maxInlineSize) {
+        this.directory = getDirectory(workflowXml);
+        this.maxInlineSize = maxInlineSize;
+    }
+
+    /**
+     * Checks if an included file is too large to inline
+     *
+     * @param file The included file
+     * @return true if the file should be externalized
+     * @throws IOException If the size of the file cannot be read
+     */
+    public boolean shouldExternalize(File file) throws IOException {
+        return Files.size(file.toPath()) > maxInlineSize;
+    }
+
+    /**
+     * Copy an included file next to the workflow, once no matter how often it is included
+     *
+     * @param file The included file
+     * @return The name the copy has in the working directory of an action, which replaces the inlined contents
+     * @throws IOException If the file cannot be copied
+     */
+    public String externalize(File file) throws IOException {
+        String name = names.get(file);
+        if (name == null) {
+            name = uniqueName(file.getName());
+            Files.createDirectories(directory.toPath());
+            Files.copy(file.toPath(), new File(directory, name).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            names.put(file, name);
+        }
+
+        inlinedBytes += Files.size(file.toPath());
+        referenceBytes += utf8Length(name);
+        return name;
+    }
+
+    /**
+     * Gets the value of a file element that ships an externalized file with an action, counting it against the bytes saved
+     * The path is relative to the workflow application directory and the fragment names the copy in the working
+     * directory of the action
+     *
+     * @param name The name returned by externalize
+     * @return The path and link name of the copy
+     */
+    public String addFileReference(String name) {
+        String reference = directory.getName() + "/" + name + "#" + name;
+        referenceBytes += utf8Length(reference);
+        return reference;
+    }
+
+    /**
+     * @return The number of distinct files externalized
+     */
+    public int getExternalizedCount() {
+        return names.size();
+    }
+
+    /**
+     * @return The copies of every externalized file
+     */
+    public List<File> getCopies() {
+        List<File> copies = new ArrayList<>(names.size());
+        for (String name : names.values()) {
+            copies.add(new File(directory, name));
+        }
+        return copies;
+    }
+
+    /**
+     * Remove the copies made when the workflow was last compiled that this compile did not make again
+     * Only the given copies are removed, so other files in the directory are left alone
+     *
+     * @param previousCopies The copies recorded for the last compile of the workflow
+     * @throws IOException If a copy cannot be removed
+     */
+    public void removeStaleCopies(Collection<File> previousCopies) throws IOException {
+        Path directoryPath = normalize(directory);
+        Set<Path> copies = new HashSet<>();
+        for (File copy : getCopies()) {
+            copies.add(normalize(copy));
+        }
+
+        for (File previousCopy : previousCopies) {
+            Path path = normalize(previousCopy);
+            if (path.getParent().equals(directoryPath) && !copies.contains(path)) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    /**
+     * @return The number of bytes by which the workflow is smaller than if every externalized file were inlined
+     */
+    public long getBytesSaved() {
+        return inlinedBytes - referenceBytes;
+    }
+
+    private String uniqueName(String fileName) {
+        String name = fileName;
+        for (int i = 2; usedNames.contains(name); i++) {
+            name = i + "-" + fileName;
+        }
+        usedNames.add(name);
+        return name;
+    }
+
+    private static File getDirectory(File workflowXml) {
+        String baseName = workflowXml.getName().substring(0, workflowXml.getName().lastIndexOf("."));
+        return new File(workflowXml.getAbsoluteFile().getParentFile(), baseName + "-includes");
+    }
+
+    private static Path normalize(File file) {
+        return file.toPath().toAbsolutePath().normalize();
+    }
+
+    private static long utf8Length(String s) {
+        return s.getBytes(StandardCharsets.UTF_8).length;
+    }
+}
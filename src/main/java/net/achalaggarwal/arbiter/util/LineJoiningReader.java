@@ -0,0 +1,71 @@
+package net.achalaggarwal.arbiter.util;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads text with every line terminator replaced by the line separator of the platform and the terminator that ends
+ * the text dropped, which gives the same text as joining the lines from Files.readAllLines
+ * Like Files.readAllLines, \n, \r and \r\n all end a line
+ */
+class LineJoiningReader extends Reader {
+    private static final String SEPARATOR = System.lineSeparator();
+
+    private final Reader in;
+    private final char[] buffer = new char[8192];
+    private int bufferStart = 0;
+    private int bufferEnd = 0;
+
+    // A terminator is only written once a character follows it
+    private boolean pendingTerminator = false;
+    private boolean lastWasCarriageReturn = false;
+    // Characters of a separator that did not fit in the last read
+    private int separatorRemaining = 0;
+
+    LineJoiningReader(Reader in) {
+        this.in = in;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        int written = 0;
+        while (written < len) {
+            if (separatorRemaining > 0) {
+                cbuf[off + written++] = SEPARATOR.charAt(SEPARATOR.length() - separatorRemaining--);
+                continue;
+            }
+
+            if (bufferStart == bufferEnd) {
+                bufferStart = 0;
+                bufferEnd = Math.max(in.read(buffer, 0, buffer.length), 0);
+                if (bufferEnd == 0) {
+                    break;
+                }
+            }
+
+            char c = buffer[bufferStart];
+            if (pendingTerminator && !(lastWasCarriageReturn && c == '\n')) {
+                // Something follows the terminator, so it does not end the text
+                pendingTerminator = false;
+                separatorRemaining = SEPARATOR.length();
+                continue;
+            }
+
+            bufferStart++;
+            lastWasCarriageReturn = c == '\r';
+            if (c == '\n' || c == '\r') {
+                // The \n of \r\n is part of the terminator that is already pending
+                pendingTerminator = true;
+            } else {
+                cbuf[off + written++] = c;
+            }
+        }
+
+        return written == 0 && len > 0 ? -1 : written;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -21,15 +21,15 @@
 
 package net.achalaggarwal.arbiter.util;
 
-import com.google.common.base.Function;
 import com.google.common.collect.LinkedListMultimap;
-import com.google.common.collect.Maps;
-import org.apache.commons.lang3.text.StrSubstitutor;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Performs variable interpolation using the named arguments from an Action
@@ -51,38 +51,51 @@ public class NamedArgumentInterpolator {
      * @param namedArgs The key/value pairs used for interpolation
      * @param defaultArgs Default values for the named args, used if an interpolation key has no value given
      * @param listArgs The key/value list pairs used for list interpolation. List interpolation allows for interpolating a list of values in place of a single key
-     *                 If any interpolation is performed this map is modified to remove the key that was interpolated
      *
      * @return A copy of input with variable interpolation performed
      */
-    public static Map<String, List<String>> interpolate(Map<String, List<String>> input, final Map<String, String> namedArgs, final Map<String, String> defaultArgs, final Map<String, List<String>> listArgs) {
+    public static Map<String, List<String>> interpolate(Map<String, List<String>> input, Map<String, String> namedArgs, Map<String, String> defaultArgs, Map<String, List<String>> listArgs) {
+        return interpolate(input, namedArgs, defaultArgs, listArgs, new HashSet<String>());
+    }
+
+    /**
+     * Performs variable interpolation using the named arguments from an Action
+     * This will create a new map if any interpolation is performed
+     * Neither input nor listArgs is changed, and the result is computed once and cannot be changed
+     *
+     * @param input The positional arguments possibly containing keys to be interpolated
+     * @param namedArgs The key/value pairs used for interpolation
+     * @param defaultArgs Default values for the named args, used if an interpolation key has no value given
+     * @param listArgs The key/value list pairs used for list interpolation. List interpolation allows for interpolating a list of values in place of a single key
+     *                 Each list is interpolated at most once, in place of the first standalone key for it
+     * @param usedListArgs The keys of listArgs that were interpolated are added to this set
+     *
+     * @return A copy of input with variable interpolation performed
+     */
+    public static Map<String, List<String>> interpolate(Map<String, List<String>> input, Map<String, String> namedArgs, Map<String, String> defaultArgs, Map<String, List<String>> listArgs, Set<String> usedListArgs) {
         if (namedArgs == null || input == null) {
             return input;
         }
 
-        final Map<String, String> interpolationArgs = createFinalInterpolationMap(namedArgs, defaultArgs);
-
-        return Maps.transformValues(input, new Function<List<String>, List<String>>() {
-            @Override
-            public List<String> apply(List<String> input) {
-                List<String> result = new ArrayList<>(input.size());
-                for (String s : input) {
-                    String interpolated = StrSubstitutor.replace(s, interpolationArgs, PREFIX, SUFFIX);
-                    String listInterpolationKey = interpolated.replace(PREFIX, "").replace(SUFFIX, ""); // Strip out the prefix/suffix to get the actual key
-
-                    // If we have a standalone key we can use it for list interpolation
-                    // We only support standalone entries as it does not make sense to interpolate a list as part of a string
-                    if (listArgs != null && listArgs.containsKey(listInterpolationKey)) {
-                        result.addAll(listArgs.get(listInterpolationKey));
-                        listArgs.remove(listInterpolationKey);
-                    } else {
-                        result.add(interpolated);
-                    }
+        Map<String, List<String>> result = new LinkedHashMap<>();
+        for (Map.Entry<String, List<String>> entry : input.entrySet()) {
+            List<String> values = new ArrayList<>(entry.getValue().size());
+            for (String s : entry.getValue()) {
+                String interpolated = NamedArgumentTemplate.compile(s).render(namedArgs, defaultArgs);
+                String listInterpolationKey = interpolated.replace(PREFIX, "").replace(SUFFIX, ""); // Strip out the prefix/suffix to get the actual key
+
+                // If we have a standalone key we can use it for list interpolation
+                // We only support standalone entries as it does not make sense to interpolate a list as part of a string
+                if (listArgs != null && listArgs.containsKey(listInterpolationKey) && usedListArgs.add(listInterpolationKey)) {
+                    values.addAll(listArgs.get(listInterpolationKey));
+                } else {
+                    values.add(interpolated);
                 }
-
-                return result;
             }
-        });
+            result.put(entry.getKey(), Collections.unmodifiableList(values));
+        }
+
+        return Collections.unmodifiableMap(result);
     }
 
     /**
@@ -95,19 +108,17 @@ public class NamedArgumentInterpolator {
      *
      * @return A copy of input with variable interpolation performed
      */
-    public static Map<String, String> interpolate(Map<String, String> input, final Map<String, String> namedArgs, final Map<String, String> defaultArgs) {
+    public static Map<String, String> interpolate(Map<String, String> input, Map<String, String> namedArgs, Map<String, String> defaultArgs) {
         if (namedArgs == null || input == null) {
             return input;
         }
 
-        final Map<String, String> interpolationArgs = createFinalInterpolationMap(namedArgs, defaultArgs);
+        Map<String, String> result = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : input.entrySet()) {
+            result.put(entry.getKey(), NamedArgumentTemplate.compile(entry.getValue()).render(namedArgs, defaultArgs));
+        }
 
-        return Maps.transformValues(input, new Function<String, String>() {
-            @Override
-            public String apply(String s) {
-                return StrSubstitutor.replace(s, interpolationArgs, PREFIX, SUFFIX);
-            }
-        });
+        return Collections.unmodifiableMap(result);
     }
 
     public static LinkedListMultimap<String, String> interpolate(LinkedListMultimap<String, String> input, final Map<String, String> namedArgs, final Map<String, String> defaultArgs) {
@@ -115,12 +126,10 @@ public class NamedArgumentInterpolator {
             return input;
         }
 
-        final Map<String, String> interpolationArgs = createFinalInterpolationMap(namedArgs, defaultArgs);
-
         LinkedListMultimap<String, String> result = LinkedListMultimap.create();
 
         for (Map.Entry<String, String> s : input.entries()) {
-            result.put(s.getKey(), StrSubstitutor.replace(s.getValue(), interpolationArgs, PREFIX, SUFFIX));
+            result.put(s.getKey(), NamedArgumentTemplate.compile(s.getValue()).render(namedArgs, defaultArgs));
         }
 
         return result;
@@ -140,21 +149,6 @@ public class NamedArgumentInterpolator {
             return input;
         }
 
-        final Map<String, String> interpolationArgs = createFinalInterpolationMap(namedArgs, defaultArgs);
-
-        return StrSubstitutor.replace(input, interpolationArgs, PREFIX, SUFFIX);
-    }
-
-    private static Map<String, String> createFinalInterpolationMap(final Map<String, String> namedArgs, final Map<String, String> defaultArgs) {
-        Map<String, String> interpolationArgs = new HashMap<>();
-        if (defaultArgs != null) {
-            // We want entries from namedArgs to overwrite entries from defaultArgs
-            interpolationArgs.putAll(defaultArgs);
-            interpolationArgs.putAll(namedArgs);
-        } else {
-            interpolationArgs.putAll(namedArgs);
-        }
-
-        return interpolationArgs;
+        return NamedArgumentTemplate.compile(input).render(namedArgs, defaultArgs);
     }
 }
@@ -0,0 +1,147 @@
+package net.achalaggarwal.arbiter.util;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import org.apache.commons.lang3.text.StrLookup;
+import org.apache.commons.lang3.text.StrSubstitutor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static net.achalaggarwal.arbiter.util.NamedArgumentInterpolator.PREFIX;
+import static net.achalaggarwal.arbiter.util.NamedArgumentInterpolator.SUFFIX;
+
+/**
+ * A string with $$name$$ variables, parsed once into literal text and variable names
+ * Templates are cached by their text, so the default args shared by every action of a type are only parsed once
+ *
+ * Rendering gives the same result as StrSubstitutor.replace with the named args laid over the defaults
+ * Templates whose $$ markers StrSubstitutor would treat specially, such as escaped or adjacent variables, variables
+ * with default values and values that contain $ themselves, are handed to StrSubstitutor
+ */
+public final class NamedArgumentTemplate {
+    private static final int CACHE_SIZE = 10000;
+    private static final char ESCAPE = '$';
+
+    private static final LoadingCache<String, NamedArgumentTemplate> CACHE = CacheBuilder.newBuilder()
+      .maximumSize(CACHE_SIZE)
+      .build(new CacheLoader<String, NamedArgumentTemplate>() {
+          @Override
+          public NamedArgumentTemplate load(String key) {
+              return parse(key);
+          }
+      });
+
+    private final String source;
+    // literals has one more element than names, and the output interleaves them starting with literals[0]
+    private final String[] literals;
+    private final String[] names;
+
+    private NamedArgumentTemplate(String source, String[] literals, String[] names) {
+        this.source = source;
+        this.literals = literals;
+        this.names = names;
+    }
+
+    /**
+     * Gets the template for a string
+     *
+     * @param source The string possibly containing $$name$$ variables
+     * @return The template for the string
+     */
+    public static NamedArgumentTemplate compile(String source) {
+        return CACHE.getUnchecked(source);
+    }
+
+    /**
+     * Replace the variables of this template
+     * Neither map is copied
+     *
+     * @param namedArgs The values of the variables
+     * @param defaultArgs Values for the variables that have none in namedArgs, or null if there are none
+     * @return The template with every variable that has a value replaced
+     */
+    public String render(Map<String, String> namedArgs, Map<String, String> defaultArgs) {
+        if (names == null) {
+            return substitute(namedArgs, defaultArgs);
+        }
+        if (names.length == 0) {
+            return source;
+        }
+
+        StringBuilder result = new StringBuilder(source.length());
+        result.append(literals[0]);
+        for (int i = 0; i < names.length; i++) {
+            String value = lookup(names[i], namedArgs, defaultArgs);
+            if (value == null) {
+                result.append(PREFIX).append(names[i]).append(SUFFIX);
+            } else if (value.indexOf(ESCAPE) >= 0) {
+                // Values are interpolated too, so leave these to StrSubstitutor
+                return substitute(namedArgs, defaultArgs);
+            } else {
+                result.append(value);
+            }
+            result.append(literals[i + 1]);
+        }
+
+        return result.toString();
+    }
+
+    private String substitute(final Map<String, String> namedArgs, final Map<String, String> defaultArgs) {
+        return new StrSubstitutor(new StrLookup<String>() {
+            @Override
+            public String lookup(String key) {
+                return NamedArgumentTemplate.lookup(key, namedArgs, defaultArgs);
+            }
+        }, PREFIX, SUFFIX, ESCAPE).replace(source);
+    }
+
+    private static String lookup(String name, Map<String, ?> namedArgs, Map<String, ?> defaultArgs) {
+        // YAML may give non-string values, which StrSubstitutor converts with toString
+        Object value = namedArgs.containsKey(name) || defaultArgs == null ? namedArgs.get(name) : defaultArgs.get(name);
+        return value == null ? null : value.toString();
+    }
+
+    /**
+     * Split a string into literal text and variable names
+     *
+     * @param source The string to parse
+     * @return The template, without names if StrSubstitutor has to handle it
+     */
+    private static NamedArgumentTemplate parse(String source) {
+        List<String> literals = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+
+        int i = 0;
+        while (i < source.length()) {
+            char c = source.charAt(i);
+            if (c != ESCAPE) {
+                literal.append(c);
+                i++;
+                continue;
+            }
+
+            int end = source.indexOf(SUFFIX, i + PREFIX.length());
+            if (!source.startsWith(PREFIX, i) || end < 0) {
+                return new NamedArgumentTemplate(source, null, null);
+            }
+
+            // A $ before a variable escapes it, and a name containing :- has a default value
+            String name = source.substring(i + PREFIX.length(), end);
+            if (name.isEmpty() || name.indexOf(ESCAPE) >= 0 || name.contains(":") || (!names.isEmpty() && literal.length() == 0)) {
+                return new NamedArgumentTemplate(source, null, null);
+            }
+
+            literals.add(literal.toString());
+            names.add(name);
+            literal.setLength(0);
+            i = end + SUFFIX.length();
+        }
+        literals.add(literal.toString());
+
+        return new NamedArgumentTemplate(source, literals.toArray(new String[literals.size()]), names.toArray(new String[names.size()]));
+    }
+}
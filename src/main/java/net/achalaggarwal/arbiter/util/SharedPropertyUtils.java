@@ -0,0 +1,97 @@
+package net.achalaggarwal.arbiter.util;
+
+import org.yaml.snakeyaml.introspector.BeanAccess;
+import org.yaml.snakeyaml.introspector.MissingProperty;
+import org.yaml.snakeyaml.introspector.Property;
+import org.yaml.snakeyaml.introspector.PropertyUtils;
+
+import java.beans.IntrospectionException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * PropertyUtils that introspects each bean class once for the whole JVM and is shared by every YAML parser
+ * snakeyaml keeps its introspection in plain maps in each PropertyUtils, so every new parser would introspect the
+ * same classes again, and one PropertyUtils could not be used by parsers on different threads
+ * Lookups of classes that were already introspected do not lock, and missing properties are skipped
+ */
+final class SharedPropertyUtils extends PropertyUtils {
+    static final SharedPropertyUtils INSTANCE = new SharedPropertyUtils();
+
+    private final ConcurrentMap<List<Object>, Map<String, Property>> propertiesMaps = new ConcurrentHashMap<>();
+    private final ConcurrentMap<List<Object>, Set<Property>> propertySets = new ConcurrentHashMap<>();
+    // Unknown keys are free-form args, so the property handling each name is shared instead of created for every value
+    private final ConcurrentMap<String, MissingProperty> missingProperties = new ConcurrentHashMap<>();
+
+    private SharedPropertyUtils() {
+        super.setSkipMissingProperties(true);
+    }
+
+    @Override
+    protected Map<String, Property> getPropertiesMap(Class<?> type, BeanAccess bAccess) throws IntrospectionException {
+        List<Object> key = Arrays.<Object>asList(type, bAccess);
+        Map<String, Property> properties = propertiesMaps.get(key);
+        if (properties == null) {
+            // The caches of the superclass are not thread-safe, so they are only used while holding the lock
+            synchronized (this) {
+                properties = super.getPropertiesMap(type, bAccess);
+            }
+            propertiesMaps.putIfAbsent(key, properties);
+        }
+        return properties;
+    }
+
+    @Override
+    public Set<Property> getProperties(Class<? extends Object> type, BeanAccess bAccess) throws IntrospectionException {
+        List<Object> key = Arrays.<Object>asList(type, bAccess);
+        Set<Property> properties = propertySets.get(key);
+        if (properties == null) {
+            synchronized (this) {
+                properties = super.getProperties(type, bAccess);
+            }
+            propertySets.putIfAbsent(key, properties);
+        }
+        return properties;
+    }
+
+    @Override
+    public Property getProperty(Class<? extends Object> type, String name, BeanAccess bAccess) throws IntrospectionException {
+        if (getPropertiesMap(type, bAccess).containsKey(name)) {
+            return super.getProperty(type, name, bAccess);
+        }
+
+        MissingProperty property = missingProperties.get(name);
+        if (property == null) {
+            property = new MissingProperty(name);
+            missingProperties.putIfAbsent(name, property);
+        }
+        return property;
+    }
+
+    // Parsers set these options when they are created, so setting them to the values every parser uses is allowed
+
+    @Override
+    public void setBeanAccess(BeanAccess beanAccess) {
+        checkUnchanged(beanAccess == BeanAccess.DEFAULT);
+    }
+
+    @Override
+    public void setAllowReadOnlyProperties(boolean allowReadOnlyProperties) {
+        checkUnchanged(!allowReadOnlyProperties);
+    }
+
+    @Override
+    public void setSkipMissingProperties(boolean skipMissingProperties) {
+        checkUnchanged(skipMissingProperties);
+    }
+
+    private static void checkUnchanged(boolean unchanged) {
+        if (!unchanged) {
+            throw new UnsupportedOperationException("The shared PropertyUtils cannot be changed");
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package net.achalaggarwal.arbiter.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+
+/**
+ * An included file that is too large to hold in memory, so it is copied into the XML when its element is written
+ */
+public final class StreamedInclude {
+    private final File file;
+    private final Charset charset;
+
+    public StreamedInclude(File file, Charset charset) {
+        this.file = file;
+        this.charset = charset;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return A reader of the contents of the file, with its lines joined as if it had been read into memory
+     * @throws IOException If the file cannot be opened
+     */
+    public Reader openReader() throws IOException {
+        return IncludeCache.openReader(file, charset);
+    }
+
+    @Override
+    public String toString() {
+        return FileArgumentInterpolator.PREFIX + file.getPath() + FileArgumentInterpolator.SUFFIX;
+    }
+}
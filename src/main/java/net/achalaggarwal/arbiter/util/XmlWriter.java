@@ -0,0 +1,309 @@
+package net.achalaggarwal.arbiter.util;
+
+import org.apache.commons.lang3.builder.CompareToBuilder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Streams an indented XML document to a Writer without building it in memory
+ * The API mirrors the Xembly directives it replaces: add opens an element, attr sets an attribute on it, set writes its
+ * text and up closes it
+ * The output matches what the JDK identity Transformer produced for the equivalent DOM: two space indentation,
+ * namespace declarations followed by the other attributes sorted by name and elements without content collapsed to a
+ * single tag
+ */
+public class XmlWriter implements Closeable {
+  private static final String INDENT = "  ";
+  private static final int CHUNK_SIZE = 8192;
+
+  private static final Comparator<String> ATTRIBUTE_ORDER = new Comparator<String>() {
+    @Override
+    public int compare(String o1, String o2) {
+      return new CompareToBuilder()
+        .append(!isNamespaceDeclaration(o1), !isNamespaceDeclaration(o2))
+        .append(o1, o2)
+        .toComparison();
+    }
+  };
+
+  private final Writer out;
+  private final Deque<Element> open = new ArrayDeque<>();
+
+  // The most recently added element is only written once we know whether it has any content
+  private Element pending;
+  private boolean wroteRoot = false;
+
+  public XmlWriter(Writer out) {
+    this.out = out;
+  }
+
+  /**
+   * Open a new element as a child of the current one
+   *
+   * @param name The name of the element
+   * @return This writer
+   * @throws IOException
+   */
+  public XmlWriter add(String name) throws IOException {
+    writePending();
+
+    if (open.isEmpty()) {
+      if (wroteRoot) {
+        out.write('\n');
+      }
+      wroteRoot = true;
+    } else {
+      open.peek().hasChildren = true;
+      writeIndent(open.size());
+    }
+
+    pending = new Element(name);
+    open.push(pending);
+    return this;
+  }
+
+  /**
+   * Set an attribute on the element that was just added
+   * Null values are skipped
+   *
+   * @param name The name of the attribute
+   * @param value The value of the attribute
+   * @return This writer
+   */
+  public XmlWriter attr(String name, Object value) {
+    if (pending == null) {
+      throw new IllegalStateException("Attribute " + name + " must be set before the content of its element");
+    }
+    if (value != null) {
+      pending.attributes.put(name, value.toString());
+    }
+    return this;
+  }
+
+  /**
+   * Write the text content of the current element
+   * Null or empty text leaves the element empty
+   *
+   * @param text The text to write
+   * @return This writer
+   * @throws IOException
+   */
+  public XmlWriter set(Object text) throws IOException {
+    if (text == null || text.toString().isEmpty()) {
+      return this;
+    }
+
+    writePending();
+    escape(text.toString(), false);
+    return this;
+  }
+
+  /**
+   * Write the text content of the current element, copying it from a reader a chunk at a time
+   * Empty text leaves the element empty
+   *
+   * @param text The reader of the text to write, which is read to the end but not closed
+   * @return This writer
+   * @throws IOException
+   */
+  public XmlWriter set(Reader text) throws IOException {
+    char[] chunk = new char[CHUNK_SIZE];
+    int length = 0;
+    int read;
+    while ((read = text.read(chunk, length, chunk.length - length)) >= 0) {
+      length += read;
+      if (length == 0) {
+        continue;
+      }
+
+      // A surrogate pair split across chunks is escaped once both halves are read
+      int complete = Character.isHighSurrogate(chunk[length - 1]) ? length - 1 : length;
+      writePending();
+      escape(new String(chunk, 0, complete), false);
+      System.arraycopy(chunk, complete, chunk, 0, length - complete);
+      length -= complete;
+    }
+
+    if (length > 0) {
+      writePending();
+      escape(new String(chunk, 0, length), false);
+    }
+    return this;
+  }
+
+  /**
+   * Write a comment as a child of the current element
+   * The text is escaped as element text is, as comments were once written as elements and turned into comments
+   * afterwards, so existing workflows keep their output
+   * Comments cannot contain "--" or end with "-", so a space is inserted where that would happen
+   *
+   * @param text The text of the comment
+   * @return This writer
+   * @throws IOException
+   */
+  public XmlWriter comment(String text) throws IOException {
+    writePending();
+
+    if (open.isEmpty()) {
+      if (wroteRoot) {
+        out.write('\n');
+      }
+    } else {
+      open.peek().hasChildren = true;
+      writeIndent(open.size());
+    }
+
+    String safeText = text.replace("--", "- -").replace("--", "- -");
+    if (safeText.endsWith("-")) {
+      safeText += " ";
+    }
+
+    out.write("<!--");
+    escape(safeText, false);
+    out.write("-->");
+    return this;
+  }
+
+  /**
+   * Close the current element
+   *
+   * @return This writer
+   * @throws IOException
+   */
+  public XmlWriter up() throws IOException {
+    Element element = open.pop();
+
+    if (element == pending) {
+      writeStartTag(element, true);
+      pending = null;
+      return this;
+    }
+
+    writePending();
+    if (element.hasChildren) {
+      writeIndent(open.size());
+    }
+    out.write("</");
+    out.write(element.name);
+    out.write('>');
+    return this;
+  }
+
+  /**
+   * Close any elements that are still open and flush the underlying Writer
+   * The underlying Writer is left open
+   *
+   * @throws IOException
+   */
+  public void finish() throws IOException {
+    while (!open.isEmpty()) {
+      up();
+    }
+    if (wroteRoot) {
+      out.write('\n');
+    }
+    out.flush();
+  }
+
+  /**
+   * Finish the document and close the underlying Writer
+   *
+   * @throws IOException
+   */
+  @Override
+  public void close() throws IOException {
+    finish();
+    out.close();
+  }
+
+  private void writePending() throws IOException {
+    if (pending != null) {
+      writeStartTag(pending, false);
+      pending = null;
+    }
+  }
+
+  private void writeStartTag(Element element, boolean empty) throws IOException {
+    out.write('<');
+    out.write(element.name);
+    for (Map.Entry<String, String> attribute : element.attributes.entrySet()) {
+      out.write(' ');
+      out.write(attribute.getKey());
+      out.write("=\"");
+      escape(attribute.getValue(), true);
+      out.write('"');
+    }
+    out.write(empty ? "/>" : ">");
+  }
+
+  private void writeIndent(int depth) throws IOException {
+    out.write('\n');
+    for (int i = 0; i < depth; i++) {
+      out.write(INDENT);
+    }
+  }
+
+  /**
+   * Write escaped text or attribute content
+   * Whitespace inside attributes, control characters and characters outside the BMP are written as character
+   * references, as the Transformer did
+   *
+   * @param text The text to escape
+   * @param attribute true if the text is an attribute value
+   * @throws IOException
+   */
+  private void escape(String text, boolean attribute) throws IOException {
+    int length = text.length();
+    int start = 0;
+    int i = 0;
+    while (i < length) {
+      int codePoint = text.codePointAt(i);
+      String replacement = null;
+
+      if (codePoint == '<') {
+        replacement = "&lt;";
+      } else if (codePoint == '>') {
+        replacement = "&gt;";
+      } else if (codePoint == '&') {
+        replacement = "&amp;";
+      } else if (codePoint == '"' && attribute) {
+        replacement = "&quot;";
+      } else if (codePoint == '\n' || codePoint == '\t') {
+        replacement = attribute ? "&#" + codePoint + ";" : null;
+      } else if (codePoint < 0x20 || (!attribute && codePoint >= 0x7F && codePoint <= 0x9F) || Character.isSupplementaryCodePoint(codePoint)) {
+        replacement = "&#" + codePoint + ";";
+      }
+
+      int next = i + Character.charCount(codePoint);
+      if (replacement != null) {
+        out.write(text, start, i - start);
+        out.write(replacement);
+        start = next;
+      }
+      i = next;
+    }
+    out.write(text, start, length - start);
+  }
+
+  private static boolean isNamespaceDeclaration(String attributeName) {
+    return attributeName.equals("xmlns") || attributeName.startsWith("xmlns:");
+  }
+
+  private static class Element {
+    private final String name;
+    private final Map<String, String> attributes = new TreeMap<>(ATTRIBUTE_ORDER);
+    private boolean hasChildren = false;
+
+    Element(String name) {
+      this.name = name;
+    }
+  }
+}
@@ -17,6 +17,8 @@
 package net.achalaggarwal.arbiter.util;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import org.yaml.snakeyaml.DumperOptions;
 import org.yaml.snakeyaml.Yaml;
 import org.yaml.snakeyaml.constructor.Constructor;
@@ -32,17 +34,44 @@ import java.net.URL;
 
 /**
  * Utility class for reading YAML into type-safe collections
+ * A reader created from a supplier of Constructors is safe to share between threads, as each thread parses with its
+ * own snakeyaml parser, and the bean introspection of every parser is shared across the JVM
  *
  * @param <T> The type of object to produce at the root of the YAML document
  * @author Andrew Johnson
  */
 public class YamlReader<T> {
-    private Yaml yamlParser;
+    private final Supplier<? extends Constructor> rootConstructors;
+    private final ThreadLocal<Yaml> yamlParsers = new ThreadLocal<Yaml>() {
+        @Override
+        protected Yaml initialValue() {
+            return createParser(rootConstructors.get());
+        }
+    };
 
+    /**
+     * Create a reader that must only be used by one thread, as every parse shares the given Constructor
+     *
+     * @param rootConstructor The Constructor of the root object
+     */
     public YamlReader(Constructor rootConstructor) {
+        this(Suppliers.ofInstance(rootConstructor));
+    }
+
+    /**
+     * Create a reader that can be shared between threads
+     *
+     * @param rootConstructors Supplies a new Constructor of the root object for the parser of each thread
+     */
+    public YamlReader(Supplier<? extends Constructor> rootConstructors) {
+        this.rootConstructors = rootConstructors;
+    }
+
+    private static Yaml createParser(Constructor rootConstructor) {
+        rootConstructor.setPropertyUtils(SharedPropertyUtils.INSTANCE);
         Representer representer = new Representer();
-        representer.getPropertyUtils().setSkipMissingProperties(true);
-        yamlParser = new Yaml(rootConstructor, representer, new DumperOptions(), new CustomResolver());
+        representer.setPropertyUtils(SharedPropertyUtils.INSTANCE);
+        return new Yaml(rootConstructor, representer, new DumperOptions(), new CustomResolver());
     }
 
     /**
@@ -56,7 +85,7 @@ public class YamlReader<T> {
         Preconditions.checkNotNull(file);
 
         try (InputStream stream = file.openStream()) {
-            return (T) yamlParser.load(stream);
+            return (T) yamlParsers.get().load(stream);
         } catch (IOException e) {
             throw new RuntimeException("Could not load config file: " + file.getFile(), e);
         }
@@ -73,7 +102,7 @@ public class YamlReader<T> {
         Preconditions.checkNotNull(file);
 
         try (InputStream stream = new FileInputStream(file)) {
-            return (T) yamlParser.load(stream);
+            return (T) yamlParsers.get().load(stream);
         } catch (IOException e) {
             throw new RuntimeException("Could not load config file: " + file.getName(), e);
         }
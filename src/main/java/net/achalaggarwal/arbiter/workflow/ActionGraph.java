@@ -0,0 +1,256 @@
+package net.achalaggarwal.arbiter.workflow;
+
+import net.achalaggarwal.arbiter.Action;
+import net.achalaggarwal.arbiter.exception.WorkflowGraphException;
+import org.jgrapht.experimental.dag.DirectedAcyclicGraph;
+import org.jgrapht.graph.DefaultEdge;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable DAG of actions, numbered from 0 in the order they were added
+ * The edges are held in int arrays, with the successors of every vertex stored one after another in the order their
+ * edges were added, and likewise for the predecessors, so a graph costs a few ints per edge instead of an edge object
+ * and several hash map entries
+ * This is the graph the compiler works on, and it is only converted to a jgrapht graph for Graphviz
+ */
+public final class ActionGraph {
+    private final Action[] actions;
+    private final int[] successorStarts;
+    private final int[] successors;
+    private final int[] predecessorStarts;
+    private final int[] predecessors;
+    private final int[] topologicalOrder;
+
+    // Built on the first lookup, as the compiler itself only walks the graph by index
+    private Map<Action, Integer> indices;
+
+    private ActionGraph(Action[] actions, int[] sources, int[] targets, int edgeCount) throws WorkflowGraphException {
+        this.actions = actions;
+        int size = actions.length;
+
+        successorStarts = new int[size + 1];
+        predecessorStarts = new int[size + 1];
+        for (int i = 0; i < edgeCount; i++) {
+            successorStarts[sources[i] + 1]++;
+            predecessorStarts[targets[i] + 1]++;
+        }
+        for (int i = 0; i < size; i++) {
+            successorStarts[i + 1] += successorStarts[i];
+            predecessorStarts[i + 1] += predecessorStarts[i];
+        }
+
+        // Filling the edges in the order they were added keeps that order within every vertex
+        successors = new int[edgeCount];
+        predecessors = new int[edgeCount];
+        int[] nextSuccessor = Arrays.copyOf(successorStarts, size);
+        int[] nextPredecessor = Arrays.copyOf(predecessorStarts, size);
+        for (int i = 0; i < edgeCount; i++) {
+            successors[nextSuccessor[sources[i]]++] = targets[i];
+            predecessors[nextPredecessor[targets[i]]++] = sources[i];
+        }
+
+        topologicalOrder = sortTopologically();
+    }
+
+    /**
+     * Copy this graph into a jgrapht graph, with the vertices in the order they are numbered
+     *
+     * @return The graph with the same vertices and edges
+     */
+    public DirectedAcyclicGraph<Action, DefaultEdge> toDirectedAcyclicGraph() {
+        DirectedAcyclicGraph<Action, DefaultEdge> graph = new DirectedAcyclicGraph<>(DefaultEdge.class);
+        for (Action action : actions) {
+            graph.addVertex(action);
+        }
+
+        try {
+            // Adding the edges in topological order of their sources never has to reorder the graph
+            for (int vertex : topologicalOrder) {
+                for (int i = successorStarts[vertex]; i < successorStarts[vertex + 1]; i++) {
+                    graph.addDagEdge(actions[vertex], actions[successors[i]]);
+                }
+            }
+        } catch (DirectedAcyclicGraph.CycleFoundException e) {
+            throw new IllegalStateException("Cycle found in a directed acyclic graph", e);
+        }
+
+        return graph;
+    }
+
+    /**
+     * @return The number of actions in the graph
+     */
+    public int size() {
+        return actions.length;
+    }
+
+    /**
+     * @return The number of edges in the graph
+     */
+    public int getEdgeCount() {
+        return successors.length;
+    }
+
+    /**
+     * @param vertex The index of an action
+     * @return The action
+     */
+    public Action getAction(int vertex) {
+        return actions[vertex];
+    }
+
+    /**
+     * @param action The action to look up
+     * @return The index of the action, or null if it is not in the graph
+     */
+    public synchronized Integer indexOf(Action action) {
+        if (indices == null) {
+            indices = new IdentityHashMap<>(actions.length);
+            for (int i = 0; i < actions.length; i++) {
+                indices.put(actions[i], i);
+            }
+        }
+        return indices.get(action);
+    }
+
+    int inDegree(int vertex) {
+        return predecessorStarts[vertex + 1] - predecessorStarts[vertex];
+    }
+
+    int outDegree(int vertex) {
+        return successorStarts[vertex + 1] - successorStarts[vertex];
+    }
+
+    /**
+     * @param vertex The index of an action
+     * @param i Which of its predecessors to get, from 0 to its in degree
+     * @return The i-th action with an edge to the action, in the order the edges were added
+     */
+    int getPredecessor(int vertex, int i) {
+        return predecessors[predecessorStarts[vertex] + i];
+    }
+
+    /**
+     * @param vertex The index of an action
+     * @param i Which of its successors to get, from 0 to its out degree
+     * @return The i-th action the action has an edge to, in the order the edges were added
+     */
+    int getSuccessor(int vertex, int i) {
+        return successors[successorStarts[vertex] + i];
+    }
+
+    /**
+     * @return Every vertex in a topological order. This must not be modified
+     */
+    int[] getTopologicalOrder() {
+        return topologicalOrder;
+    }
+
+    /**
+     * Order the vertices so every edge goes forwards, taking the vertices without pending predecessors in index order
+     *
+     * @return The vertices in topological order
+     * @throws WorkflowGraphException If the graph has a cycle
+     */
+    private int[] sortTopologically() throws WorkflowGraphException {
+        int size = actions.length;
+        int[] pending = new int[size];
+        int[] order = new int[size];
+        int count = 0;
+        for (int vertex = 0; vertex < size; vertex++) {
+            pending[vertex] = inDegree(vertex);
+            if (pending[vertex] == 0) {
+                order[count++] = vertex;
+            }
+        }
+
+        for (int next = 0; next < count; next++) {
+            int vertex = order[next];
+            for (int i = successorStarts[vertex]; i < successorStarts[vertex + 1]; i++) {
+                if (--pending[successors[i]] == 0) {
+                    order[count++] = successors[i];
+                }
+            }
+        }
+
+        if (count < size) {
+            for (int vertex = 0; vertex < size; vertex++) {
+                if (pending[vertex] > 0) {
+                    throw new WorkflowGraphException("Cycle found in graph through action " + actions[vertex].getName());
+                }
+            }
+        }
+
+        return order;
+    }
+
+    /**
+     * Collects the actions and edges of a graph
+     * Adding an action that was already added gives its existing index, as adding a vertex to a jgrapht graph does
+     */
+    public static final class Builder {
+        private final List<Action> actions = new ArrayList<>();
+        private final Map<Action, Integer> indices = new IdentityHashMap<>();
+        private int[] sources = new int[16];
+        private int[] targets = new int[16];
+        private int edgeCount;
+
+        /**
+         * @param action The action to add
+         * @return The index of the action
+         */
+        public int addAction(Action action) {
+            Integer index = indices.get(action);
+            if (index == null) {
+                index = actions.size();
+                actions.add(action);
+                indices.put(action, index);
+            }
+            return index;
+        }
+
+        /**
+         * @param source The index of the action the edge starts at
+         * @param target The index of the action the edge ends at
+         */
+        public void addEdge(int source, int target) {
+            if (source == target) {
+                throw new IllegalArgumentException("loops not allowed");
+            }
+
+            if (edgeCount == sources.length) {
+                sources = Arrays.copyOf(sources, edgeCount * 2);
+                targets = Arrays.copyOf(targets, edgeCount * 2);
+            }
+            sources[edgeCount] = source;
+            targets[edgeCount] = target;
+            edgeCount++;
+        }
+
+        /**
+         * @param source The action the edge starts at, which must have been added
+         * @param target The action the edge ends at, which must have been added
+         */
+        public void addEdge(Action source, Action target) {
+            Integer sourceIndex = indices.get(source);
+            Integer targetIndex = indices.get(target);
+            if (sourceIndex == null || targetIndex == null) {
+                throw new IllegalArgumentException("no such vertex in graph");
+            }
+            addEdge(sourceIndex, targetIndex);
+        }
+
+        /**
+         * @return The graph
+         * @throws WorkflowGraphException If the edges form a cycle
+         */
+        public ActionGraph build() throws WorkflowGraphException {
+            return new ActionGraph(actions.toArray(new Action[actions.size()]), sources, targets, edgeCount);
+        }
+    }
+}
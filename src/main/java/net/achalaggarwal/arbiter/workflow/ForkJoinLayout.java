@@ -0,0 +1,63 @@
+package net.achalaggarwal.arbiter.workflow;
+
+/**
+ * A workflow graph along with the fork/join mode that placed its fork/joins
+ * The false dependencies and makespans are those measured to choose between the requested mode and the levels, or
+ * null where they were not measured
+ */
+public final class ForkJoinLayout {
+    private final ActionGraph workflowGraph;
+    private final ForkJoinMode mode;
+    private final Long falseDependencies;
+    private final Long levelFalseDependencies;
+    private final Long makespan;
+    private final Long levelMakespan;
+
+    public ForkJoinLayout(ActionGraph workflowGraph, ForkJoinMode mode, Long falseDependencies, Long levelFalseDependencies, Long makespan, Long levelMakespan) {
+        this.workflowGraph = workflowGraph;
+        this.mode = mode;
+        this.falseDependencies = falseDependencies;
+        this.levelFalseDependencies = levelFalseDependencies;
+        this.makespan = makespan;
+        this.levelMakespan = levelMakespan;
+    }
+
+    public ActionGraph getWorkflowGraph() {
+        return workflowGraph;
+    }
+
+    /**
+     * @return The mode whose fork/joins are in the graph, which is the levels when the requested mode did worse
+     */
+    public ForkJoinMode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return The number of false dependencies of the graph
+     */
+    public Long getFalseDependencies() {
+        return falseDependencies;
+    }
+
+    /**
+     * @return The number of false dependencies with level fork/joins
+     */
+    public Long getLevelFalseDependencies() {
+        return levelFalseDependencies;
+    }
+
+    /**
+     * @return The predicted makespan of the graph
+     */
+    public Long getMakespan() {
+        return makespan;
+    }
+
+    /**
+     * @return The predicted makespan with level fork/joins
+     */
+    public Long getLevelMakespan() {
+        return levelMakespan;
+    }
+}
@@ -0,0 +1,77 @@
+package net.achalaggarwal.arbiter.workflow;
+
+import net.achalaggarwal.arbiter.Workflow;
+import net.achalaggarwal.arbiter.exception.WorkflowGraphException;
+
+/**
+ * The ways fork/join pairs can be placed when turning a dependency graph into an Oozie workflow
+ */
+public enum ForkJoinMode {
+    /**
+     * Run the actions level by level, where the level of an action is the length of the longest dependency chain
+     * leading to it
+     * Every action waits for the whole level before it, even the parts of it that it does not depend on
+     */
+    LEVELS("levels"),
+
+    /**
+     * Split the dependency graph into nested series and parallel parts, so actions only wait for actions they do not
+     * depend on where the graph cannot be expressed with fork/joins at all
+     * This never adds more false dependencies than the level mode
+     */
+    SERIES_PARALLEL("series-parallel"),
+
+    /**
+     * Split the dependency graph into nested series and parallel parts like the series-parallel mode, but where it has
+     * to add false dependencies, add the ones that lengthen the critical path the least
+     * This uses the expected durations of the actions and never predicts a longer makespan than the level mode
+     */
+    CRITICAL_PATH("critical-path");
+
+    private final String name;
+
+    ForkJoinMode(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets a mode by the name used for it on the command line and in workflows
+     *
+     * @param name The name of the mode
+     * @return The mode with the given name
+     * @throws IllegalArgumentException If there is no mode with the given name
+     */
+    public static ForkJoinMode fromName(String name) {
+        for (ForkJoinMode mode : values()) {
+            if (mode.name.equals(name)) {
+                return mode;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown fork/join mode " + name);
+    }
+
+    /**
+     * Gets the mode a workflow should be built with
+     *
+     * @param workflow The workflow, which may choose its own mode
+     * @param defaultMode The mode to use if the workflow does not choose one
+     * @return The mode for the workflow
+     * @throws WorkflowGraphException If the workflow chooses a mode that does not exist
+     */
+    public static ForkJoinMode forWorkflow(Workflow workflow, ForkJoinMode defaultMode) throws WorkflowGraphException {
+        if (workflow.getForkJoinMode() == null) {
+            return defaultMode;
+        }
+
+        try {
+            return fromName(workflow.getForkJoinMode());
+        } catch (IllegalArgumentException e) {
+            throw new WorkflowGraphException("Invalid fork/join mode for workflow " + workflow.getName(), e);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package net.achalaggarwal.arbiter.workflow;
+
+import net.achalaggarwal.arbiter.Action;
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * A nesting of actions into parts that run one after another or side by side
+ * Parallel parts with more than one child become fork/join pairs in the workflow graph
+ */
+class ForkJoinTree {
+    private final Action action;
+    // The index of the action in the dependency graph, or -1 for parts without an action
+    private final int vertex;
+    private final boolean parallel;
+    private final List<ForkJoinTree> children = new ArrayList<>();
+
+    private Pair<Action, Action> forkJoin;
+    private Action first;
+    private Action last;
+
+    private ForkJoinTree(Action action, int vertex, boolean parallel) {
+        this.action = action;
+        this.vertex = vertex;
+        this.parallel = parallel;
+    }
+
+    static ForkJoinTree leaf(Action action, int vertex) {
+        return new ForkJoinTree(action, vertex, false);
+    }
+
+    static ForkJoinTree series() {
+        return new ForkJoinTree(null, -1, false);
+    }
+
+    static ForkJoinTree parallel() {
+        return new ForkJoinTree(null, -1, true);
+    }
+
+    ForkJoinTree add(ForkJoinTree child) {
+        children.add(child);
+        return this;
+    }
+
+    Action getAction() {
+        return action;
+    }
+
+    int getVertex() {
+        return vertex;
+    }
+
+    List<ForkJoinTree> getChildren() {
+        return children;
+    }
+
+    void setChildren(List<ForkJoinTree> newChildren) {
+        children.clear();
+        children.addAll(newChildren);
+    }
+
+    boolean isParallel() {
+        return parallel;
+    }
+
+    /**
+     * @return true if this part needs a fork/join pair around its children
+     */
+    boolean needsForkJoin() {
+        return parallel && children.size() > 1;
+    }
+
+    Pair<Action, Action> getForkJoin() {
+        return forkJoin;
+    }
+
+    void setForkJoin(Pair<Action, Action> forkJoin) {
+        this.forkJoin = forkJoin;
+    }
+
+    /**
+     * @return The node that runs first in this part, or null if the part is empty
+     */
+    Action getFirst() {
+        return first;
+    }
+
+    /**
+     * @return The node that runs last in this part, or null if the part is empty
+     */
+    Action getLast() {
+        return last;
+    }
+
+    /**
+     * Work out the first and last node of this part once its children have been resolved
+     */
+    void resolveEnds() {
+        if (action != null) {
+            first = action;
+            last = action;
+        } else if (forkJoin != null) {
+            first = forkJoin.getLeft();
+            last = forkJoin.getRight();
+        } else {
+            first = null;
+            last = null;
+            for (ForkJoinTree child : children) {
+                if (child.first != null) {
+                    first = first == null ? child.first : first;
+                    last = child.last;
+                }
+            }
+        }
+    }
+
+    /**
+     * Visit a tree depth first without recursing, so deep workflows cannot overflow the stack
+     *
+     * @param root The part at which to start
+     * @param visitor The visitor to call on entering and leaving each part
+     */
+    static void walk(ForkJoinTree root, Visitor visitor) {
+        Deque<Pair<ForkJoinTree, Boolean>> stack = new ArrayDeque<>();
+        stack.push(Pair.of(root, false));
+
+        while (!stack.isEmpty()) {
+            Pair<ForkJoinTree, Boolean> frame = stack.pop();
+            ForkJoinTree part = frame.getLeft();
+            if (frame.getRight()) {
+                visitor.leave(part);
+                continue;
+            }
+
+            visitor.enter(part);
+            stack.push(Pair.of(part, true));
+            for (int i = part.children.size() - 1; i >= 0; i--) {
+                stack.push(Pair.of(part.children.get(i), false));
+            }
+        }
+    }
+
+    interface Visitor {
+        void enter(ForkJoinTree part);
+
+        void leave(ForkJoinTree part);
+    }
+}
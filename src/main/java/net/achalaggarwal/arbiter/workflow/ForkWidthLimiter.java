@@ -0,0 +1,169 @@
+package net.achalaggarwal.arbiter.workflow;
+
+import org.apache.commons.lang3.builder.CompareToBuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Limits how many paths a fork may start at once
+ * A parallel part with more children than the limit is turned into a fork with one path per lane, where each lane runs
+ * several of the original children one after another
+ * Children are assigned longest first to the lane that is predicted to finish first, using the expected durations of
+ * their actions, or the number of actions on their longest chain if no action has an expected duration
+ * Actions without an expected duration in a workflow where others have one are taken to last the mean known duration
+ */
+final class ForkWidthLimiter {
+    private final int maxWidth;
+    private final long[] weights;
+    private final Map<ForkJoinTree, Long> lengths = new HashMap<>();
+
+    private ForkWidthLimiter(int maxWidth, long[] durations) {
+        this.maxWidth = maxWidth;
+
+        long total = 0;
+        int known = 0;
+        for (long duration : durations) {
+            if (duration > 0) {
+                total += duration;
+                known++;
+            }
+        }
+        long defaultWeight = known == 0 ? 1 : Math.max(1, Math.round((double) total / known));
+
+        this.weights = new long[durations.length];
+        for (int i = 0; i < durations.length; i++) {
+            weights[i] = durations[i] > 0 ? durations[i] : defaultWeight;
+        }
+    }
+
+    /**
+     * Limit the width of every fork in a tree, rewriting the tree in place
+     *
+     * @param root The tree to limit
+     * @param maxWidth The maximum number of paths of a fork
+     * @param durations The expected duration of every action in the dependency graph, by index
+     */
+    static void limit(ForkJoinTree root, int maxWidth, long[] durations) {
+        final ForkWidthLimiter limiter = new ForkWidthLimiter(maxWidth, durations);
+
+        // Children are limited before their parents, so the lengths of the lanes are known when they are balanced
+        ForkJoinTree.walk(root, new ForkJoinTree.Visitor() {
+            @Override
+            public void enter(ForkJoinTree part) {
+            }
+
+            @Override
+            public void leave(ForkJoinTree part) {
+                if (part.isParallel() && part.getChildren().size() > limiter.maxWidth) {
+                    part.setChildren(limiter.buildLanes(part.getChildren()));
+                }
+                limiter.lengths.put(part, limiter.length(part));
+            }
+        });
+    }
+
+    /**
+     * Gets the predicted time from the start to the end of a part whose children have all been measured
+     *
+     * @param part The part to measure
+     * @return The length of the longest chain through the part
+     */
+    private long length(ForkJoinTree part) {
+        if (part.getAction() != null) {
+            return weights[part.getVertex()];
+        }
+
+        long length = 0;
+        for (ForkJoinTree child : part.getChildren()) {
+            long childLength = lengths.get(child);
+            length = part.isParallel() ? Math.max(length, childLength) : length + childLength;
+        }
+        return length;
+    }
+
+    /**
+     * Spread the children of a parallel part over as many lanes as a fork may have
+     *
+     * @param children The children of the part, in the order they were declared
+     * @return The lanes, each of them a single child or a series of children in the order they were declared
+     */
+    private List<ForkJoinTree> buildLanes(final List<ForkJoinTree> children) {
+        List<Integer> longestFirst = new ArrayList<>();
+        for (int i = 0; i < children.size(); i++) {
+            longestFirst.add(i);
+        }
+        Collections.sort(longestFirst, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return new CompareToBuilder()
+                  .append(lengths.get(children.get(o2)), lengths.get(children.get(o1)))
+                  .append(o1, o2)
+                  .toComparison();
+            }
+        });
+
+        final long[] loads = new long[maxWidth];
+        final List<List<Integer>> lanes = new ArrayList<>();
+        // Ties go to the lane with the fewest children, so children of equal length are spread over every lane
+        PriorityQueue<Integer> leastLoaded = new PriorityQueue<>(maxWidth, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return new CompareToBuilder()
+                  .append(loads[o1], loads[o2])
+                  .append(lanes.get(o1).size(), lanes.get(o2).size())
+                  .append(o1, o2)
+                  .toComparison();
+            }
+        });
+        for (int lane = 0; lane < maxWidth; lane++) {
+            lanes.add(new ArrayList<Integer>());
+            leastLoaded.add(lane);
+        }
+
+        for (int child : longestFirst) {
+            int lane = leastLoaded.poll();
+            lanes.get(lane).add(child);
+            loads[lane] += lengths.get(children.get(child));
+            leastLoaded.add(lane);
+        }
+
+        // Keep the declaration order within each lane and order the lanes by their first child
+        for (Iterator<List<Integer>> it = lanes.iterator(); it.hasNext(); ) {
+            List<Integer> lane = it.next();
+            if (lane.isEmpty()) {
+                it.remove();
+                continue;
+            }
+            Collections.sort(lane);
+        }
+        Collections.sort(lanes, new Comparator<List<Integer>>() {
+            @Override
+            public int compare(List<Integer> o1, List<Integer> o2) {
+                return o1.get(0).compareTo(o2.get(0));
+            }
+        });
+
+        List<ForkJoinTree> result = new ArrayList<>();
+        for (List<Integer> lane : lanes) {
+            if (lane.size() == 1) {
+                result.add(children.get(lane.get(0)));
+                continue;
+            }
+
+            ForkJoinTree series = ForkJoinTree.series();
+            for (int child : lane) {
+                series.add(children.get(child));
+            }
+            lengths.put(series, length(series));
+            result.add(series);
+        }
+        return result;
+    }
+}
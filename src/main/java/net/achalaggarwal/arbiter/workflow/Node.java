@@ -1,11 +1,14 @@
 package net.achalaggarwal.arbiter.workflow;
 
-import org.xembly.Directives;
+import net.achalaggarwal.arbiter.util.XmlWriter;
+
+import java.io.IOException;
 
 public abstract class Node {
-  protected abstract Directives buildNode();
+  protected abstract void buildNode(XmlWriter writer) throws IOException;
 
-  public Directives appendTo(Directives directives) {
-    return directives.append(buildNode());
+  public XmlWriter appendTo(XmlWriter writer) throws IOException {
+    buildNode(writer);
+    return writer;
   }
 }
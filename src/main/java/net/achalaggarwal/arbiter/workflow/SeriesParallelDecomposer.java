@@ -0,0 +1,374 @@
+package net.achalaggarwal.arbiter.workflow;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Splits a dependency graph into nested series and parallel parts
+ *
+ * A set of actions runs in parallel parts when it falls apart into several groups with no dependencies between them,
+ * and in series parts when it falls apart into groups where every action of one group depends on every action of the
+ * groups before it
+ * Graphs built only from these two cases become fork/joins without any action waiting on something it does not
+ * depend on
+ * Any other set of actions has to be cut in two, which adds false dependencies from every action before the cut to
+ * every action after it that did not already depend on it, so the cut that adds the fewest of them is chosen
+ * When the expected durations of the actions are known, the cut with the shortest estimated makespan is chosen instead,
+ * which is the longest chain of durations before the cut plus the longest chain after it
+ */
+final class SeriesParallelDecomposer {
+    // Trying a cut below and above every action is cubic in the size of the set, so larger sets only try level cuts
+    private static final int MAX_ACTION_CUT_SIZE = 512;
+
+    private final ActionGraph graph;
+    private final TransitiveClosure closure;
+    private final BitSet[] related;
+    private final long[][] ancestorWords;
+    private final long[][] descendantWords;
+    // Only set when cuts are chosen by makespan
+    private final long[] durations;
+
+    private SeriesParallelDecomposer(ActionGraph inputGraph, TransitiveClosure closure, long[] durations) {
+        graph = inputGraph;
+        this.closure = closure;
+        related = new BitSet[closure.size()];
+        ancestorWords = new long[closure.size()][];
+        descendantWords = new long[closure.size()][];
+        for (int i = 0; i < closure.size(); i++) {
+            related[i] = (BitSet) closure.getDescendants(i).clone();
+            related[i].or(closure.getAncestors(i));
+            ancestorWords[i] = closure.getAncestors(i).toLongArray();
+            descendantWords[i] = closure.getDescendants(i).toLongArray();
+        }
+        this.durations = durations;
+    }
+
+    /**
+     * Decompose a dependency graph
+     *
+     * @param inputGraph The dependency graph of a workflow
+     * @param closure The transitive closure of the dependency graph
+     * @return A parallel part holding the decomposition of every connected component of the graph
+     */
+    static ForkJoinTree decompose(ActionGraph inputGraph, TransitiveClosure closure) {
+        return new SeriesParallelDecomposer(inputGraph, closure, null).decompose();
+    }
+
+    /**
+     * Decompose a dependency graph, cutting where it keeps the estimated makespan lowest
+     *
+     * @param inputGraph The dependency graph of a workflow
+     * @param closure The transitive closure of the dependency graph
+     * @param durations The expected duration of every action in the graph, by index
+     * @return A parallel part holding the decomposition of every connected component of the graph
+     */
+    static ForkJoinTree decompose(ActionGraph inputGraph, TransitiveClosure closure, long[] durations) {
+        return new SeriesParallelDecomposer(inputGraph, closure, durations).decompose();
+    }
+
+    private ForkJoinTree decompose() {
+        ForkJoinTree root = ForkJoinTree.parallel();
+        if (closure.size() == 0) {
+            return root;
+        }
+
+        BitSet all = new BitSet(closure.size());
+        all.set(0, closure.size());
+
+        // Each task is a set of actions and the part its decomposition is added to
+        Deque<Pair<ForkJoinTree, BitSet>> tasks = new ArrayDeque<>();
+        tasks.push(Pair.of(root, all));
+
+        while (!tasks.isEmpty()) {
+            Pair<ForkJoinTree, BitSet> task = tasks.pop();
+            BitSet actions = task.getRight();
+
+            if (actions.cardinality() == 1) {
+                int vertex = actions.nextSetBit(0);
+                task.getLeft().add(ForkJoinTree.leaf(graph.getAction(vertex), vertex));
+                continue;
+            }
+
+            ForkJoinTree part;
+            List<BitSet> groups = components(actions, true);
+            if (groups.size() > 1) {
+                part = ForkJoinTree.parallel();
+            } else {
+                part = ForkJoinTree.series();
+                groups = seriesGroups(actions);
+                if (groups.size() == 1) {
+                    groups = cheapestCut(actions);
+                }
+            }
+
+            task.getLeft().add(part);
+            for (int i = groups.size() - 1; i >= 0; i--) {
+                tasks.push(Pair.of(part, groups.get(i)));
+            }
+        }
+
+        return root;
+    }
+
+    /**
+     * Split a set of actions into the groups connected by dependencies, or by the lack of them
+     *
+     * @param actions The actions to split
+     * @param dependent true to group actions that depend on each other, false to group actions that do not
+     * @return The groups, ordered by their first action
+     */
+    private List<BitSet> components(BitSet actions, boolean dependent) {
+        List<BitSet> result = new ArrayList<>();
+        BitSet unvisited = (BitSet) actions.clone();
+        Deque<Integer> queue = new ArrayDeque<>();
+
+        while (!unvisited.isEmpty()) {
+            int start = unvisited.nextSetBit(0);
+            BitSet component = new BitSet(closure.size());
+            unvisited.clear(start);
+            component.set(start);
+            queue.add(start);
+
+            while (!queue.isEmpty()) {
+                int action = queue.poll();
+                BitSet neighbours;
+                if (dependent) {
+                    neighbours = (BitSet) related[action].clone();
+                    neighbours.and(unvisited);
+                } else {
+                    neighbours = (BitSet) unvisited.clone();
+                    neighbours.andNot(related[action]);
+                }
+
+                for (int i = neighbours.nextSetBit(0); i >= 0; i = neighbours.nextSetBit(i + 1)) {
+                    unvisited.clear(i);
+                    component.set(i);
+                    queue.add(i);
+                }
+            }
+
+            result.add(component);
+        }
+
+        return result;
+    }
+
+    /**
+     * Split a set of actions into groups that must run one after another
+     * If the actions that do not depend on each other form several groups, every action of one group depends on every
+     * action of the other, so they can be ordered by any of their actions
+     *
+     * @param actions The actions to split
+     * @return The groups in the order they have to run
+     */
+    private List<BitSet> seriesGroups(BitSet actions) {
+        List<BitSet> groups = components(actions, false);
+        Collections.sort(groups, new Comparator<BitSet>() {
+            @Override
+            public int compare(BitSet o1, BitSet o2) {
+                return Integer.compare(
+                  closure.getTopologicalPosition(o1.nextSetBit(0)),
+                  closure.getTopologicalPosition(o2.nextSetBit(0))
+                );
+            }
+        });
+        return groups;
+    }
+
+    /**
+     * Cut a set of actions that cannot be split without adding dependencies into two groups that run one after another
+     * The candidates are every level of the set, as the level construction would cut it, and for small sets the
+     * actions below or not above every single action
+     * The estimated makespan of a cut is only considered when durations are known, otherwise it is always 0
+     *
+     * @param actions The actions to cut
+     * @return The two groups, in the order they have to run
+     */
+    private List<BitSet> cheapestCut(BitSet actions) {
+        int total = actions.cardinality();
+        long[] actionWords = actions.toLongArray();
+
+        // The part before a cut contains all dependencies of its actions within the set, so the pairs inside it that
+        // depend on each other are exactly those dependencies
+        // The dependent pairs across the cut are then the sum of this weight over the actions before it
+        long[] weights = new long[closure.size()];
+        for (int i = actions.nextSetBit(0); i >= 0; i = actions.nextSetBit(i + 1)) {
+            weights[i] = countCommon(descendantWords[i], actionWords) - countCommon(ancestorWords[i], actionWords);
+        }
+
+        // Every set being decomposed contains any path between two of its actions, so its levels only need the direct
+        // dependencies within it
+        List<Integer> order = inTopologicalOrder(actions);
+        int[] levels = new int[closure.size()];
+        List<List<Integer>> byLevel = new ArrayList<>();
+        for (int action : order) {
+            for (int j = 0; j < graph.inDegree(action); j++) {
+                int dependency = graph.getPredecessor(action, j);
+                if (actions.get(dependency)) {
+                    levels[action] = Math.max(levels[action], levels[dependency] + 1);
+                }
+            }
+            if (levels[action] == byLevel.size()) {
+                byLevel.add(new ArrayList<Integer>());
+            }
+            byLevel.get(levels[action]).add(action);
+        }
+
+        // The longest chain of durations ending at and starting from each action, within the set
+        long[] finish = new long[closure.size()];
+        long[] tail = new long[closure.size()];
+        if (durations != null) {
+            for (int action : order) {
+                for (int j = 0; j < graph.inDegree(action); j++) {
+                    int dependency = graph.getPredecessor(action, j);
+                    if (actions.get(dependency)) {
+                        finish[action] = Math.max(finish[action], finish[dependency]);
+                    }
+                }
+                finish[action] += durations[action];
+            }
+            for (int i = order.size() - 1; i >= 0; i--) {
+                int action = order.get(i);
+                for (int j = 0; j < graph.outDegree(action); j++) {
+                    int dependent = graph.getSuccessor(action, j);
+                    if (actions.get(dependent)) {
+                        tail[action] = Math.max(tail[action], tail[dependent]);
+                    }
+                }
+                tail[action] += durations[action];
+            }
+        }
+
+        // The longest chain starting at each level or any level after it
+        long[] levelTails = new long[byLevel.size() + 1];
+        for (int level = byLevel.size() - 1; level >= 0; level--) {
+            levelTails[level] = levelTails[level + 1];
+            for (int action : byLevel.get(level)) {
+                levelTails[level] = Math.max(levelTails[level], tail[action]);
+            }
+        }
+
+        // Level cuts are scored as each level moves before the cut
+        BitSet best = null;
+        long bestMakespan = Long.MAX_VALUE;
+        long bestCost = Long.MAX_VALUE;
+        BitSet levelsBefore = new BitSet(closure.size());
+        long count = 0;
+        long dependentPairs = 0;
+        long finishBefore = 0;
+        for (int level = 0; level < byLevel.size() - 1; level++) {
+            for (int action : byLevel.get(level)) {
+                levelsBefore.set(action);
+                count++;
+                dependentPairs += weights[action];
+                finishBefore = Math.max(finishBefore, finish[action]);
+            }
+
+            long makespan = finishBefore + levelTails[level + 1];
+            long cost = count * (total - count) - dependentPairs;
+            if (makespan < bestMakespan || (makespan == bestMakespan && cost < bestCost)) {
+                best = (BitSet) levelsBefore.clone();
+                bestMakespan = makespan;
+                bestCost = cost;
+            }
+        }
+
+        for (int i = actions.nextSetBit(0); i >= 0 && total <= MAX_ACTION_CUT_SIZE; i = actions.nextSetBit(i + 1)) {
+            BitSet below = (BitSet) closure.getAncestors(i).clone();
+            below.set(i);
+            below.and(actions);
+
+            BitSet notAbove = (BitSet) actions.clone();
+            notAbove.andNot(closure.getDescendants(i));
+            notAbove.clear(i);
+
+            for (BitSet candidate : Arrays.asList(below, notAbove)) {
+                long makespan = cutMakespan(actions, candidate, finish, tail);
+                long cost = cutCost(total, candidate, weights);
+                if (makespan < bestMakespan || (makespan == bestMakespan && cost < bestCost)) {
+                    best = candidate;
+                    bestMakespan = makespan;
+                    bestCost = cost;
+                }
+            }
+        }
+
+        BitSet rest = (BitSet) actions.clone();
+        rest.andNot(best);
+
+        List<BitSet> result = new ArrayList<>(2);
+        result.add(best);
+        result.add(rest);
+        return result;
+    }
+
+    /**
+     * Count the dependencies a cut adds
+     *
+     * @param total The number of actions being cut
+     * @param before The actions that run before the cut
+     * @param weights The weight of each action being cut
+     * @return The number of pairs of actions on either side of the cut where the later one does not already depend on the earlier one
+     */
+    private static long cutCost(int total, BitSet before, long[] weights) {
+        long count = 0;
+        long dependentPairs = 0;
+        for (int i = before.nextSetBit(0); i >= 0; i = before.nextSetBit(i + 1)) {
+            count++;
+            dependentPairs += weights[i];
+        }
+        return count * (total - count) - dependentPairs;
+    }
+
+    /**
+     * Estimate the makespan of a cut
+     *
+     * @param actions The actions being cut
+     * @param before The actions that run before the cut
+     * @param finish The longest chain of durations within the set ending at each action
+     * @param tail The longest chain of durations within the set starting from each action
+     * @return The longest chain before the cut plus the longest chain after it
+     */
+    private static long cutMakespan(BitSet actions, BitSet before, long[] finish, long[] tail) {
+        long finishBefore = 0;
+        long tailAfter = 0;
+        for (int i = actions.nextSetBit(0); i >= 0; i = actions.nextSetBit(i + 1)) {
+            if (before.get(i)) {
+                finishBefore = Math.max(finishBefore, finish[i]);
+            } else {
+                tailAfter = Math.max(tailAfter, tail[i]);
+            }
+        }
+        return finishBefore + tailAfter;
+    }
+
+    private static int countCommon(long[] a, long[] b) {
+        int count = 0;
+        for (int i = Math.min(a.length, b.length) - 1; i >= 0; i--) {
+            count += Long.bitCount(a[i] & b[i]);
+        }
+        return count;
+    }
+
+    private List<Integer> inTopologicalOrder(BitSet actions) {
+        List<Integer> result = new ArrayList<>(actions.cardinality());
+        for (int i = actions.nextSetBit(0); i >= 0; i = actions.nextSetBit(i + 1)) {
+            result.add(i);
+        }
+        Collections.sort(result, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return Integer.compare(closure.getTopologicalPosition(o1), closure.getTopologicalPosition(o2));
+            }
+        });
+        return result;
+    }
+}
@@ -0,0 +1,80 @@
+package net.achalaggarwal.arbiter.workflow;
+
+import java.util.BitSet;
+
+/**
+ * Which vertices of a DAG can reach which, as one bit set per vertex
+ * Vertices are numbered as they are in the graph
+ */
+class TransitiveClosure {
+    private final ActionGraph graph;
+    private final int[] topologicalPosition;
+    private final BitSet[] descendants;
+    private final BitSet[] ancestors;
+
+    TransitiveClosure(ActionGraph graph) {
+        this.graph = graph;
+        int size = graph.size();
+        int[] topologicalOrder = graph.getTopologicalOrder();
+
+        topologicalPosition = new int[size];
+        for (int position = 0; position < size; position++) {
+            topologicalPosition[topologicalOrder[position]] = position;
+        }
+
+        descendants = new BitSet[size];
+        ancestors = new BitSet[size];
+
+        for (int i = 0; i < size; i++) {
+            int vertex = topologicalOrder[i];
+            ancestors[vertex] = new BitSet(size);
+            for (int j = 0; j < graph.inDegree(vertex); j++) {
+                int source = graph.getPredecessor(vertex, j);
+                ancestors[vertex].or(ancestors[source]);
+                ancestors[vertex].set(source);
+            }
+        }
+
+        for (int i = size - 1; i >= 0; i--) {
+            int vertex = topologicalOrder[i];
+            descendants[vertex] = new BitSet(size);
+            for (int j = 0; j < graph.outDegree(vertex); j++) {
+                int target = graph.getSuccessor(vertex, j);
+                descendants[vertex].or(descendants[target]);
+                descendants[vertex].set(target);
+            }
+        }
+    }
+
+    int size() {
+        return graph.size();
+    }
+
+    ActionGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * @param index The index of a vertex
+     * @return The position of the vertex in a topological order of the graph
+     */
+    int getTopologicalPosition(int index) {
+        return topologicalPosition[index];
+    }
+
+    /**
+     * @param index The index of a vertex
+     * @return The vertices reachable from the vertex, not including itself. This must not be modified
+     */
+    BitSet getDescendants(int index) {
+        return descendants[index];
+    }
+
+    /**
+     * @param index The index of a vertex
+     * @return The vertices that can reach the vertex, not including itself. This must not be modified
+     */
+    BitSet getAncestors(int index) {
+        return ancestors[index];
+    }
+}
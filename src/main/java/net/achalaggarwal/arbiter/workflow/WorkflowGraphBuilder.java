@@ -24,15 +24,12 @@ package net.achalaggarwal.arbiter.workflow;
 import lombok.val;
 import net.achalaggarwal.arbiter.Action;
 import net.achalaggarwal.arbiter.Workflow;
+import net.achalaggarwal.arbiter.config.ActionType;
 import net.achalaggarwal.arbiter.config.Config;
 import net.achalaggarwal.arbiter.exception.WorkflowGraphException;
 import com.google.common.collect.ImmutableMap;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.commons.lang3.tuple.Triple;
-import org.jgrapht.Graphs;
-import org.jgrapht.alg.ConnectivityInspector;
-import org.jgrapht.experimental.dag.DirectedAcyclicGraph;
-import org.jgrapht.graph.DefaultEdge;
 
 import java.util.*;
 
@@ -50,281 +47,480 @@ public class WorkflowGraphBuilder {
 
     // Every fork/join pair needs a unique name
     // To keep the names short, we just number them sequentially
-    private static int forkCount = 0;
+    // This is kept per build so that several workflows can be built concurrently
+    private int forkCount = 0;
 
     /**
-     * Build a workflow graph from the workflow definition, inserting fork/join pairs as appropriate for parallel
+     * Build the dependency graph of a workflow definition, with an edge from every action to each of its dependents
      *
      * @param workflow Arbiter Workflow object
      * @param config Arbiter Config object
-     * @return DirectedAcyclicGraph DAG of the input workflow
+     * @return ActionGraph DAG of the input workflow, with the actions numbered in the order they are declared
      * @throws WorkflowGraphException
      */
     @SuppressWarnings("Duplicates")
-    public static DirectedAcyclicGraph<Action, DefaultEdge> buildInputGraph(Workflow workflow, Config config) throws WorkflowGraphException {
-        Map<String, Action> actionsByName = new LinkedHashMap<>();
-
-        // Add all the actions to a map of string -> action
-        for (Action a : workflow.getActions()) {
-            actionsByName.put(a.getName(), a);
-        }
+    public static ActionGraph buildInputGraph(Workflow workflow, Config config) throws WorkflowGraphException {
+        Map<String, Integer> actionsByName = new HashMap<>();
 
         // DAG of the workflow in its raw un-optimized state.
-        DirectedAcyclicGraph<Action, DefaultEdge> inputGraph = new DirectedAcyclicGraph<>(DefaultEdge.class);
+        ActionGraph.Builder inputGraph = new ActionGraph.Builder();
 
         // Add all the actions as vertices. At this point there are no connections within the graph, just vertices.
         for (Action a : workflow.getActions()) {
-            inputGraph.addVertex(a);
+            if (actionsByName.put(a.getName(), inputGraph.addAction(a)) != null) {
+                throw new WorkflowGraphException("Duplicate action name " + a.getName());
+            }
         }
 
         // We need to traverse a second time so all the vertices are present when adding edges
         for (Action a : workflow.getActions()) {
             if (a.getDependencies() != null) {
                 for (String d : a.getDependencies()) {
-                    Action source = actionsByName.get(d);
+                    Integer source = actionsByName.get(d);
                     if (source == null) {
                         throw new WorkflowGraphException("Missing action for dependency " + d);
                     }
 
                     // Add the edge between the dep and the action
-                    try {
-                        inputGraph.addDagEdge(source, a);
-                    } catch (DirectedAcyclicGraph.CycleFoundException e) {
-                        throw new WorkflowGraphException("Cycle found while building original graph", e);
-                    }
+                    inputGraph.addEdge(source, actionsByName.get(a.getName()));
                 }
             }
         }
 
-        return inputGraph;
+        return inputGraph.build();
     }
 
     /**
      * Build a workflow graph from the workflow definition, inserting fork/join pairs as appropriate for parallel
+     * The fork/joins are placed level by level unless the workflow chooses another mode
      *
+     * @param inputGraph
+     * @param workflow Arbiter Workflow object
+     * @param config Arbiter Config object
+     * @return ActionGraph DAG of the workflow
+     * @throws WorkflowGraphException
+     */
+    public static ActionGraph buildWorkflowGraph(ActionGraph inputGraph, Workflow workflow, Config config) throws WorkflowGraphException {
+        return buildWorkflowGraph(inputGraph, workflow, config, ForkJoinMode.forWorkflow(workflow, ForkJoinMode.LEVELS));
+    }
+
+    /**
+     * Build a workflow graph from the workflow definition, inserting fork/join pairs as appropriate for parallel
      *
      * @param inputGraph
      * @param workflow Arbiter Workflow object
      * @param config Arbiter Config object
-     * @return DirectedAcyclicGraph DAG of the workflow
+     * @param mode How to place the fork/join pairs
+     * @return ActionGraph DAG of the workflow
      * @throws WorkflowGraphException
      */
-    public static DirectedAcyclicGraph<Action, DefaultEdge> buildWorkflowGraph(DirectedAcyclicGraph<Action, DefaultEdge> inputGraph, Workflow workflow, Config config) throws WorkflowGraphException {
-        forkCount = 0;
-
-        try {
-            // Process the graph into its properly connected and organized structure.
-            val workflowGraphTriple = processSubcomponents(inputGraph);
-
-            // Final DAG we will be returning
-            DirectedAcyclicGraph<Action, DefaultEdge> workflowGraph = workflowGraphTriple.getLeft();
-            Action startTransitionNode = workflowGraphTriple.getMiddle();
-            Action endTransitionNode = workflowGraphTriple.getRight();
-
-            // These are the standard control flow nodes that must be present in every workflow
-            Action start = Action.getStartAction();
-            workflowGraph.addVertex(start);
-            workflowGraph.addDagEdge(start, startTransitionNode);
-
-            Action end = Action.getEndAction();
-            workflowGraph.addVertex(end);
-
-            setCustomErrorHandlerIfPresent(workflow, workflowGraph, endTransitionNode, end);
-
-            // The kill node will be used as the error transition when generating the XML as appropriate
-            // There is no need to add any edges to it now
-            if (config.getKillMessage() != null && config.getKillName() != null) {
-                workflowGraph.addVertex(Action.getKillAction(
-                  config.getKillName(),
-                  interpolate(config.getKillMessage(), ImmutableMap.of("name", workflow.getName()), null)
-                ));
-            }
+    public static ActionGraph buildWorkflowGraph(ActionGraph inputGraph, Workflow workflow, Config config, ForkJoinMode mode) throws WorkflowGraphException {
+        return buildLayout(inputGraph, workflow, config, mode).getWorkflowGraph();
+    }
 
-            return workflowGraph;
-        } catch (DirectedAcyclicGraph.CycleFoundException e) {
-            throw new WorkflowGraphException("Cycle found while generating workflow", e);
+    /**
+     * Build a workflow graph from the workflow definition, inserting fork/join pairs as appropriate for parallel
+     * Along with the graph this gives the mode whose fork/joins were used and what was measured to choose them
+     *
+     * @param inputGraph The dependency graph of the workflow
+     * @param workflow Arbiter Workflow object
+     * @param config Arbiter Config object
+     * @param mode How to place the fork/join pairs
+     * @return The workflow graph and how it was chosen
+     * @throws WorkflowGraphException
+     */
+    public static ForkJoinLayout buildLayout(ActionGraph inputGraph, Workflow workflow, Config config, ForkJoinMode mode) throws WorkflowGraphException {
+        // Process the graph into its properly connected and organized structure.
+        ForkJoins forkJoins = buildForkJoins(inputGraph, config, mode, getMaxForkWidth(workflow, config));
+
+        // Final DAG we will be returning
+        ActionGraph.Builder workflowGraph = forkJoins.graph.getLeft();
+        Action startTransitionNode = forkJoins.graph.getMiddle();
+        Action endTransitionNode = forkJoins.graph.getRight();
+
+        // These are the standard control flow nodes that must be present in every workflow
+        Action start = Action.getStartAction();
+        workflowGraph.addAction(start);
+        workflowGraph.addEdge(start, startTransitionNode);
+
+        Action end = Action.getEndAction();
+        workflowGraph.addAction(end);
+
+        setCustomErrorHandlerIfPresent(workflow, workflowGraph, endTransitionNode, end);
+
+        // The kill node will be used as the error transition when generating the XML as appropriate
+        // There is no need to add any edges to it now
+        if (config.getKillMessage() != null && config.getKillName() != null) {
+            workflowGraph.addAction(Action.getKillAction(
+              config.getKillName(),
+              interpolate(config.getKillMessage(), ImmutableMap.of("name", workflow.getName()), null)
+            ));
         }
+
+        return new ForkJoinLayout(
+          workflowGraph.build(),
+          forkJoins.mode,
+          forkJoins.falseDependencies,
+          forkJoins.levelFalseDependencies,
+          forkJoins.makespan,
+          forkJoins.levelMakespan
+        );
     }
 
-    private static void setCustomErrorHandlerIfPresent(Workflow workflow, DirectedAcyclicGraph<Action, DefaultEdge> workflowGraph, Action endTransitionNode, Action end) throws DirectedAcyclicGraph.CycleFoundException {
-        if (workflow.getErrorHandler() != null) {
-            workflowGraph.addVertex(workflow.getErrorHandler());
-            workflowGraph.addDagEdge(workflow.getErrorHandler(), end);
-            workflowGraph.addDagEdge(endTransitionNode, workflow.getErrorHandler());
-        } else {
-            workflowGraph.addDagEdge(endTransitionNode, end);
+    /**
+     * Count the dependencies a workflow graph adds on top of the ones in its input graph
+     * These are pairs of actions where the workflow runs one after the other although the second does not depend on the first
+     *
+     * @param inputGraph The dependency graph of the workflow
+     * @param workflowGraph The workflow graph built from it
+     * @return The number of false dependencies in the workflow graph
+     */
+    public static long countFalseDependencies(ActionGraph inputGraph, ActionGraph workflowGraph) {
+        return countFalseDependencies(inputGraph, new TransitiveClosure(inputGraph), workflowGraph);
+    }
+
+    private static long countFalseDependencies(ActionGraph inputGraph, TransitiveClosure expected, ActionGraph workflowGraph) {
+        TransitiveClosure actual = new TransitiveClosure(workflowGraph);
+
+        // The workflow graph holds the same actions as the input graph, along with its control flow nodes
+        int[] actualIndices = new int[inputGraph.size()];
+        int[] expectedIndices = new int[workflowGraph.size()];
+        Arrays.fill(expectedIndices, -1);
+        for (int i = 0; i < inputGraph.size(); i++) {
+            actualIndices[i] = workflowGraph.indexOf(inputGraph.getAction(i));
+            expectedIndices[actualIndices[i]] = i;
         }
+
+        long count = 0;
+        for (int i = 0; i < expected.size(); i++) {
+            BitSet reached = actual.getDescendants(actualIndices[i]);
+            for (int j = reached.nextSetBit(0); j >= 0; j = reached.nextSetBit(j + 1)) {
+                int action = expectedIndices[j];
+                if (action >= 0 && !expected.getDescendants(i).get(action)) {
+                    count++;
+                }
+            }
+        }
+
+        return count;
     }
 
     /**
-     * Recursively insert fork/joins for connected subcomponents of a graph
+     * Gets the maximum number of paths a fork may start in a workflow
      *
-     * @param vertices The set of vertices to process
-     * @param parentGraph The parentGraph graph of these vertices
-     * @return DirectedAcyclicGraph A new graph containing all the given vertices with appropriate fork/join pairs inserted
+     * @param workflow Arbiter Workflow object, which may set its own maximum
+     * @param config Arbiter Config object
+     * @return The maximum set by the workflow, or else by the configuration, or null if forks are not limited
+     * @throws WorkflowGraphException If the maximum is not a positive number
+     */
+    public static Integer getMaxForkWidth(Workflow workflow, Config config) throws WorkflowGraphException {
+        Integer maxForkWidth = workflow.getMaxForkWidth() != null ? workflow.getMaxForkWidth() : config.getMaxForkWidth();
+        if (maxForkWidth != null && maxForkWidth < 1) {
+            throw new WorkflowGraphException("Invalid maximum fork width for workflow " + workflow.getName() + ": " + maxForkWidth);
+        }
+
+        return maxForkWidth;
+    }
+
+    /**
+     * Insert fork/joins into a graph in the given mode
+     *
+     * @param inputGraph The graph for which to insert fork/joins
+     * @param config Arbiter Config object
+     * @param mode How to place the fork/join pairs
+     * @param maxForkWidth The maximum number of paths of a fork, or null if forks are not limited
+     * @return The new graph with fork/join pairs inserted, with the mode that placed them and what was measured
      * @throws WorkflowGraphException
-     * @throws DirectedAcyclicGraph.CycleFoundException
      */
-    private static DirectedAcyclicGraph<Action, DefaultEdge> buildComponentGraph(Set<Action> vertices, DirectedAcyclicGraph<Action, DefaultEdge> parentGraph) throws WorkflowGraphException, DirectedAcyclicGraph.CycleFoundException {
-        DirectedAcyclicGraph<Action, DefaultEdge> subgraph = buildSubgraph(parentGraph, vertices);
-
-        // Start by pulling out the vertices with no incoming edges
-        // These can run in parallel in a fork-join
-        Set<Action> initialNodes = new LinkedHashSet<>();
-        for (Action vertex : subgraph.vertexSet()) {
-            if (subgraph.inDegreeOf(vertex) == 0) {
-                initialNodes.add(vertex);
-            }
+    private static ForkJoins buildForkJoins(ActionGraph inputGraph, Config config, ForkJoinMode mode, Integer maxForkWidth) throws WorkflowGraphException {
+        long[] durations = new long[inputGraph.size()];
+        for (int i = 0; i < inputGraph.size(); i++) {
+            durations[i] = getExpectedDuration(inputGraph.getAction(i), config);
         }
 
-        DirectedAcyclicGraph<Action, DefaultEdge> result = new DirectedAcyclicGraph<>(DefaultEdge.class);
-
-        if (initialNodes.isEmpty()) {
-            // This is a very odd case, but just in case we'll fail if it happens
-            throw new WorkflowGraphException("No nodes with inDegree = 0 found.  This shouldn't happen.");
-        } else if (initialNodes.size() == 1) {
-            // If there is only one node, we can't put it in a fork/join
-            // In this case we'll add just that vertex to the resulting graph
-            Action vertex = initialNodes.iterator().next();
-            result.addVertex(vertex);
-            // Remove the processed vertex so that we have new unprocessed subcomponents
-            subgraph.removeVertex(vertex);
-        } else {
-            // If there are multiple nodes, insert a fork/join pair to run them in parallel
-            Pair<Action, Action> forkJoin = addForkJoin(result);
-            Action fork = forkJoin.getLeft();
-            Action join = forkJoin.getRight();
-            for (Action vertex : initialNodes) {
-                result.addVertex(vertex);
-                result.addDagEdge(fork, vertex);
-                result.addDagEdge(vertex, join);
-                // Remove the processed vertex so that we have new unprocessed subcomponents
-                subgraph.removeVertex(vertex);
+        val levelGraphTriple = new WorkflowGraphBuilder().insertForkJoins(limitForkWidth(buildLevelTree(inputGraph), maxForkWidth, durations));
+        if (mode == ForkJoinMode.LEVELS) {
+            return new ForkJoins(levelGraphTriple, ForkJoinMode.LEVELS, null, null, null, null);
+        }
+
+        // The closure of the dependency graph is shared by the decomposition and the false dependency counts
+        TransitiveClosure closure = new TransitiveClosure(inputGraph);
+        ActionGraph levelGraph = levelGraphTriple.getLeft().build();
+        if (mode == ForkJoinMode.CRITICAL_PATH) {
+            // As with the series-parallel mode the cuts are greedy, so the level graph is kept if it is predicted to be faster
+            val criticalPathGraphTriple = new WorkflowGraphBuilder().insertForkJoins(
+              limitForkWidth(SeriesParallelDecomposer.decompose(inputGraph, closure, durations), maxForkWidth, durations)
+            );
+            ActionGraph criticalPathGraph = criticalPathGraphTriple.getLeft().build();
+            long criticalPathMakespan = predictMakespan(criticalPathGraph, config);
+            long levelMakespan = predictMakespan(levelGraph, config);
+            if (criticalPathMakespan > levelMakespan
+              || (criticalPathMakespan == levelMakespan
+                && countFalseDependencies(inputGraph, closure, criticalPathGraph) > countFalseDependencies(inputGraph, closure, levelGraph))) {
+                return new ForkJoins(levelGraphTriple, ForkJoinMode.LEVELS, null, null, levelMakespan, levelMakespan);
             }
+            return new ForkJoins(criticalPathGraphTriple, ForkJoinMode.CRITICAL_PATH, null, null, criticalPathMakespan, levelMakespan);
         }
 
-        // Now recursively process the graph with the processed nodes removed
-        Triple<DirectedAcyclicGraph<Action, DefaultEdge>, Action, Action> subComponentGraphTriple = processSubcomponents(subgraph);
-        DirectedAcyclicGraph<Action, DefaultEdge> subComponentGraph = subComponentGraphTriple.getLeft();
+        // The decomposition picks its cuts greedily, so on some graphs it ends up adding more false dependencies than
+        // the levels do, in which case the level graph is used instead
+        val seriesParallelGraphTriple = new WorkflowGraphBuilder().insertForkJoins(
+          limitForkWidth(SeriesParallelDecomposer.decompose(inputGraph, closure), maxForkWidth, durations)
+        );
+        long seriesParallelFalseDependencies = countFalseDependencies(inputGraph, closure, seriesParallelGraphTriple.getLeft().build());
+        long levelFalseDependencies = countFalseDependencies(inputGraph, closure, levelGraph);
+        if (seriesParallelFalseDependencies > levelFalseDependencies) {
+            return new ForkJoins(levelGraphTriple, ForkJoinMode.LEVELS, levelFalseDependencies, levelFalseDependencies, null, null);
+        }
+        return new ForkJoins(seriesParallelGraphTriple, ForkJoinMode.SERIES_PARALLEL, seriesParallelFalseDependencies, levelFalseDependencies, null, null);
+    }
 
-        // Having processed the subcomponents, we attach the "last" node of the graph created here to
-        // the "first" node of the subcomponent graph
-        Action noIncoming = subComponentGraphTriple.getMiddle();
-        Action noOutgoing = null;
+    /**
+     * Limit the width of the forks in a tree if a maximum is set
+     *
+     * @param root The tree to limit
+     * @param maxForkWidth The maximum number of paths of a fork, or null if forks are not limited
+     * @param durations The expected duration of every action in the dependency graph, by index
+     * @return The given tree
+     */
+    private static ForkJoinTree limitForkWidth(ForkJoinTree root, Integer maxForkWidth, long[] durations) {
+        if (maxForkWidth != null) {
+            ForkWidthLimiter.limit(root, maxForkWidth, durations);
+        }
+        return root;
+    }
 
-        for (Action vertex : result.vertexSet()) {
-            if (noOutgoing == null && result.outDegreeOf(vertex) == 0) {
-                noOutgoing = vertex;
-            }
+    /**
+     * Gets the expected duration of an action
+     *
+     * @param action The action
+     * @param config Arbiter Config object
+     * @return The expected duration set on the action, or else on its action type, or 0 if neither sets one
+     */
+    public static long getExpectedDuration(Action action, Config config) {
+        if (action.getExpectedDuration() != null) {
+            return action.getExpectedDuration();
         }
 
-        Graphs.addGraph(result, subComponentGraph);
-        if (noOutgoing != null && noIncoming != null && !noOutgoing.equals(noIncoming)) {
-            result.addDagEdge(noOutgoing, noIncoming);
+        ActionType actionType = action.getType() == null ? null : config.getActionTypeByName(action.getType());
+        if (actionType != null && actionType.getExpectedDuration() != null) {
+            return actionType.getExpectedDuration();
         }
-        return result;
+
+        return 0;
     }
 
     /**
-     * Processes all connected subcomponents of a given graph
+     * Predict how long a workflow takes to run from the expected durations of its actions
      *
-     * @param parentGraph The graph for which to process subcomponents
-     * @return A Triple with these elements - A new graph with fork/join pairs inserted, the "first" node in this graph, and the "last" node in this graph
-     * @throws WorkflowGraphException
-     * @throws DirectedAcyclicGraph.CycleFoundException
+     * @param workflowGraph The workflow graph
+     * @param config Arbiter Config object
+     * @return The length of the longest chain of expected durations through the graph
      */
-    private static Triple<DirectedAcyclicGraph<Action, DefaultEdge>, Action, Action> processSubcomponents(DirectedAcyclicGraph<Action, DefaultEdge> parentGraph) throws WorkflowGraphException, DirectedAcyclicGraph.CycleFoundException {
-        ConnectivityInspector<Action, DefaultEdge> inspector = new ConnectivityInspector<>(parentGraph);
-        List<Set<Action>> connectedComponents = inspector.connectedSets();
-
-        // Recursively process each connected subcomponent of the graph
-        List<DirectedAcyclicGraph<Action, DefaultEdge>> componentGraphs = new ArrayList<>(connectedComponents.size());
-        for (Set<Action> subComponent : connectedComponents) {
-            componentGraphs.add(buildComponentGraph(subComponent, parentGraph));
+    public static long predictMakespan(ActionGraph workflowGraph, Config config) {
+        long[] finish = new long[workflowGraph.size()];
+        long makespan = 0;
+
+        for (int vertex : workflowGraph.getTopologicalOrder()) {
+            long start = 0;
+            for (int i = 0; i < workflowGraph.inDegree(vertex); i++) {
+                start = Math.max(start, finish[workflowGraph.getPredecessor(vertex, i)]);
+            }
+            finish[vertex] = start + getExpectedDuration(workflowGraph.getAction(vertex), config);
+            makespan = Math.max(makespan, finish[vertex]);
         }
 
-        DirectedAcyclicGraph<Action, DefaultEdge> result = new DirectedAcyclicGraph<>(DefaultEdge.class);
-        for (DirectedAcyclicGraph<Action, DefaultEdge> subSubgraph : componentGraphs) {
-            Graphs.addGraph(result, subSubgraph);
+        return makespan;
+    }
+
+    private static void setCustomErrorHandlerIfPresent(Workflow workflow, ActionGraph.Builder workflowGraph, Action endTransitionNode, Action end) {
+        if (workflow.getErrorHandler() != null) {
+            workflowGraph.addAction(workflow.getErrorHandler());
+            workflowGraph.addEdge(workflow.getErrorHandler(), end);
+            workflowGraph.addEdge(endTransitionNode, workflow.getErrorHandler());
+        } else {
+            workflowGraph.addEdge(endTransitionNode, end);
         }
+    }
 
-        // If we have more than one subcomponent, we must insert a fork/join to run them in parallel
-        if (componentGraphs.size() > 1) {
-            Pair<Action, Action> forkJoin = addForkJoin(result);
-            Action fork = forkJoin.getLeft();
-            Action join = forkJoin.getRight();
-            for (DirectedAcyclicGraph<Action, DefaultEdge> subSubgraph : componentGraphs) {
-                for (Action vertex : subSubgraph.vertexSet()) {
-                    // Vertices with no incoming edges attach directly to the fork
-                    if (subSubgraph.inDegreeOf(vertex) == 0) {
-                        result.addDagEdge(fork, vertex);
-                    }
-                    // Vertices with no outgoing edges attach directly to the join
-                    if (subSubgraph.outDegreeOf(vertex) == 0) {
-                        result.addDagEdge(vertex, join);
-                    }
+    /**
+     * Turn a tree of series and parallel parts into a graph, inserting a fork/join pair for every parallel part
+     *
+     * @param root The tree to turn into a graph
+     * @return A Triple with these elements - A builder of a new graph with fork/join pairs inserted, the "first" node in this graph, and the "last" node in this graph
+     * @throws WorkflowGraphException
+     */
+    private Triple<ActionGraph.Builder, Action, Action> insertForkJoins(ForkJoinTree root) throws WorkflowGraphException {
+        // Fork/joins are numbered once everything inside them has been numbered
+        ForkJoinTree.walk(root, new ForkJoinTree.Visitor() {
+            @Override
+            public void enter(ForkJoinTree part) {
+            }
+
+            @Override
+            public void leave(ForkJoinTree part) {
+                if (part.needsForkJoin()) {
+                    part.setForkJoin(createForkJoin());
                 }
+                part.resolveEnds();
             }
+        });
+
+        if (root.getFirst() == null) {
+            throw new WorkflowGraphException("No actions found in workflow");
         }
 
-        // The graph will now have one node with no outgoing edges and one node with no incoming edges
-        // The node with no outgoing edges is the "last" node in the resulting graph
-        // The node with no incoming edges is the "first" node in the resulting graph
-        // These are pulled out specifically to make it easier to attach the resulting graph into another one
-        Action noOutgoing = null;
-        Action noIncoming = null;
+        // Vertices are numbered in the order the nodes are walked, so the graph lists them in topological order
+        final ActionGraph.Builder result = new ActionGraph.Builder();
+        final List<ForkJoinTree> parts = new ArrayList<>();
+        ForkJoinTree.walk(root, new ForkJoinTree.Visitor() {
+            @Override
+            public void enter(ForkJoinTree part) {
+                parts.add(part);
+                if (part.getAction() != null) {
+                    result.addAction(part.getAction());
+                } else if (part.getForkJoin() != null) {
+                    result.addAction(part.getForkJoin().getLeft());
+                }
+            }
 
-        for (Action vertex : result.vertexSet()) {
-            if (noIncoming == null && result.inDegreeOf(vertex) == 0) {
-                noIncoming = vertex;
+            @Override
+            public void leave(ForkJoinTree part) {
+                if (part.getForkJoin() != null) {
+                    result.addAction(part.getForkJoin().getRight());
+                }
             }
+        });
+
+        for (ForkJoinTree part : parts) {
+            addPartEdges(part, result);
         }
 
-        for (Action vertex : result.vertexSet()) {
-            if (noOutgoing == null && result.outDegreeOf(vertex) == 0) {
-                noOutgoing = vertex;
+        return Triple.of(result, root.getFirst(), root.getLast());
+    }
+
+    /**
+     * Add the edges between the children of a part
+     *
+     * @param part The part for which to add edges
+     * @param result The graph to which to add the edges
+     */
+    private static void addPartEdges(ForkJoinTree part, ActionGraph.Builder result) {
+        if (part.getForkJoin() != null) {
+            for (ForkJoinTree child : part.getChildren()) {
+                if (child.getFirst() != null) {
+                    result.addEdge(part.getForkJoin().getLeft(), child.getFirst());
+                }
+            }
+            for (ForkJoinTree child : part.getChildren()) {
+                if (child.getLast() != null) {
+                    result.addEdge(child.getLast(), part.getForkJoin().getRight());
+                }
             }
+            return;
         }
 
-        return Triple.of(result, noIncoming, noOutgoing);
+        // Parts without a fork/join have at most one non-empty child unless they run their children in series
+        Action previous = null;
+        for (ForkJoinTree child : part.getChildren()) {
+            if (child.getFirst() == null) {
+                continue;
+            }
+            if (previous != null) {
+                result.addEdge(previous, child.getFirst());
+            }
+            previous = child.getLast();
+        }
     }
 
     /**
-     * Build a subgraph of a parentGraph graph given a set of vertices
-     * This is a new object and not a view on the parentGraph graph
+     * Group the vertices of a graph into nested parts by level, in a single pass
      *
-     * @param parentGraph The parentGraph component for the new subgraph to start at
-     * @param vertices The set of actions (vertices) making up the subgraph
-     * @return DirectedAcyclicGraph A new graph containing only the given vertices
+     * The level of an action is the length of the longest dependency chain leading to it
+     * A block is a connected component of the actions with a level of at least k, for some k
+     * The actions of a block at level k run first, in a fork/join if there are several of them, and are followed by
+     * the blocks at level k + 1 it contains, in a fork/join if there are several of them
+     * The blocks are found with a union-find over the levels from the deepest up, so this runs in near linear time
+     *
+     * @param inputGraph The graph to group
+     * @return A parallel part holding the block of every connected component of the graph
      */
-    private static DirectedAcyclicGraph<Action, DefaultEdge> buildSubgraph(DirectedAcyclicGraph<Action, DefaultEdge> parentGraph, Set<Action> vertices) throws DirectedAcyclicGraph.CycleFoundException {
-        // Create a new DAG to serve as the subgraph
-        DirectedAcyclicGraph<Action, DefaultEdge> subgraph = new DirectedAcyclicGraph<>(DefaultEdge.class);
+    private static ForkJoinTree buildLevelTree(ActionGraph inputGraph) {
+        int size = inputGraph.size();
+
+        // Every dependency comes before its dependents in topological order, so it has its level first
+        int[] levels = new int[size];
+        int maxLevel = -1;
+        for (int vertex : inputGraph.getTopologicalOrder()) {
+            int level = 0;
+            for (int i = 0; i < inputGraph.inDegree(vertex); i++) {
+                level = Math.max(level, levels[inputGraph.getPredecessor(vertex, i)] + 1);
+            }
+            levels[vertex] = level;
+            maxLevel = Math.max(maxLevel, level);
+        }
 
-        // Add all the vertices for this subgraph
-        for (Action vertex : vertices) {
-            subgraph.addVertex(vertex);
+        // The actions of each level, one level after another, keeping their declaration order within each level
+        int[] levelStarts = new int[maxLevel + 2];
+        for (int vertex = 0; vertex < size; vertex++) {
+            levelStarts[levels[vertex] + 1]++;
+        }
+        for (int level = 0; level <= maxLevel; level++) {
+            levelStarts[level + 1] += levelStarts[level];
         }
+        int[] byLevel = new int[size];
+        int[] nextInLevel = Arrays.copyOf(levelStarts, maxLevel + 1);
+        for (int vertex = 0; vertex < size; vertex++) {
+            byLevel[nextInLevel[levels[vertex]]++] = vertex;
+        }
+
+        UnionFind components = new UnionFind(size);
+        Block[] blocksByRoot = new Block[size];
+        List<Block> deeperBlocks = new ArrayList<>();
 
-        // All vertices must exist in the graph before any edges can be added
-        for (Action vertex : vertices) {
-            // Grab the parentGraph's edges between the parentGraph and this vertex and then add an edge in the subgraph to
-            // match what the parentGraph has.
-            for (DefaultEdge edge : parentGraph.edgesOf(vertex)) {
-                subgraph.addDagEdge(parentGraph.getEdgeSource(edge), parentGraph.getEdgeTarget(edge), edge);
+        for (int level = maxLevel; level >= 0; level--) {
+            // Every dependent of an action at this level has a higher level, so it is already in a component
+            for (int i = levelStarts[level]; i < levelStarts[level + 1]; i++) {
+                int vertex = byLevel[i];
+                for (int j = 0; j < inputGraph.outDegree(vertex); j++) {
+                    components.union(vertex, inputGraph.getSuccessor(vertex, j));
+                }
             }
+
+            List<Block> levelBlocks = new ArrayList<>();
+            for (int i = levelStarts[level]; i < levelStarts[level + 1]; i++) {
+                int vertex = byLevel[i];
+                int root = components.find(vertex);
+                Block block = blocksByRoot[root];
+                if (block == null || block.level != level) {
+                    block = new Block(level, vertex);
+                    blocksByRoot[root] = block;
+                    levelBlocks.add(block);
+                }
+                block.initialNodes.add(ForkJoinTree.leaf(inputGraph.getAction(vertex), vertex));
+            }
+
+            // Each block one level deeper has been merged into exactly one of the blocks at this level
+            for (Block deeperBlock : deeperBlocks) {
+                blocksByRoot[components.find(deeperBlock.representative)].nested.add(deeperBlock.part);
+            }
+
+            deeperBlocks = levelBlocks;
         }
 
-        return subgraph;
+        ForkJoinTree root = ForkJoinTree.parallel();
+        for (Block block : deeperBlocks) {
+            root.add(block.part);
+        }
+        return root;
     }
 
     /**
-     * Create a fork/join pair and add it to a graph
+     * Create a fork/join pair
      *
-     * @param parentGraph The graph to which to add the fork/join actions
      * @return A Pair of actions. The left action is the fork and the right action is the join
      */
-    private static Pair<Action, Action> addForkJoin(DirectedAcyclicGraph<Action, DefaultEdge> parentGraph) {
+    private Pair<Action, Action> createForkJoin() {
         Action fork = new Action();
         fork.setName("fork-" + forkCount);
         fork.setType("fork");
@@ -333,9 +529,86 @@ public class WorkflowGraphBuilder {
         join.setName("join-" + forkCount);
         join.setType("join");
         forkCount++;
-        parentGraph.addVertex(fork);
-        parentGraph.addVertex(join);
 
         return Pair.of(fork, join);
     }
+
+    /**
+     * A connected component of the actions at or below some level
+     * Its actions at that level run first and are followed by the components at the next level it contains
+     */
+    private static class Block {
+        private final int level;
+        private final int representative;
+        private final ForkJoinTree initialNodes = ForkJoinTree.parallel();
+        private final ForkJoinTree nested = ForkJoinTree.parallel();
+        private final ForkJoinTree part = ForkJoinTree.series().add(initialNodes).add(nested);
+
+        Block(int level, int representative) {
+            this.level = level;
+            this.representative = representative;
+        }
+    }
+
+    /**
+     * The fork/joins placed for a workflow, with the mode that placed them and what was measured to choose them
+     */
+    private static class ForkJoins {
+        private final Triple<ActionGraph.Builder, Action, Action> graph;
+        private final ForkJoinMode mode;
+        private final Long falseDependencies;
+        private final Long levelFalseDependencies;
+        private final Long makespan;
+        private final Long levelMakespan;
+
+        ForkJoins(Triple<ActionGraph.Builder, Action, Action> graph, ForkJoinMode mode, Long falseDependencies, Long levelFalseDependencies, Long makespan, Long levelMakespan) {
+            this.graph = graph;
+            this.mode = mode;
+            this.falseDependencies = falseDependencies;
+            this.levelFalseDependencies = levelFalseDependencies;
+            this.makespan = makespan;
+            this.levelMakespan = levelMakespan;
+        }
+    }
+
+    /**
+     * Disjoint sets over vertex indices with path halving and union by size
+     */
+    private static class UnionFind {
+        private final int[] parent;
+        private final int[] size;
+
+        UnionFind(int count) {
+            parent = new int[count];
+            size = new int[count];
+            for (int i = 0; i < count; i++) {
+                parent[i] = i;
+                size[i] = 1;
+            }
+        }
+
+        int find(int vertex) {
+            int current = vertex;
+            while (parent[current] != current) {
+                parent[current] = parent[parent[current]];
+                current = parent[current];
+            }
+            return current;
+        }
+
+        void union(int a, int b) {
+            int rootA = find(a);
+            int rootB = find(b);
+            if (rootA == rootB) {
+                return;
+            }
+            if (size[rootA] < size[rootB]) {
+                parent[rootA] = rootB;
+                size[rootB] += size[rootA];
+            } else {
+                parent[rootB] = rootA;
+                size[rootA] += size[rootB];
+            }
+        }
+    }
 }
@@ -0,0 +1,208 @@
+package net.achalaggarwal.arbiter.workflow;
+
+import net.achalaggarwal.arbiter.Action;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Everything needed to write a workflow graph, worked out in linear time before the XML is written
+ * This holds the first node of every type, the order in which the nodes are written, the OK transition of every node
+ * and the join of the fork/join pair enclosing every node
+ * Nodes are referred to by their index in the graph
+ */
+class WorkflowGraphIndex {
+    // The states of a node during the depth first walk
+    private static final byte UNSEEN = 0;
+    private static final byte WAITING = 1;
+    private static final byte VISITED = 2;
+
+    private final ActionGraph workflowGraph;
+    private final Map<String, Action> firstByType = new HashMap<>();
+    private final String[] enclosingJoins;
+    private final int[] transitions;
+    private int[] nodes = new int[0];
+
+    /**
+     * Index a workflow graph
+     *
+     * @param workflowGraph The graph to index, with fork/joins and the start and end nodes already inserted
+     */
+    WorkflowGraphIndex(ActionGraph workflowGraph) {
+        this.workflowGraph = workflowGraph;
+        enclosingJoins = new String[workflowGraph.size()];
+        transitions = new int[workflowGraph.size()];
+        Arrays.fill(transitions, -1);
+
+        for (int i = 0; i < workflowGraph.size(); i++) {
+            Action vertex = workflowGraph.getAction(i);
+            if (!firstByType.containsKey(vertex.getType())) {
+                firstByType.put(vertex.getType(), vertex);
+            }
+        }
+
+        indexEnclosingJoins();
+
+        Action start = getActionByType("start");
+        if (start == null) {
+            return;
+        }
+
+        nodes = walkDepthFirst(workflowGraph.indexOf(start));
+        for (int node : nodes) {
+            transitions[node] = findTransition(node);
+        }
+    }
+
+    /**
+     * Gets the first node in the graph of a given type
+     * This is intended for use when only one node of the given type exists
+     *
+     * @param type The type of node to find
+     * @return The node of the given type, or null if none exists
+     */
+    Action getActionByType(String type) {
+        return firstByType.get(type);
+    }
+
+    /**
+     * @return The nodes reachable from the start node, in the order they are written. This must not be modified
+     */
+    int[] getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Gets the OK transition for a node
+     *
+     * @param node The node, which must be reachable from the start node
+     * @return The node to transition to, or null for end, kill and fork nodes
+     */
+    Action getTransition(int node) {
+        return transitions[node] < 0 ? null : workflowGraph.getAction(transitions[node]);
+    }
+
+    /**
+     * Gets the nodes a fork starts
+     *
+     * @param fork The fork
+     * @return The names of the nodes on the paths of the fork
+     */
+    List<String> getForkPaths(int fork) {
+        List<String> paths = new ArrayList<>(workflowGraph.outDegree(fork));
+        for (int i = 0; i < workflowGraph.outDegree(fork); i++) {
+            paths.add(workflowGraph.getAction(workflowGraph.getSuccessor(fork, i)).getName());
+        }
+        return paths;
+    }
+
+    /**
+     * Finds the enclosing fork/join pair for a node
+     * This is used to set the error transition for nodes inside a fork/join
+     *
+     * @param node The node for which to find the enclosing fork/join pair
+     * @return The name of the join for the fork/join pair enclosing the given node, or null if the node is not inside a fork/join
+     */
+    String getEnclosingForkJoinName(int node) {
+        return enclosingJoins[node];
+    }
+
+    /**
+     * Visit the nodes reachable from the start node depth first, in the order the nodes have always been written in
+     * The successors of a node are pushed in the order of their edges, and one that is still waiting to be visited is
+     * pushed again, so it is visited from its latest predecessor and its earlier entry is skipped
+     *
+     * @param start The start node
+     * @return The nodes in the order they are visited
+     */
+    private int[] walkDepthFirst(int start) {
+        byte[] states = new byte[workflowGraph.size()];
+        int[] stack = new int[workflowGraph.getEdgeCount() + 1];
+        int stackSize = 0;
+        int[] order = new int[workflowGraph.size()];
+        int count = 0;
+
+        stack[stackSize++] = start;
+        states[start] = WAITING;
+        while (stackSize > 0) {
+            int node = stack[--stackSize];
+            if (states[node] != WAITING) {
+                continue;
+            }
+
+            states[node] = VISITED;
+            order[count++] = node;
+            for (int i = 0; i < workflowGraph.outDegree(node); i++) {
+                int successor = workflowGraph.getSuccessor(node, i);
+                if (states[successor] != VISITED) {
+                    states[successor] = WAITING;
+                    stack[stackSize++] = successor;
+                }
+            }
+        }
+
+        return Arrays.copyOf(order, count);
+    }
+
+    /**
+     * Work out the enclosing fork/join pair of every node in a single pass over the graph in topological order
+     *
+     * Fork/joins are properly nested, so a node is in the same fork/join as its first predecessor, unless that
+     * predecessor is a fork, in which case the node is inside that fork's pair, or a join, in which case the node is
+     * in the pair enclosing that join's fork
+     */
+    private void indexEnclosingJoins() {
+        // The pair enclosing each fork, keyed by the name of the fork's join
+        Map<String, String> enclosingByJoin = new HashMap<>();
+
+        for (int node : workflowGraph.getTopologicalOrder()) {
+            Action action = workflowGraph.getAction(node);
+
+            String enclosingJoin;
+            if (action.getType().equals("join")) {
+                enclosingJoin = enclosingByJoin.get(action.getName());
+            } else if (workflowGraph.inDegree(node) == 0 || workflowGraph.outDegree(node) == 0) {
+                enclosingJoin = null;
+            } else {
+                int predecessor = workflowGraph.getPredecessor(node, 0);
+                Action predecessorAction = workflowGraph.getAction(predecessor);
+                enclosingJoin = predecessorAction.getType().equals("fork") ? getJoinName(predecessorAction) : enclosingJoins[predecessor];
+            }
+
+            enclosingJoins[node] = enclosingJoin;
+            if (action.getType().equals("fork")) {
+                enclosingByJoin.put(getJoinName(action), enclosingJoin);
+            }
+        }
+    }
+
+    private static String getJoinName(Action fork) {
+        return fork.getName().replace("fork", "join");
+    }
+
+    /**
+     * Gets the OK transition for a node from the graph
+     *
+     * @param node The node for which to get the transition
+     * @return The OK transition for the given node, or -1 if it has none
+     */
+    private int findTransition(int node) {
+        // end and kill nodes do not transition at all
+        // forks have multiple transitions and are handled specially
+        String type = workflowGraph.getAction(node).getType();
+        if (type.equals("end") || type.equals("kill") || type.equals("fork")) {
+            return -1;
+        }
+
+        // This would be a very odd case, as only forks can have multiple transitions
+        // This should be impossible, but just in case we catch it and throw an exception
+        if (workflowGraph.outDegree(node) != 1) {
+            throw new RuntimeException("Multiple transitions found for action " + workflowGraph.getAction(node).getName());
+        }
+
+        return workflowGraph.getSuccessor(node, 0);
+    }
+}
@@ -4,87 +4,120 @@ import com.google.common.collect.ImmutableMap;
 import net.achalaggarwal.arbiter.Action;
 import net.achalaggarwal.arbiter.ConditionalKill;
 import net.achalaggarwal.arbiter.config.ActionType;
+import net.achalaggarwal.arbiter.util.IncludeExternalizer;
 import net.achalaggarwal.arbiter.util.NodeGen;
+import net.achalaggarwal.arbiter.util.XmlWriter;
 import net.achalaggarwal.arbiter.workflow.Node;
-import org.apache.commons.lang3.tuple.Pair;
-import org.xembly.Directives;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
-import static net.achalaggarwal.arbiter.util.FileArgumentInterpolator.interpolateFileVars;
+import static net.achalaggarwal.arbiter.util.FileArgumentInterpolator.interpolateFileVarsForStreaming;
 import static net.achalaggarwal.arbiter.util.NamedArgumentInterpolator.interpolate;
 
 public class ActionNode extends Node {
-  public static final String ARBITER_COMMENT_TAG = "ARBITER-COMMENT";
   private Action self = null;
   private ActionType type = null;
   private Action transition = null;
   private Action errorTransition;
   private String enclosingForkJoinName;
   private File workflowFile;
+  private Set<File> includedFiles;
+  private IncludeExternalizer externalizer;
 
   public ActionNode(Action self, ActionType type, Action transition, Action errorTransition, String enclosingForkJoinName, File workflowFile) {
+    this(self, type, transition, errorTransition, enclosingForkJoinName, workflowFile, null);
+  }
+
+  public ActionNode(Action self, ActionType type, Action transition, Action errorTransition, String enclosingForkJoinName, File workflowFile, Set<File> includedFiles) {
+    this(self, type, transition, errorTransition, enclosingForkJoinName, workflowFile, includedFiles, null);
+  }
+
+  public ActionNode(Action self, ActionType type, Action transition, Action errorTransition, String enclosingForkJoinName, File workflowFile, Set<File> includedFiles, IncludeExternalizer externalizer) {
     this.self = self;
     this.type = type;
     this.transition = transition;
     this.errorTransition = errorTransition;
     this.enclosingForkJoinName = enclosingForkJoinName;
     this.workflowFile = workflowFile;
+    this.includedFiles = includedFiles;
+    this.externalizer = externalizer;
   }
 
   @Override
-  public Directives buildNode() {
-    Directives directives = new Directives();
-
-    addSwitchIfRequired(self, directives, transition);
+  public void buildNode(XmlWriter writer) throws IOException {
+    addSwitchIfRequired(self, writer, transition);
 
     if (self.getComment() != null) {
-      directives
-        .add(ARBITER_COMMENT_TAG)
-        .set(self.getComment())
-        .up();
+      writer.comment(self.getComment());
     }
 
-    directives
+    writer
       .add("action")
       .attr("name", self.getActualName());
 
-    setAttIfNotNull(directives, "cred", self.getCred(), type.getCred());
-    setAttIfNotNull(directives, "retry-max", self.getRetryMax(), type.getRetryMax());
-    setAttIfNotNull(directives, "retry-interval", self.getRetryInterval(), type.getRetryInterval());
+    setAttIfNotNull(writer, "cred", self.getCred(), type.getCred());
+    setAttIfNotNull(writer, "retry-max", self.getRetryMax(), type.getRetryMax());
+    setAttIfNotNull(writer, "retry-interval", self.getRetryInterval(), type.getRetryInterval());
 
-    directives.add(type.getTag());
+    writer.add(type.getTag());
 
     if (type.getXmlns() != null) {
-      directives.attr("xmlns", type.getXmlns());
+      writer.attr("xmlns", type.getXmlns());
     }
 
     PrepareNode prepareNode = new PrepareNode(self, type);
-    addElemsIfPresent(self, directives);
+    addElemsIfPresent(self, writer);
 
     // There is an outer action tag and an inner tag corresponding to the action type
-    Map<String, List<String>> interpolated = interpolateFileVars(
+    Set<String> usedListArgs = new HashSet<>();
+    List<String> fileReferences = new ArrayList<>();
+    Map<String, List<Object>> interpolated = interpolateFileVarsForStreaming(
       workflowFile.getParent(),
-      interpolate(type.getDefaultArgs(), self.getNamedArgs(), type.getDefaultInterpolations(), self.getPositionalArgs())
+      interpolate(type.getDefaultArgs(), self.getNamedArgs(), type.getDefaultInterpolations(), self.getPositionalArgs(), usedListArgs),
+      includedFiles,
+      externalizer,
+      fileReferences
     );
 
+    // Positional args that were interpolated into the default args are not added again
+    Map<String, List<String>> positional = self.getPositionalArgs();
+    if (!usedListArgs.isEmpty() || !fileReferences.isEmpty()) {
+      positional = positional == null ? new LinkedHashMap<String, List<String>>() : new LinkedHashMap<>(positional);
+      positional.keySet().removeAll(usedListArgs);
+    }
+
+    // Externalized files are shipped with the other file elements, after the elements that must come before them
+    if (!fileReferences.isEmpty()) {
+      List<String> files = new ArrayList<>();
+      if (positional.get(IncludeExternalizer.FILE_ELEMENT) != null) {
+        files.addAll(positional.get(IncludeExternalizer.FILE_ELEMENT));
+      }
+      files.addAll(fileReferences);
+      positional.put(IncludeExternalizer.FILE_ELEMENT, files);
+    }
+
     Map<String, String> mergedConfigurationProperties = new HashMap<>(type.getProperties());
     if (self.getProperties() != null) {
       mergedConfigurationProperties.putAll(self.getProperties());
     }
-    NodeGen.addInnerActionElements(mergedConfigurationProperties, type.getConfigurationPosition(), directives, interpolated, self.getPositionalArgs(), prepareNode, type.getPreparePosition());
-    directives.up();
+    // An action type that does not set a position places the element first
+    int configurationPosition = type.getConfigurationPosition() == null ? 0 : type.getConfigurationPosition();
+    int preparePosition = type.getPreparePosition() == null ? 0 : type.getPreparePosition();
+    NodeGen.addInnerActionElements(mergedConfigurationProperties, configurationPosition, writer, interpolated, positional, prepareNode, preparePosition);
+    writer.up();
 
     String okTransitionName = self.getForceOk() != null ? self.getForceOk() : transition.getName();
 
-    Pair<String, Directives> transitionDirectivePair = addConditionalKills(self, okTransitionName);
-
-    directives.add("ok")
-      .attr("to", transitionDirectivePair.getLeft())
+    writer.add("ok")
+      .attr("to", getConditionalKillsTransitionName(self, okTransitionName))
       .up();
 
     // We allow forcing a particular error transition regardless of other considerations
@@ -95,18 +128,16 @@ public class ActionNode extends Node {
     if (enclosingForkJoinName != null) {
       errorTransitionName = interpolatedForceError != null ? interpolatedForceError : enclosingForkJoinName;
     }
-    directives.add("error")
+    writer.add("error")
       .attr("to", errorTransitionName)
       .up();
 
-    directives.up();
-
-    directives.append(transitionDirectivePair.getRight());
+    writer.up();
 
-    return directives;
+    addConditionalKills(self, okTransitionName, writer);
   }
 
-  private void addSwitchIfRequired(Action action, Directives directives, Action transition) {
+  private void addSwitchIfRequired(Action action, XmlWriter writer, Action transition) throws IOException {
     if (action.getOnlyIf() == null) {
       return;
     }
@@ -114,19 +145,19 @@ public class ActionNode extends Node {
     new SwitchNode(
       action,
       action.getForceOk() != null ? action.getForceOk() : transition.getName()
-    ).appendTo(directives);
+    ).appendTo(writer);
   }
 
-  private void setAttIfNotNull(Directives directives, String attrName, Object... attrValues) {
+  private void setAttIfNotNull(XmlWriter writer, String attrName, Object... attrValues) {
     for (Object attrValue : attrValues) {
       if (attrValue != null) {
-        directives.attr(attrName, attrValue.toString());
+        writer.attr(attrName, attrValue.toString());
         return;
       }
     }
   }
 
-  private void addElemsIfPresent(Action action, Directives directives) {
+  private void addElemsIfPresent(Action action, XmlWriter writer) throws IOException {
     LinkedHashMap<String, LinkedHashMap<String, String>> actionElem = action.getElem();
 
     if (actionElem == null) {
@@ -134,22 +165,35 @@ public class ActionNode extends Node {
     }
 
     for (String elem : actionElem.keySet()) {
-      directives
+      writer
         .add(elem);
 
       for (String attr : actionElem.get(elem).keySet()) {
-        directives.attr(attr, actionElem.get(elem).get(attr));
+        writer.attr(attr, actionElem.get(elem).get(attr));
       }
 
-      directives.up();
+      writer.up();
     }
   }
 
-  private Pair<String, Directives> addConditionalKills(Action action, String defaultTransitionName) {
-    Directives directives = new Directives();
+  /**
+   * Gets the OK transition of an action, taking its conditional kills into account
+   *
+   * @param action The action
+   * @param defaultTransitionName The transition to use if none of the kill conditions hold
+   * @return The name of the decision node for the conditional kills, or defaultTransitionName if there are none
+   */
+  private String getConditionalKillsTransitionName(Action action, String defaultTransitionName) {
+    if (action.getKillIf() == null || action.getKillIf().isEmpty()) {
+      return defaultTransitionName;
+    }
 
+    return "ki-" + action.getActualName();
+  }
+
+  private void addConditionalKills(Action action, String defaultTransitionName, XmlWriter writer) throws IOException {
     if (action.getKillIf() == null || action.getKillIf().isEmpty()) {
-      return Pair.of(defaultTransitionName, directives);
+      return;
     }
 
     int i = 0;
@@ -161,12 +205,11 @@ public class ActionNode extends Node {
       killNodes.put(killNodeName, conditionalKill.getMessage());
     }
 
-    String decisionName = "ki-" + action.getActualName();
     new SwitchNode(
-      decisionName,
+      getConditionalKillsTransitionName(action, defaultTransitionName),
       killNodesCases,
       defaultTransitionName
-    ).appendTo(directives);
+    ).appendTo(writer);
 
     for (final Map.Entry<String, String> killNode : killNodes.entrySet()) {
       new KillNode(
@@ -174,9 +217,7 @@ public class ActionNode extends Node {
           setName(killNode.getKey());
           setProperty("message", killNode.getValue());
         } }
-      ).appendTo(directives);
+      ).appendTo(writer);
     }
-
-    return Pair.of(decisionName, directives);
   }
 }
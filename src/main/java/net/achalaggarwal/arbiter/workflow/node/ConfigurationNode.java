@@ -1,8 +1,9 @@
 package net.achalaggarwal.arbiter.workflow.node;
 
+import net.achalaggarwal.arbiter.util.XmlWriter;
 import net.achalaggarwal.arbiter.workflow.Node;
-import org.xembly.Directives;
 
+import java.io.IOException;
 import java.util.Map;
 
 public class ConfigurationNode extends Node {
@@ -18,19 +19,18 @@ public class ConfigurationNode extends Node {
   }
 
   @Override
-  public Directives buildNode() {
-    Directives directives = new Directives();
+  public void buildNode(XmlWriter writer) throws IOException {
     if (properties == null || properties.isEmpty()) {
-      return directives;
+      return;
     }
 
-    directives.add(enclosingTag);
+    writer.add(enclosingTag);
     for (String attrName : enclosingTagAttr.keySet()) {
-      directives.attr(attrName, enclosingTagAttr.get(attrName));
+      writer.attr(attrName, enclosingTagAttr.get(attrName));
     }
 
     for (Map.Entry<String, String> entry : properties.entrySet()) {
-      directives.add("property")
+      writer.add("property")
         .add("name")
         .set(entry.getKey())
         .up()
@@ -40,6 +40,6 @@ public class ConfigurationNode extends Node {
         .up();
     }
 
-    return directives.up();
+    writer.up();
   }
 }
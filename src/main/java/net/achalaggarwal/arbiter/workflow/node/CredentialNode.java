@@ -1,9 +1,10 @@
 package net.achalaggarwal.arbiter.workflow.node;
 
 import net.achalaggarwal.arbiter.config.Credential;
+import net.achalaggarwal.arbiter.util.XmlWriter;
 import net.achalaggarwal.arbiter.workflow.Node;
-import org.xembly.Directives;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 
@@ -15,10 +16,8 @@ public class CredentialNode extends Node {
   }
 
   @Override
-  public Directives buildNode() {
-    Directives directives = new Directives();
-
-    directives.add("credentials");
+  public void buildNode(XmlWriter writer) throws IOException {
+    writer.add("credentials");
 
     for (final Credential credential : credentials) {
       HashMap<String, String> attributes = new HashMap<String, String>() { {
@@ -27,9 +26,9 @@ public class CredentialNode extends Node {
       } };
 
       new ConfigurationNode("credential", attributes, credential.getProperties())
-        .appendTo(directives);
+        .appendTo(writer);
     }
 
-    return directives.up();
+    writer.up();
   }
 }
@@ -1,8 +1,10 @@
 package net.achalaggarwal.arbiter.workflow.node;
 
 import net.achalaggarwal.arbiter.Action;
+import net.achalaggarwal.arbiter.util.XmlWriter;
 import net.achalaggarwal.arbiter.workflow.Node;
-import org.xembly.Directives;
+
+import java.io.IOException;
 
 public class EndNode extends Node {
   private Action self = null;
@@ -12,10 +14,10 @@ public class EndNode extends Node {
   }
 
   @Override
-  public Directives buildNode() {
-    return new Directives()
+  public void buildNode(XmlWriter writer) throws IOException {
+    writer
       .add("end")
       .attr("name", self.getName())
-      ;
+      .up();
   }
 }
@@ -1,8 +1,9 @@
 package net.achalaggarwal.arbiter.workflow.node;
 
+import net.achalaggarwal.arbiter.util.XmlWriter;
 import net.achalaggarwal.arbiter.workflow.Node;
-import org.xembly.Directives;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -19,18 +20,16 @@ public class ForkNode extends Node {
   }
 
   @Override
-  public Directives buildNode() {
-    Directives directives = new Directives();
-
-    directives
+  public void buildNode(XmlWriter writer) throws IOException {
+    writer
       .add("fork").attr("name", name);
 
     for (String path : paths) {
-      directives.add("path")
+      writer.add("path")
         .attr("start", path)
         .up();
     }
 
-    return directives.up();
+    writer.up();
   }
 }
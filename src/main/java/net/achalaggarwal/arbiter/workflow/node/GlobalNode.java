@@ -2,9 +2,10 @@ package net.achalaggarwal.arbiter.workflow.node;
 
 import net.achalaggarwal.arbiter.config.Global;
 import net.achalaggarwal.arbiter.util.NodeGen;
+import net.achalaggarwal.arbiter.util.XmlWriter;
 import net.achalaggarwal.arbiter.workflow.Node;
-import org.xembly.Directives;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
 
@@ -16,23 +17,21 @@ public class GlobalNode extends Node {
   }
 
   @Override
-  public Directives buildNode() {
-    Directives directives = new Directives();
-
+  public void buildNode(XmlWriter writer) throws IOException {
     if (self == null) {
-      return directives;
+      return;
     }
 
-    directives.add("global");
+    writer.add("global");
 
     NodeGen.addInnerActionElements(
       self.getProperties(),
       self.getConfigurationPosition(),
-      directives,
+      writer,
       new HashMap<String, List<String>>(),
       self.getDefaultArgs(),
       null, -1);
 
-    return directives.up();
+    writer.up();
   }
 }
@@ -1,8 +1,10 @@
 package net.achalaggarwal.arbiter.workflow.node;
 
 import net.achalaggarwal.arbiter.Action;
+import net.achalaggarwal.arbiter.util.XmlWriter;
 import net.achalaggarwal.arbiter.workflow.Node;
-import org.xembly.Directives;
+
+import java.io.IOException;
 
 import static java.lang.String.format;
 
@@ -21,8 +23,8 @@ public class JoinNode extends Node {
   }
 
   @Override
-  public Directives buildNode() {
-    return new Directives()
+  public void buildNode(XmlWriter writer) throws IOException {
+    writer
       .add("join")
       .attr("name", self.getName())
       .attr("to", transitionNode.getName())
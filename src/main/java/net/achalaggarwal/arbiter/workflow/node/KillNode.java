@@ -1,8 +1,10 @@
 package net.achalaggarwal.arbiter.workflow.node;
 
 import net.achalaggarwal.arbiter.Action;
+import net.achalaggarwal.arbiter.util.XmlWriter;
 import net.achalaggarwal.arbiter.workflow.Node;
-import org.xembly.Directives;
+
+import java.io.IOException;
 
 public class KillNode extends Node {
   private Action self;
@@ -15,8 +17,8 @@ public class KillNode extends Node {
   }
 
   @Override
-  public Directives buildNode() {
-    return new Directives()
+  public void buildNode(XmlWriter writer) throws IOException {
+    writer
       .add("kill").attr("name", self.getName())
       .add("message").set(message)
       .up()
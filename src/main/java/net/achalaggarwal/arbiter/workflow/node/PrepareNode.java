@@ -4,9 +4,10 @@ import com.google.common.collect.LinkedListMultimap;
 import net.achalaggarwal.arbiter.Action;
 import net.achalaggarwal.arbiter.config.ActionType;
 import net.achalaggarwal.arbiter.config.Prepare;
+import net.achalaggarwal.arbiter.util.XmlWriter;
 import net.achalaggarwal.arbiter.workflow.Node;
-import org.xembly.Directives;
 
+import java.io.IOException;
 import java.util.Map;
 
 import static net.achalaggarwal.arbiter.util.NamedArgumentInterpolator.interpolate;
@@ -22,32 +23,31 @@ public class PrepareNode extends Node {
   }
 
   @Override
-  protected Directives buildNode() {
-    return addPrepareIfPresent(type, action);
+  protected void buildNode(XmlWriter writer) throws IOException {
+    addPrepareIfPresent(type, action, writer);
   }
 
 
-  private static Directives addPrepareIfPresent(ActionType type, Action action) {
-    Directives directives = new Directives();
+  private static void addPrepareIfPresent(ActionType type, Action action, XmlWriter writer) throws IOException {
     Prepare prepare = new Prepare(
       type.getPrepare(), action.getPrepare()
     );
 
     if (prepare.isEmpty()) {
-      return directives;
+      return;
     }
 
     LinkedListMultimap<String, String> p = interpolate(prepare.getMap(), action.getNamedArgs(), type.getDefaultInterpolations());
 
-    directives.add("prepare");
+    writer.add("prepare");
 
     for (Map.Entry<String, String> fsOperation : p.entries()) {
-      directives
+      writer
         .add(fsOperation.getKey())
         .attr("path", fsOperation.getValue())
         .up();
     }
 
-    return directives.up();
+    writer.up();
   }
 }
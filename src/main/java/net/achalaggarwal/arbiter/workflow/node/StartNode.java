@@ -1,8 +1,10 @@
 package net.achalaggarwal.arbiter.workflow.node;
 
 import net.achalaggarwal.arbiter.Action;
+import net.achalaggarwal.arbiter.util.XmlWriter;
 import net.achalaggarwal.arbiter.workflow.Node;
-import org.xembly.Directives;
+
+import java.io.IOException;
 
 public class StartNode extends Node {
   private Action transitionNode = null;
@@ -12,10 +14,9 @@ public class StartNode extends Node {
   }
 
   @Override
-  public Directives buildNode() {
-    return
-      new Directives()
-        .add("start").attr("to", transitionNode.getName())
-        .up();
+  public void buildNode(XmlWriter writer) throws IOException {
+    writer
+      .add("start").attr("to", transitionNode.getName())
+      .up();
   }
 }
@@ -1,9 +1,10 @@
 package net.achalaggarwal.arbiter.workflow.node;
 
 import net.achalaggarwal.arbiter.Action;
+import net.achalaggarwal.arbiter.util.XmlWriter;
 import net.achalaggarwal.arbiter.workflow.Node;
-import org.xembly.Directives;
 
+import java.io.IOException;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -29,27 +30,25 @@ public class SwitchNode extends Node {
   }
 
   @Override
-  public Directives buildNode() {
-    Directives directives = new Directives()
+  public void buildNode(XmlWriter writer) throws IOException {
+    writer
       .add("decision")
       .attr("name", name)
       .add("switch");
 
     for (Map.Entry<String, String> aCase : cases.entrySet()) {
-      directives
+      writer
         .add("case")
         .attr("to", aCase.getKey())
         .set(aCase.getValue())
         .up();
     }
 
-    directives
+    writer
       .add("default")
       .attr("to", defaultTransitionName)
       .up()
       .up()
       .up();
-
-    return directives;
   }
 }
@@ -16,7 +16,15 @@
 
 package org.yaml.snakeyaml.introspector;
 
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Handles a property name in YAML that is not present in the class into which the YAML is being read
@@ -24,6 +32,17 @@ import java.lang.reflect.Method;
  * Classpath ordering will ensure it is used in preference to the built-in version
  */
 public class MissingProperty extends Property {
+    private static final String SETTER_NAME = "setProperty";
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, String.class, Object.class);
+
+    // The setProperty method of each class for each type of value, looked up once and absent if there is none
+    private static final ClassValue<ConcurrentMap<Class<?>, Optional<MethodHandle>>> SETTERS = new ClassValue<ConcurrentMap<Class<?>, Optional<MethodHandle>>>() {
+        @Override
+        protected ConcurrentMap<Class<?>, Optional<MethodHandle>> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
     private String propertyName;
 
     public MissingProperty(String name) {
@@ -46,8 +65,43 @@ public class MissingProperty extends Property {
      */
     @Override
     public void set(Object object, Object value) throws Exception {
-        Method method = object.getClass().getMethod("setProperty", String.class, value.getClass());
-        method.invoke(object, propertyName, value);
+        MethodHandle setter = getSetter(object.getClass(), value.getClass());
+        try {
+            setter.invokeExact(object, propertyName, value);
+        } catch (Throwable t) {
+            Throwables.propagateIfPossible(t, Exception.class);
+            throw new RuntimeException(t);
+        }
+    }
+
+    /**
+     * Gets the setProperty method of a class for a type of value, as a handle taking and returning plain Objects
+     * The lookup is only done the first time a class is given a type of value
+     *
+     * @param type The class of the object on which to store the property
+     * @param valueType The class of the value of the property
+     * @return The handle of the method
+     * @throws NoSuchMethodException If the class has no setProperty method for the type of value
+     * @throws IllegalAccessException If the method is not public
+     */
+    private static MethodHandle getSetter(Class<?> type, Class<?> valueType) throws NoSuchMethodException, IllegalAccessException {
+        ConcurrentMap<Class<?>, Optional<MethodHandle>> setters = SETTERS.get(type);
+        Optional<MethodHandle> setter = setters.get(valueType);
+        if (setter == null) {
+            try {
+                Method method = type.getMethod(SETTER_NAME, String.class, valueType);
+                setter = Optional.of(MethodHandles.publicLookup().unreflect(method).asType(SETTER_TYPE));
+            } catch (NoSuchMethodException e) {
+                setter = Optional.absent();
+            }
+            setters.putIfAbsent(valueType, setter);
+        }
+
+        if (!setter.isPresent()) {
+            // Looked up again only to throw the same exception as the first time
+            type.getMethod(SETTER_NAME, String.class, valueType);
+        }
+        return setter.get();
     }
 
     @Override
@@ -0,0 +1,146 @@
+package net.achalaggarwal.arbiter;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ArbiterDaemonTest {
+    private File tempDir;
+    private File configFile;
+    private File workflowFile;
+
+    @Before
+    public void setup() throws IOException {
+        tempDir = new File(FileUtils.getTempDirectory(), "arbiter-" + System.nanoTime());
+        configFile = new File(tempDir, "config.yaml");
+        workflowFile = new File(tempDir, "workflows/workflow.yaml");
+        copyResource("generatorconfig.yaml", configFile);
+        copyResource("generatorworkflow.yaml", workflowFile);
+    }
+
+    @After
+    public void teardown() throws IOException {
+        FileUtils.deleteDirectory(tempDir);
+    }
+
+    @Test
+    public void testCompileMatchesInProcessCompile() throws Exception {
+        ArbiterDaemon daemon = new ArbiterDaemon("token");
+        List<String> args = Arrays.asList("-c", configFile.getAbsolutePath(), "-i", workflowFile.getParent(), "-t", "1");
+
+        assertEquals(0, daemon.compile(args, new StringWriter()));
+        String fromDaemon = FileUtils.readFileToString(OozieWorkflowGenerator.getOutputFile(workflowFile));
+
+        // A second compile reuses the merged configuration
+        assertEquals(0, daemon.compile(args, new StringWriter()));
+        assertEquals(fromDaemon, FileUtils.readFileToString(OozieWorkflowGenerator.getOutputFile(workflowFile)));
+
+        Arbiter.compile(parse(args), Arbiter.loadConfig(configFile.getAbsolutePath(), null));
+        assertEquals(fromDaemon, FileUtils.readFileToString(OozieWorkflowGenerator.getOutputFile(workflowFile)));
+    }
+
+    @Test
+    public void testErrorsAreSentToTheClient() {
+        StringWriter out = new StringWriter();
+
+        assertEquals(1, new ArbiterDaemon("token").compile(Arrays.asList("-c", configFile.getAbsolutePath()), out));
+        assertTrue(out.toString().contains("Missing required argument: i"));
+    }
+
+    @Test
+    public void testDaemonArgsHaveAbsolutePaths() throws Exception {
+        CommandLine parsed = parse(Arrays.asList("-d", "-c", "config.yaml", "-i", "workflows", "-t", "2"));
+
+        assertEquals(
+          Arrays.asList("-c", new File("config.yaml").getAbsolutePath(), "-i", new File("workflows").getAbsolutePath(), "-t", "2"),
+          ArbiterDaemonClient.getDaemonArgs(parsed)
+        );
+    }
+
+    @Test
+    public void testClientCompilesOnDaemonWithItsToken() throws Exception {
+        File tokenDir = new File(tempDir, "tokens");
+        HttpServer server = ArbiterDaemon.serve(0, tokenDir);
+        try {
+            int port = server.getAddress().getPort();
+            File tokenFile = ArbiterDaemon.getTokenFile(tokenDir, port);
+            if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+                assertEquals(PosixFilePermissions.fromString("rw-------"), Files.getPosixFilePermissions(tokenFile.toPath()));
+            }
+
+            CommandLine parsed = parse(Arrays.asList("-d", "-c", configFile.getAbsolutePath(), "-i", workflowFile.getParent(), "-t", "1"));
+            assertEquals(Integer.valueOf(0), ArbiterDaemonClient.compile(port, tokenDir, parsed));
+            assertTrue(OozieWorkflowGenerator.getOutputFile(workflowFile).exists());
+
+            // A client without the token is refused, so it compiles in its own process
+            FileUtils.writeStringToFile(tokenFile, "wrong");
+            assertNull(ArbiterDaemonClient.compile(port, tokenDir, parsed));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testDaemonChecksToken() {
+        ArbiterDaemon daemon = new ArbiterDaemon("token");
+
+        assertTrue(daemon.isAuthorized("token"));
+        assertFalse(daemon.isAuthorized("other"));
+        assertFalse(daemon.isAuthorized(null));
+    }
+
+    @Test
+    public void testClientFallsBackWhenNoDaemonAccepts() throws Exception {
+        File tokenDir = new File(tempDir, "tokens");
+        CommandLine parsed = parse(Arrays.asList("-d", "-c", configFile.getAbsolutePath(), "-i", workflowFile.getParent()));
+
+        // Something other than a daemon is listening on the port
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.start();
+        int port = server.getAddress().getPort();
+        FileUtils.writeStringToFile(ArbiterDaemon.getTokenFile(tokenDir, port), "token");
+        try {
+            assertNull(ArbiterDaemonClient.compile(port, tokenDir, parsed));
+        } finally {
+            server.stop(0);
+        }
+
+        // Nothing is listening on the port any more
+        assertNull(ArbiterDaemonClient.compile(port, tokenDir, parsed));
+        assertNull(ArbiterDaemonClient.compile(port, new File(tempDir, "missing"), parsed));
+    }
+
+    private static CommandLine parse(List<String> args) throws Exception {
+        return new GnuParser().parse(Arbiter.getOptions(), args.toArray(new String[args.size()]));
+    }
+
+    private void copyResource(String resourceName, File destination) throws IOException {
+        URL resource = getClass().getClassLoader().getResource(resourceName);
+        if (resource == null) {
+            throw new RuntimeException("Unable to load resource " + resourceName);
+        }
+
+        FileUtils.copyURLToFile(resource, destination);
+    }
+}
@@ -0,0 +1,139 @@
+package net.achalaggarwal.arbiter;
+
+import net.achalaggarwal.arbiter.config.ActionType;
+import net.achalaggarwal.arbiter.config.Config;
+import net.achalaggarwal.arbiter.exception.WorkflowGraphException;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ArbiterWatcherTest {
+    private File tempDir;
+    private File configFile;
+    private File workflowDir;
+
+    @Before
+    public void setup() throws IOException {
+        tempDir = new File(FileUtils.getTempDirectory(), "arbiter-" + System.nanoTime());
+        configFile = new File(tempDir, "config.yaml");
+        workflowDir = new File(tempDir, "workflows");
+        copyResource("generatorconfig.yaml", configFile);
+        copyResource("generatorworkflow.yaml", new File(workflowDir, "a.yaml"));
+    }
+
+    @After
+    public void teardown() throws IOException {
+        FileUtils.deleteDirectory(tempDir);
+    }
+
+    @Test
+    public void testCompilesWorkflowsOfCreatedDirectory() throws Exception {
+        ArbiterWatcher watcher = watcher();
+        watcher.start();
+
+        // A directory of workflows copied in only shows up as the creation of the directory itself
+        File created = new File(workflowDir, "more");
+        File workflow = new File(created, "nested/b.yaml");
+        copyResource("generatorworkflow.yaml", workflow);
+        watcher.recompile(Collections.singleton(created.toPath().toAbsolutePath()));
+
+        assertTrue(OozieWorkflowGenerator.getOutputFile(workflow).exists());
+    }
+
+    @Test
+    public void testRecompilesWorkflowsAffectedByFailedRecompile() throws Exception {
+        File a = new File(workflowDir, "a.yaml");
+        File b = new File(workflowDir, "b.yaml");
+        copyResource("generatorworkflow.yaml", b);
+        ArbiterWatcher watcher = watcher();
+        watcher.start();
+
+        // The configuration change affects both workflows, but the broken one fails the recompile
+        FileUtils.writeStringToFile(configFile, FileUtils.readFileToString(configFile).replace("queue.name: default", "queue.name: changed"));
+        FileUtils.writeStringToFile(b, "name: broken\nactions:\n    - name: a\n      type: java\n      dependencies: [missing]\n");
+        try {
+            watcher.recompile(new HashSet<>(Arrays.asList(configFile.toPath().toAbsolutePath(), b.toPath().toAbsolutePath())));
+            fail();
+        } catch (WorkflowGraphException e) {
+            // Expected
+        }
+        FileUtils.deleteQuietly(OozieWorkflowGenerator.getOutputFile(a));
+
+        // Fixing the broken workflow compiles the other one again too
+        copyResource("generatorworkflow.yaml", b);
+        watcher.recompile(Collections.singleton(b.toPath().toAbsolutePath()));
+
+        File output = OozieWorkflowGenerator.getOutputFile(a);
+        assertTrue(output.exists());
+        assertTrue(FileUtils.readFileToString(output).contains("changed"));
+    }
+
+    @Test
+    public void testUnchangedConfigAffectsNoActionTypes() {
+        assertEquals(
+          Collections.emptySet(),
+          ArbiterWatcher.getChangedActionTypes(config(actionType("a", "x"), actionType("b", "y")), config(actionType("a", "x"), actionType("b", "y")))
+        );
+    }
+
+    @Test
+    public void testChangedAddedAndRemovedActionTypes() {
+        assertEquals(
+          new HashSet<>(Arrays.asList("b", "c", "d")),
+          ArbiterWatcher.getChangedActionTypes(
+            config(actionType("a", "x"), actionType("b", "y"), actionType("c", "z")),
+            config(actionType("a", "x"), actionType("b", "changed"), actionType("d", "z"))
+          )
+        );
+    }
+
+    @Test
+    public void testChangedGlobalSettingsAffectEveryWorkflow() {
+        Config old = config(actionType("a", "x"));
+        Config current = config(actionType("a", "x"));
+        current.setMaxForkWidth(2);
+
+        assertNull(ArbiterWatcher.getChangedActionTypes(old, current));
+    }
+
+    private ArbiterWatcher watcher() throws Exception {
+        String[] args = {"-w", "-c", configFile.getAbsolutePath(), "-i", workflowDir.getAbsolutePath(), "-t", "1"};
+        return new ArbiterWatcher(new GnuParser().parse(Arbiter.getOptions(), args));
+    }
+
+    private void copyResource(String resourceName, File destination) throws IOException {
+        URL resource = getClass().getClassLoader().getResource(resourceName);
+        if (resource == null) {
+            throw new RuntimeException("Unable to load resource " + resourceName);
+        }
+
+        FileUtils.copyURLToFile(resource, destination);
+    }
+
+    private static Config config(ActionType... actionTypes) {
+        Config config = new Config();
+        config.setActionTypes(Arrays.asList(actionTypes));
+        return config;
+    }
+
+    private static ActionType actionType(String name, String tag) {
+        ActionType actionType = new ActionType();
+        actionType.setName(name);
+        actionType.setTag(tag);
+        return actionType;
+    }
+}
@@ -0,0 +1,116 @@
+package net.achalaggarwal.arbiter;
+
+import net.achalaggarwal.arbiter.config.Config;
+import net.achalaggarwal.arbiter.config.ConfigurationMerger;
+import net.achalaggarwal.arbiter.util.CompilationManifest;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OozieWorkflowGeneratorTest {
+    private static final int WORKFLOW_COUNT = 16;
+
+    private File serialDir;
+    private File parallelDir;
+    private Config config;
+
+    @Before
+    public void setup() throws Exception {
+        File tempDir = new File(FileUtils.getTempDirectory(), "arbiter-" + System.nanoTime());
+        serialDir = new File(tempDir, "serial");
+        parallelDir = new File(tempDir, "parallel");
+
+        for (int i = 0; i < WORKFLOW_COUNT; i++) {
+            copyResource("generatorworkflow.yaml", new File(serialDir, "workflow-" + i + ".yaml"));
+            copyResource("generatorworkflow.yaml", new File(parallelDir, "workflow-" + i + ".yaml"));
+        }
+
+        File configFile = new File(tempDir, "config.yaml");
+        copyResource("generatorconfig.yaml", configFile);
+        config = ConfigurationMerger.mergeConfiguration(Arbiter.readConfigFiles(configFile.getAbsolutePath(), false));
+    }
+
+    @After
+    public void teardown() throws IOException {
+        FileUtils.deleteDirectory(serialDir.getParentFile());
+    }
+
+    @Test
+    public void testParallelOutputMatchesSerialOutput() throws Exception {
+        new OozieWorkflowGenerator(config)
+          .generateOozieWorkflows(Arbiter.readWorkflowFiles(serialDir.getAbsolutePath()), false, null, 1);
+        new OozieWorkflowGenerator(config)
+          .generateOozieWorkflows(Arbiter.readWorkflowFiles(parallelDir.getAbsolutePath()), false, null, 4);
+
+        Map<String, String> serial = readOutputs(serialDir);
+        Map<String, String> parallel = readOutputs(parallelDir);
+
+        assertEquals(WORKFLOW_COUNT, serial.size());
+        assertEquals(serial, parallel);
+        for (String output : serial.values()) {
+            assertTrue(output.contains("<fork name=\"fork-0\">"));
+        }
+    }
+
+    @Test
+    public void testRemovesCopiesOfEarlierCompiles() throws Exception {
+        File workflow = new File(serialDir, "workflow-0.yaml");
+        File stale = new File(serialDir, "workflow-0-includes/stale.sql");
+        File own = new File(serialDir, "workflow-0-includes/own.sql");
+        FileUtils.writeStringToFile(stale, "stale");
+        FileUtils.writeStringToFile(own, "own");
+        CompilationManifest manifest = CompilationManifest.load(serialDir, "config");
+        manifest.record(workflow, Collections.<File>emptyList(), Collections.singletonList(stale));
+
+        Map<File, Workflow> workflows = Arbiter.readWorkflowFiles(serialDir.getAbsolutePath());
+        for (Workflow w : workflows.values()) {
+            w.setMaxInlineSize(1024L);
+        }
+        new OozieWorkflowGenerator(config, manifest).generateOozieWorkflows(workflows, false, null, 1);
+
+        assertFalse(stale.exists());
+        assertTrue(own.exists());
+        assertEquals(Collections.<File>emptyList(), manifest.getExternalizedCopies(workflow));
+    }
+
+    @Test
+    public void testKeepsIncludesDirectoryWithoutMaxInlineSize() throws Exception {
+        File query = new File(serialDir, "workflow-0-includes/query.hql");
+        FileUtils.writeStringToFile(query, "query");
+
+        new OozieWorkflowGenerator(config)
+          .generateOozieWorkflows(Arbiter.readWorkflowFiles(serialDir.getAbsolutePath()), false, null, 1);
+
+        assertTrue(query.exists());
+    }
+
+    private Map<String, String> readOutputs(File dir) throws IOException {
+        Map<String, String> outputs = new TreeMap<>();
+        for (File file : FileUtils.listFiles(dir, new String[]{"xml"}, false)) {
+            outputs.put(file.getName(), FileUtils.readFileToString(file));
+        }
+
+        return outputs;
+    }
+
+    private void copyResource(String resourceName, File destination) throws IOException {
+        URL resource = getClass().getClassLoader().getResource(resourceName);
+        if (resource == null) {
+            throw new RuntimeException("Unable to load resource " + resourceName);
+        }
+
+        FileUtils.copyURLToFile(resource, destination);
+    }
+}
@@ -0,0 +1,133 @@
+package net.achalaggarwal.arbiter;
+
+import net.achalaggarwal.arbiter.config.Config;
+import net.achalaggarwal.arbiter.config.ConfigurationMerger;
+import net.achalaggarwal.arbiter.exception.WorkflowGraphException;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class WorkflowPipelineTest {
+    // More workflows than the queues between stages can hold, so stages block on each other
+    private static final int WORKFLOW_COUNT = 40;
+
+    private File tempDir;
+    private File generatorDir;
+    private File pipelineDir;
+    private Config config;
+
+    @Before
+    public void setup() throws Exception {
+        tempDir = new File(FileUtils.getTempDirectory(), "arbiter-" + System.nanoTime());
+        generatorDir = new File(tempDir, "generator");
+        pipelineDir = new File(tempDir, "pipeline");
+
+        for (int i = 0; i < WORKFLOW_COUNT; i++) {
+            copyResource("generatorworkflow.yaml", new File(generatorDir, "workflow-" + i + ".yaml"));
+            copyResource("generatorworkflow.yaml", new File(pipelineDir, "nested-" + (i % 3) + "/workflow-" + i + ".yaml"));
+        }
+
+        File configFile = new File(tempDir, "config.yaml");
+        copyResource("generatorconfig.yaml", configFile);
+        config = ConfigurationMerger.mergeConfiguration(Arbiter.readConfigFiles(configFile.getAbsolutePath(), false));
+    }
+
+    @After
+    public void teardown() throws IOException {
+        FileUtils.deleteDirectory(tempDir);
+    }
+
+    @Test
+    public void testPipelineOutputMatchesGeneratorOutput() throws Exception {
+        new OozieWorkflowGenerator(config)
+          .generateOozieWorkflows(Arbiter.readWorkflowFiles(generatorDir.getAbsolutePath()), false, null, 1);
+        int compiled = new WorkflowPipeline(new OozieWorkflowGenerator(config), null, false, null, 2)
+          .run(pipelineDir.getAbsolutePath());
+
+        assertEquals(WORKFLOW_COUNT, compiled);
+        assertEquals(readOutputs(generatorDir), readOutputs(pipelineDir));
+    }
+
+    @Test
+    public void testSingleThreadOutputMatchesGeneratorOutput() throws Exception {
+        new OozieWorkflowGenerator(config)
+          .generateOozieWorkflows(Arbiter.readWorkflowFiles(generatorDir.getAbsolutePath()), false, null, 1);
+        int compiled = new WorkflowPipeline(new OozieWorkflowGenerator(config), null, false, null, 1)
+          .run(pipelineDir.getAbsolutePath());
+
+        assertEquals(WORKFLOW_COUNT, compiled);
+        assertEquals(readOutputs(generatorDir), readOutputs(pipelineDir));
+    }
+
+    @Test
+    public void testFollowsLinksToDirs() throws Exception {
+        File linkedDir = new File(tempDir, "linked");
+        copyResource("generatorworkflow.yaml", new File(linkedDir, "linked.yaml"));
+        try {
+            Files.createSymbolicLink(new File(pipelineDir, "link").toPath(), linkedDir.toPath());
+        } catch (UnsupportedOperationException | IOException e) {
+            Assume.assumeNoException(e);
+        }
+
+        // The same workflows are found as by listing the input
+        int compiled = new WorkflowPipeline(new OozieWorkflowGenerator(config), null, false, null, 2)
+          .run(pipelineDir.getAbsolutePath());
+        assertEquals(Arbiter.getOnlyYamlFiles(pipelineDir).size(), compiled);
+        assertEquals(WORKFLOW_COUNT + 1, compiled);
+        assertTrue(new File(linkedDir, "linked.xml").exists());
+
+        // A link back to a dir that is being scanned is skipped
+        Files.createSymbolicLink(new File(pipelineDir, "nested-0/loop").toPath(), pipelineDir.toPath());
+        compiled = new WorkflowPipeline(new OozieWorkflowGenerator(config), null, false, null, 2)
+          .run(pipelineDir.getAbsolutePath());
+        assertEquals(WORKFLOW_COUNT + 1, compiled);
+    }
+
+    @Test
+    public void testInvalidWorkflowStopsThePipeline() throws Exception {
+        FileUtils.writeStringToFile(
+          new File(pipelineDir, "invalid.yaml"),
+          "name: invalid\nactions:\n    - name: a\n      type: java\n      dependencies: [missing]\n"
+        );
+
+        try {
+            new WorkflowPipeline(new OozieWorkflowGenerator(config), null, false, null, 2).run(pipelineDir.getAbsolutePath());
+            fail("Expected the invalid workflow to fail the pipeline");
+        } catch (WorkflowGraphException e) {
+            assertTrue(e.getMessage().contains("missing"));
+        }
+
+        assertTrue(FileUtils.listFiles(pipelineDir, new String[]{"tmp"}, true).isEmpty());
+    }
+
+    private Map<String, String> readOutputs(File dir) throws IOException {
+        Map<String, String> outputs = new TreeMap<>();
+        for (File file : FileUtils.listFiles(dir, new String[]{"xml"}, true)) {
+            outputs.put(file.getName(), FileUtils.readFileToString(file));
+        }
+
+        return outputs;
+    }
+
+    private void copyResource(String resourceName, File destination) throws IOException {
+        URL resource = getClass().getClassLoader().getResource(resourceName);
+        if (resource == null) {
+            throw new RuntimeException("Unable to load resource " + resourceName);
+        }
+
+        FileUtils.copyURLToFile(resource, destination);
+    }
+}
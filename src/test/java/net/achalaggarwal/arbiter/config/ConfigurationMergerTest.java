@@ -102,14 +102,21 @@ public class ConfigurationMergerTest {
         Config c1 = new Config();
         c1.setActionTypes(Collections.singletonList(actionTypes.get(0)));
         c1.setKillMessage("message");
+        c1.setMaxInlineSize(1024L);
 
         Config c2 = new Config();
         c2.setActionTypes(Collections.singletonList(actionTypes.get(1)));
         c2.setKillName("name");
+        c2.setMaxForkWidth(4);
+
+        actionTypes.get(0).setExpectedDuration(10L);
+        actionTypes.get(1).setExpectedDuration(20L);
 
         Config expected = new Config();
         expected.setKillName("name");
         expected.setKillMessage("message");
+        expected.setMaxForkWidth(4);
+        expected.setMaxInlineSize(1024L);
         ActionType merged = new ActionType();
         expected.setActionTypes(Collections.singletonList(merged));
         merged.setName(NAME);
@@ -123,10 +130,111 @@ public class ConfigurationMergerTest {
         Map<String, List<String>> expectedArgs = new HashMap<>();
         expectedArgs.put("a", Lists.newArrayList("d", "c", "a", "b", "c"));
         merged.setDefaultArgs(expectedArgs);
+        merged.setExpectedDuration(10L);
 
         assertEquals(expected, ConfigurationMerger.mergeConfiguration(c1, c2));
     }
 
+    @Test
+    public void testMergeActionTypeSettings() throws ConfigurationException {
+        Prepare lowPrepare = new Prepare();
+        lowPrepare.setProperty("delete", "/low");
+        Prepare highPrepare = new Prepare();
+        highPrepare.setProperty("mkdir", "/high");
+        actionTypes.get(0).setPrepare(highPrepare);
+        actionTypes.get(0).setRetryMax(3);
+        actionTypes.get(0).setConfigurationPosition(2);
+        actionTypes.get(0).setDefaultInterpolations(Collections.singletonMap("queue", "high"));
+        actionTypes.get(1).setPrepare(lowPrepare);
+        actionTypes.get(1).setRetryMax(5);
+        actionTypes.get(1).setRetryInterval(10);
+        actionTypes.get(1).setCred("hcat");
+        actionTypes.get(1).setConfigurationPosition(3);
+        actionTypes.get(1).setPreparePosition(2);
+        Map<String, String> lowInterpolations = new HashMap<>();
+        lowInterpolations.put("queue", "low");
+        lowInterpolations.put("pool", "low");
+        actionTypes.get(1).setDefaultInterpolations(lowInterpolations);
+
+        Config c1 = new Config();
+        c1.setActionTypes(Collections.singletonList(actionTypes.get(0)));
+        Config c2 = new Config();
+        c2.setActionTypes(Collections.singletonList(actionTypes.get(1)));
+
+        // Every setting is taken from the high-precedence type, unless only the low-precedence type sets it
+        ActionType merged = ConfigurationMerger.mergeConfiguration(c1, c2).getActionTypeByName(NAME);
+        assertEquals(Integer.valueOf(3), merged.getRetryMax());
+        assertEquals(Integer.valueOf(10), merged.getRetryInterval());
+        assertEquals("hcat", merged.getCred());
+        assertEquals(Integer.valueOf(2), merged.getConfigurationPosition());
+        assertEquals(Integer.valueOf(2), merged.getPreparePosition());
+        Map<String, String> expectedInterpolations = new HashMap<>();
+        expectedInterpolations.put("queue", "high");
+        expectedInterpolations.put("pool", "low");
+        assertEquals(expectedInterpolations, merged.getDefaultInterpolations());
+        assertEquals(highPrepare, merged.getPrepare());
+
+        actionTypes.get(0).setPrepare(null);
+        merged = ConfigurationMerger.mergeConfiguration(c1, c2).getActionTypeByName(NAME);
+        assertEquals(lowPrepare, merged.getPrepare());
+    }
+
+    @Test
+    public void testMergedConfigurationIsIndexed() throws ConfigurationException {
+        Config c1 = new Config();
+        c1.setActionTypes(Collections.singletonList(actionTypes.get(0)));
+
+        CompiledConfig merged = ConfigurationMerger.mergeConfiguration(c1);
+        assertEquals(actionTypes.get(0), merged.getActionTypeByName(NAME));
+        assertNull(merged.getActionTypeByName("missing"));
+    }
+
+    @Test
+    public void testMergedConfigurationCannotBeChanged() throws ConfigurationException {
+        Config c1 = new Config();
+        c1.setActionTypes(Collections.singletonList(actionTypes.get(0)));
+        CompiledConfig merged = ConfigurationMerger.mergeConfiguration(c1);
+
+        // Changing the configurations that were merged does not change the result
+        actionTypes.get(0).getProperties().put("p4", "v4");
+        assertNull(merged.getActionTypeByName(NAME).getProperties().get("p4"));
+
+        exception.expect(UnsupportedOperationException.class);
+        merged.getActionTypeByName(NAME).getDefaultArgs().get("a").add("d");
+    }
+
+    @Test
+    public void testMergedActionTypeCannotBeChanged() throws ConfigurationException {
+        Config c1 = new Config();
+        c1.setActionTypes(Collections.singletonList(actionTypes.get(0)));
+        CompiledConfig merged = ConfigurationMerger.mergeConfiguration(c1);
+
+        exception.expect(UnsupportedOperationException.class);
+        merged.getActionTypeByName(NAME).setTag("fake");
+    }
+
+    @Test
+    public void testMergedPrepareCannotBeChanged() throws ConfigurationException {
+        Prepare prepare = new Prepare();
+        prepare.setProperty("delete", "/path");
+        actionTypes.get(0).setPrepare(prepare);
+        Config c1 = new Config();
+        c1.setActionTypes(Collections.singletonList(actionTypes.get(0)));
+        CompiledConfig merged = ConfigurationMerger.mergeConfiguration(c1);
+
+        merged.getActionTypeByName(NAME).getPrepare().setProperty("mkdir", "/other");
+        merged.getActionTypeByName(NAME).getPrepare().getMap().clear();
+        assertEquals(prepare, merged.getActionTypeByName(NAME).getPrepare());
+    }
+
+    @Test
+    public void testMergedConfigurationPrecedenceCannotBeChanged() throws ConfigurationException {
+        CompiledConfig merged = ConfigurationMerger.mergeConfiguration(new Config());
+
+        exception.expect(UnsupportedOperationException.class);
+        merged.setLowPrecedence(true);
+    }
+
     @Test
     public void testGetFirstNonNullValue() {
         actionTypes.get(0).setName(null);
@@ -0,0 +1,140 @@
+package net.achalaggarwal.arbiter.util;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import net.achalaggarwal.arbiter.workflow.ForkJoinMode;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CompilationManifestTest {
+  private File dir;
+  private File workflow;
+  private File include;
+
+  @Before
+  public void setup() throws IOException {
+    dir = new File(FileUtils.getTempDirectory(), "arbiter-" + System.nanoTime());
+    workflow = new File(dir, "workflow.yaml");
+    include = new File(dir, "scripts/script.q");
+    FileUtils.writeStringToFile(workflow, "name: workflow");
+    FileUtils.writeStringToFile(include, "select 1");
+    FileUtils.writeStringToFile(new File(dir, "workflow.xml"), "<workflow-app/>");
+
+    CompilationManifest manifest = CompilationManifest.load(dir, "config");
+    manifest.record(workflow, Sets.newHashSet(include));
+    manifest.save();
+  }
+
+  @After
+  public void teardown() throws IOException {
+    FileUtils.deleteDirectory(dir);
+  }
+
+  @Test
+  public void shouldBeUpToDateIfNothingChanged() throws IOException {
+    assertTrue(CompilationManifest.load(dir, "config").isUpToDate(workflow));
+  }
+
+  @Test
+  public void shouldNotBeUpToDateIfWorkflowChanged() throws IOException {
+    FileUtils.writeStringToFile(workflow, "name: changed");
+    assertFalse(CompilationManifest.load(dir, "config").isUpToDate(workflow));
+  }
+
+  @Test
+  public void shouldNotBeUpToDateIfIncludeChanged() throws IOException {
+    FileUtils.writeStringToFile(include, "select 2");
+    assertFalse(CompilationManifest.load(dir, "config").isUpToDate(workflow));
+  }
+
+  @Test
+  public void shouldNotBeUpToDateIfConfigChanged() throws IOException {
+    assertFalse(CompilationManifest.load(dir, "other-config").isUpToDate(workflow));
+  }
+
+  @Test
+  public void shouldNotBeUpToDateIfOutputIsMissing() throws IOException {
+    FileUtils.forceDelete(new File(dir, "workflow.xml"));
+    assertFalse(CompilationManifest.load(dir, "config").isUpToDate(workflow));
+  }
+
+  @Test
+  public void shouldNotBeUpToDateIfNeverRecorded() throws IOException {
+    File other = new File(dir, "other.yaml");
+    FileUtils.writeStringToFile(other, "name: other");
+    FileUtils.writeStringToFile(new File(dir, "other.xml"), "<workflow-app/>");
+
+    CompilationManifest manifest = CompilationManifest.load(dir, "config");
+    assertFalse(manifest.isUpToDate(other));
+
+    manifest.record(other, Collections.<File>emptySet());
+    assertTrue(manifest.isUpToDate(other));
+  }
+
+  @Test
+  public void shouldNotBeUpToDateIfExternalizedCopyIsMissing() throws IOException {
+    File copy = new File(dir, "workflow-includes/script.q");
+    FileUtils.writeStringToFile(copy, "select 1");
+
+    CompilationManifest manifest = CompilationManifest.load(dir, "config");
+    manifest.record(workflow, Sets.newHashSet(include), Lists.newArrayList(copy));
+    manifest.save();
+    assertTrue(CompilationManifest.load(dir, "config").isUpToDate(workflow));
+    assertEquals(Lists.newArrayList(copy.getAbsoluteFile()), absolute(CompilationManifest.load(dir, "config").getExternalizedCopies(workflow)));
+
+    FileUtils.forceDelete(copy);
+    assertFalse(CompilationManifest.load(dir, "config").isUpToDate(workflow));
+  }
+
+  @Test
+  public void shouldIgnoreManifestInAnotherFormat() throws IOException {
+    FileUtils.writeStringToFile(new File(dir, CompilationManifest.FILE_NAME), "# Arbiter compilation manifest v1\nworkflow.yaml\thash\n");
+    assertFalse(CompilationManifest.load(dir, "config").isUpToDate(workflow));
+  }
+
+  @Test
+  public void shouldIgnoreCorruptManifest() throws IOException {
+    CompilationManifest manifest = CompilationManifest.load(dir, "config");
+    FileUtils.writeStringToFile(new File(dir, CompilationManifest.FILE_NAME), "other.yaml\thash\t", true);
+    assertFalse(CompilationManifest.load(dir, "config").isUpToDate(workflow));
+
+    manifest.save();
+    FileUtils.writeStringToFile(new File(dir, CompilationManifest.FILE_NAME), "other.yaml\thash\t3\tinclude.sh\n", true);
+    assertFalse(CompilationManifest.load(dir, "config").isUpToDate(workflow));
+  }
+
+  @Test
+  public void shouldHashGeneratorOptions() throws IOException {
+    List<File> configFiles = Lists.newArrayList(workflow);
+    List<File> none = Collections.emptyList();
+    String levels = CompilationManifest.hashConfiguration(configFiles, none, ForkJoinMode.LEVELS, false, "svg");
+
+    assertEquals(levels, CompilationManifest.hashConfiguration(configFiles, none, ForkJoinMode.LEVELS, false, "png"));
+    assertNotEquals(levels, CompilationManifest.hashConfiguration(configFiles, none, ForkJoinMode.SERIES_PARALLEL, false, "svg"));
+    assertNotEquals(levels, CompilationManifest.hashConfiguration(configFiles, none, ForkJoinMode.LEVELS, true, "svg"));
+    assertNotEquals(
+      CompilationManifest.hashConfiguration(configFiles, none, ForkJoinMode.LEVELS, true, "svg"),
+      CompilationManifest.hashConfiguration(configFiles, none, ForkJoinMode.LEVELS, true, "png")
+    );
+  }
+
+  private static List<File> absolute(List<File> files) {
+    List<File> result = Lists.newArrayList();
+    for (File file : files) {
+      result.add(file.getAbsoluteFile().toPath().normalize().toFile());
+    }
+    return result;
+  }
+}
@@ -5,11 +5,16 @@ import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import static net.achalaggarwal.arbiter.util.FileArgumentInterpolator.interpolateFileVars;
+import static net.achalaggarwal.arbiter.util.FileArgumentInterpolator.interpolateFileVarsForStreaming;
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
@@ -44,4 +49,31 @@ public class FileArgumentInterpolatorTest {
   public void shouldReturnNullIfInputIsNull() throws IOException {
     assertNull(interpolateFileVars("somePath", null));
   }
-}
\ No newline at end of file
+
+  @Test
+  public void shouldExternalizeFilesAboveMaxInlineSize() throws IOException {
+    File dir = Files.createTempDirectory("arbiter").toFile();
+    FileUtils.writeStringToFile(new File(dir, "small.sql"), "small");
+    FileUtils.writeStringToFile(new File(dir, "large.sql"), "much too large");
+    IncludeExternalizer externalizer = new IncludeExternalizer(new File(dir, "workflow.xml"), 10);
+    List<String> fileReferences = new ArrayList<>();
+
+    Map<String, List<Object>> interpolated = interpolateFileVarsForStreaming(
+      dir.getPath(),
+      new LinkedHashMap<String, List<String>>() { {
+        put("arg", Arrays.asList("@@small.sql@@", "@@large.sql@@", "@@large.sql@@"));
+        put("file", Arrays.asList("other.jar"));
+      } },
+      null,
+      externalizer,
+      fileReferences
+    );
+
+    assertThat(interpolated.get("arg"), is(Arrays.<Object>asList("small", "large.sql", "large.sql")));
+    assertThat(interpolated.get("file"), is(Arrays.<Object>asList("other.jar")));
+    assertThat(fileReferences, is(Arrays.asList("workflow-includes/large.sql#large.sql")));
+    assertThat(FileUtils.readFileToString(new File(dir, "workflow-includes/large.sql")), is("much too large"));
+    assertThat(externalizer.getExternalizedCount(), is(1));
+    assertThat(externalizer.getBytesSaved(), is(2 * 14L - 2 * 9L - 37L));
+  }
+}
@@ -0,0 +1,70 @@
+package net.achalaggarwal.arbiter.util;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class IncludeCacheTest {
+    private File file;
+
+    @Before
+    public void setup() throws IOException {
+        file = File.createTempFile("arbiter", "IncludeCacheTest");
+        file.deleteOnExit();
+        IncludeCache.clear();
+    }
+
+    @Test
+    public void testUnchangedFileIsReadOnce() throws IOException {
+        FileUtils.writeStringToFile(file, "line");
+        long hits = IncludeCache.stats().hitCount();
+
+        String first = IncludeCache.read(file, StandardCharsets.UTF_8);
+        String second = IncludeCache.read(file, StandardCharsets.UTF_8);
+
+        assertEquals("line", first);
+        assertSame(first, second);
+        assertEquals(hits + 1, IncludeCache.stats().hitCount());
+    }
+
+    @Test
+    public void testChangedFileIsReadAgain() throws IOException {
+        FileUtils.writeStringToFile(file, "before");
+        assertEquals("before", IncludeCache.read(file, StandardCharsets.UTF_8));
+
+        FileUtils.writeStringToFile(file, "after, and longer");
+        assertEquals("after, and longer", IncludeCache.read(file, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testLinesAreJoinedLikeReadAllLines() throws IOException {
+        String[] contents = {"", "\n", "a", "a\n", "a\r\nb", "a\rb\r", "a\n\nb\n\n", "\r\n\r\n"};
+        for (String content : contents) {
+            FileUtils.writeStringToFile(file, content);
+            IncludeCache.clear();
+            String expected = StringUtils.join(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8), System.lineSeparator());
+            assertEquals(expected, IncludeCache.read(file, StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testStreamedFileMatchesCachedFile() throws IOException {
+        String content = StringUtils.repeat("line\r\n", 5000) + "last\r\r\n";
+        FileUtils.writeStringToFile(file, content);
+
+        try (Reader reader = IncludeCache.openReader(file, StandardCharsets.UTF_8)) {
+            assertEquals(IncludeCache.read(file, StandardCharsets.UTF_8), IOUtils.toString(reader));
+        }
+    }
+}
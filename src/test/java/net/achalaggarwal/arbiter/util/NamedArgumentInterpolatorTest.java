@@ -140,7 +140,31 @@ public class NamedArgumentInterpolatorTest {
         expected.put("one", Arrays.asList("value", "three", "list_value_one", "list_value_two"));
 
         assertEquals(expected, result);
-        assertFalse(listArgs.containsKey("list_key"));
+        assertTrue(listArgs.containsKey("list_key"));
+    }
+
+    @Test
+    public void testListInterpolationReportsUsedKeys() {
+        Map<String, List<String>> args = new LinkedHashMap<>();
+        args.put("one", Arrays.asList("$$list_key$$"));
+        args.put("two", Arrays.asList("$$list_key$$"));
+
+        Set<String> usedListArgs = new HashSet<>();
+        Map<String, List<String>> result = NamedArgumentInterpolator.interpolate(args, namedArgs, null, listArgs, usedListArgs);
+        Map<String, List<String>> expected = new HashMap<>();
+        expected.put("one", Arrays.asList("list_value_one", "list_value_two"));
+        expected.put("two", Arrays.asList("$$list_key$$"));
+
+        assertEquals(expected, result);
+        assertEquals(Collections.singleton("list_key"), usedListArgs);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testResultCannotBeChanged() {
+        Map<String, List<String>> args = new HashMap<>();
+        args.put("one", Arrays.asList("$$key$$"));
+
+        NamedArgumentInterpolator.interpolate(args, namedArgs, null, listArgs).get("one").add("two");
     }
 
     @Test
@@ -0,0 +1,72 @@
+package net.achalaggarwal.arbiter.util;
+
+import org.apache.commons.lang3.text.StrSubstitutor;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class NamedArgumentTemplateTest {
+    private Map<String, String> namedArgs;
+    private Map<String, String> defaultArgs;
+
+    @Before
+    public void setup() {
+        namedArgs = new HashMap<>();
+        namedArgs.put("key", "value");
+        namedArgs.put("nested", "$$key$$");
+        namedArgs.put("override", "named");
+
+        defaultArgs = new HashMap<>();
+        defaultArgs.put("default", "default_value");
+        defaultArgs.put("override", "default");
+    }
+
+    @Test
+    public void testTemplatesAreCached() {
+        assertSame(NamedArgumentTemplate.compile("a $$key$$"), NamedArgumentTemplate.compile("a $$key$$"));
+    }
+
+    @Test
+    public void testRender() {
+        assertEquals("no variables", render("no variables"));
+        assertEquals("value/default_value", render("$$key$$/$$default$$"));
+        assertEquals("named", render("$$override$$"));
+        assertEquals("a $$missing$$ b", render("a $$missing$$ b"));
+    }
+
+    @Test
+    public void testRenderWithoutDefaults() {
+        assertEquals("value $$default$$", NamedArgumentTemplate.compile("$$key$$ $$default$$").render(namedArgs, null));
+    }
+
+    @Test
+    public void testNonStringValues() {
+        Map<String, Object> args = new HashMap<>();
+        args.put("count", 5);
+
+        @SuppressWarnings("unchecked")
+        Map<String, String> yamlArgs = (Map<String, String>) (Map<String, ?>) args;
+        assertEquals("5 times", NamedArgumentTemplate.compile("$$count$$ times").render(yamlArgs, null));
+    }
+
+    @Test
+    public void testMatchesStrSubstitutor() {
+        // These use escapes, adjacent variables, default values and values that are templates themselves
+        String[] templates = {"$$nested$$", "$$$key$$", "$$key$$$$key$$", "$$missing:-fallback$$", "$$$$", "$", "a$$key", "$$key$$$"};
+
+        Map<String, String> merged = new HashMap<>(defaultArgs);
+        merged.putAll(namedArgs);
+        for (String template : templates) {
+            assertEquals(template, StrSubstitutor.replace(template, merged, "$$", "$$"), render(template));
+        }
+    }
+
+    private String render(String template) {
+        return NamedArgumentTemplate.compile(template).render(namedArgs, defaultArgs);
+    }
+}
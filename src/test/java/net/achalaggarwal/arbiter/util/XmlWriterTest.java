@@ -0,0 +1,87 @@
+package net.achalaggarwal.arbiter.util;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+
+public class XmlWriterTest {
+  private StringWriter out;
+  private XmlWriter writer;
+
+  @Before
+  public void setup() {
+    out = new StringWriter();
+    writer = new XmlWriter(out);
+  }
+
+  @Test
+  public void shouldIndentNestedElementsAndCollapseEmptyOnes() throws IOException {
+    writer.add("a")
+      .add("b").set("text").up()
+      .add("c").set("").up()
+      .add("d").add("e").up().up()
+      .finish();
+
+    assertEquals("<a>\n  <b>text</b>\n  <c/>\n  <d>\n    <e/>\n  </d>\n</a>\n", out.toString());
+  }
+
+  @Test
+  public void shouldWriteNamespaceFirstAndSortOtherAttributes() throws IOException {
+    writer.add("a")
+      .attr("name", "n")
+      .attr("xmlns", "uri:a")
+      .attr("cred", "c")
+      .attr("skipped", null)
+      .finish();
+
+    assertEquals("<a xmlns=\"uri:a\" cred=\"c\" name=\"n\"/>\n", out.toString());
+  }
+
+  @Test
+  public void shouldEscapeText() throws IOException {
+    writer.add("a").set("<b> & \"c\"\td\re\u0085").finish();
+
+    assertEquals("<a>&lt;b&gt; &amp; \"c\"\td&#13;e&#133;</a>\n", out.toString());
+  }
+
+  @Test
+  public void shouldStreamTextInChunks() throws IOException {
+    // The emoji is split across the first two chunks
+    String text = StringUtils.repeat('<', 8191) + "\uD83D\uDE00" + StringUtils.repeat('&', 8192);
+    writer.add("a").set(new StringReader(text)).up()
+      .add("b").set(new StringReader("")).up()
+      .finish();
+
+    StringWriter expected = new StringWriter();
+    new XmlWriter(expected).add("a").set(text).up().add("b").set("").up().finish();
+    assertEquals(expected.toString(), out.toString());
+  }
+
+  @Test
+  public void shouldEscapeAttributes() throws IOException {
+    writer.add("a").attr("b", "<c> & \"d\"\n\te😀").finish();
+
+    assertEquals("<a b=\"&lt;c&gt; &amp; &quot;d&quot;&#10;&#9;e&#128512;\"/>\n", out.toString());
+  }
+
+  @Test
+  public void shouldEscapeCommentsLikeText() throws IOException {
+    writer.add("a")
+      .comment("b & <c> -- d-")
+      .add("e").up()
+      .finish();
+
+    assertEquals("<a>\n  <!--b &amp; &lt;c&gt; - - d- -->\n  <e/>\n</a>\n", out.toString());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldNotAllowAttributesAfterContent() throws IOException {
+    writer.add("a").set("text").attr("b", "c");
+  }
+}
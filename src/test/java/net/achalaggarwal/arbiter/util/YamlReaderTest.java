@@ -0,0 +1,59 @@
+package net.achalaggarwal.arbiter.util;
+
+import net.achalaggarwal.arbiter.Workflow;
+import org.junit.Test;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class YamlReaderTest {
+    private static final int THREADS = 8;
+    private static final int READS_PER_THREAD = 25;
+
+    @Test
+    public void testSharedReaderIsThreadSafe() throws Exception {
+        final URL resource = getClass().getClassLoader().getResource("generatorworkflow.yaml");
+        Workflow expected = new YamlReader<Workflow>(Workflow.getYamlConstructor()).read(resource);
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<List<Workflow>>> futures = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                futures.add(executor.submit(new Callable<List<Workflow>>() {
+                    @Override
+                    public List<Workflow> call() {
+                        List<Workflow> workflows = new ArrayList<>();
+                        for (int j = 0; j < READS_PER_THREAD; j++) {
+                            workflows.add(Workflow.getYamlReader().read(resource));
+                        }
+                        return workflows;
+                    }
+                }));
+            }
+
+            for (Future<List<Workflow>> future : futures) {
+                for (Workflow workflow : future.get()) {
+                    assertEquals(expected, workflow);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testIntrospectionIsShared() throws Exception {
+        assertSame(
+          SharedPropertyUtils.INSTANCE.getProperties(Workflow.class),
+          SharedPropertyUtils.INSTANCE.getProperties(Workflow.class)
+        );
+    }
+}
@@ -0,0 +1,145 @@
+package net.achalaggarwal.arbiter.workflow;
+
+import net.achalaggarwal.arbiter.Action;
+import net.achalaggarwal.arbiter.exception.WorkflowGraphException;
+import com.google.common.collect.Lists;
+import org.jgrapht.experimental.dag.DirectedAcyclicGraph;
+import org.jgrapht.graph.DefaultEdge;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ActionGraphTest {
+    private Action a;
+    private Action b;
+    private Action c;
+    private Action d;
+
+    @Before
+    public void setup() {
+        a = action("a");
+        b = action("b");
+        c = action("c");
+        d = action("d");
+    }
+
+    @Test
+    public void testKeepsEdgeOrder() throws WorkflowGraphException {
+        ActionGraph.Builder builder = new ActionGraph.Builder();
+        for (Action action : Lists.newArrayList(d, c, b, a)) {
+            builder.addAction(action);
+        }
+        builder.addEdge(a, c);
+        builder.addEdge(d, b);
+        builder.addEdge(a, b);
+        builder.addEdge(c, b);
+        ActionGraph graph = builder.build();
+
+        assertEquals(4, graph.size());
+        assertEquals(4, graph.getEdgeCount());
+        assertSame(d, graph.getAction(0));
+        assertEquals(Lists.newArrayList(c, b), successors(graph, a));
+        assertEquals(Lists.newArrayList(d, a, c), predecessors(graph, b));
+        assertEquals(Integer.valueOf(3), graph.indexOf(a));
+    }
+
+    @Test
+    public void testTopologicalOrder() throws WorkflowGraphException {
+        ActionGraph.Builder builder = new ActionGraph.Builder();
+        for (Action action : Lists.newArrayList(d, c, b, a)) {
+            builder.addAction(action);
+        }
+        builder.addEdge(a, b);
+        builder.addEdge(b, c);
+        builder.addEdge(c, d);
+        ActionGraph graph = builder.build();
+
+        int[] order = graph.getTopologicalOrder();
+        int[] positions = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            positions[order[i]] = i;
+        }
+        for (int vertex = 0; vertex < graph.size(); vertex++) {
+            for (int i = 0; i < graph.outDegree(vertex); i++) {
+                assertTrue(positions[vertex] < positions[graph.getSuccessor(vertex, i)]);
+            }
+        }
+    }
+
+    @Test
+    public void testAddingAnActionTwiceKeepsItsIndex() {
+        ActionGraph.Builder builder = new ActionGraph.Builder();
+        assertEquals(0, builder.addAction(a));
+        assertEquals(1, builder.addAction(b));
+        assertEquals(0, builder.addAction(a));
+    }
+
+    @Test(expected = WorkflowGraphException.class)
+    public void testCycle() throws WorkflowGraphException {
+        ActionGraph.Builder builder = new ActionGraph.Builder();
+        builder.addAction(a);
+        builder.addAction(b);
+        builder.addAction(c);
+        builder.addEdge(a, b);
+        builder.addEdge(b, c);
+        builder.addEdge(c, a);
+        builder.build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSelfEdge() {
+        ActionGraph.Builder builder = new ActionGraph.Builder();
+        builder.addAction(a);
+        builder.addEdge(a, a);
+    }
+
+    @Test
+    public void testConvertsToJgrapht() throws WorkflowGraphException {
+        ActionGraph.Builder builder = new ActionGraph.Builder();
+        for (Action action : Lists.newArrayList(a, b, c, d)) {
+            builder.addAction(action);
+        }
+        builder.addEdge(c, d);
+        builder.addEdge(a, d);
+        builder.addEdge(a, b);
+        ActionGraph graph = builder.build();
+
+        DirectedAcyclicGraph<Action, DefaultEdge> converted = graph.toDirectedAcyclicGraph();
+        assertEquals(Lists.newArrayList(a, b, c, d), new ArrayList<>(converted.vertexSet()));
+        assertEquals(3, converted.edgeSet().size());
+        assertTrue(converted.containsEdge(c, d));
+        assertTrue(converted.containsEdge(a, d));
+        assertTrue(converted.containsEdge(a, b));
+    }
+
+    private static List<Action> successors(ActionGraph graph, Action action) {
+        int vertex = graph.indexOf(action);
+        List<Action> successors = new ArrayList<>();
+        for (int i = 0; i < graph.outDegree(vertex); i++) {
+            successors.add(graph.getAction(graph.getSuccessor(vertex, i)));
+        }
+        return successors;
+    }
+
+    private static List<Action> predecessors(ActionGraph graph, Action action) {
+        int vertex = graph.indexOf(action);
+        List<Action> predecessors = new ArrayList<>();
+        for (int i = 0; i < graph.inDegree(vertex); i++) {
+            predecessors.add(graph.getAction(graph.getPredecessor(vertex, i)));
+        }
+        return predecessors;
+    }
+
+    private static Action action(String name) {
+        Action action = new Action();
+        action.setName(name);
+        action.setType("type");
+        return action;
+    }
+}
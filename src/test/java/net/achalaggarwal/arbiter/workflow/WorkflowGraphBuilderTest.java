@@ -18,22 +18,24 @@ package net.achalaggarwal.arbiter.workflow;
 
 import net.achalaggarwal.arbiter.Action;
 import net.achalaggarwal.arbiter.Workflow;
+import net.achalaggarwal.arbiter.config.ActionType;
 import net.achalaggarwal.arbiter.config.Config;
 import net.achalaggarwal.arbiter.exception.WorkflowGraphException;
-import com.google.common.base.Function;
-import com.google.common.collect.Collections2;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
-import org.jgrapht.experimental.dag.DirectedAcyclicGraph;
-import org.jgrapht.graph.DefaultEdge;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 public class WorkflowGraphBuilderTest {
     @Rule
@@ -65,16 +67,26 @@ public class WorkflowGraphBuilderTest {
         workflow.getActions().get(0).setDependencies(Sets.newHashSet("missing"));
         expectedException.expect(WorkflowGraphException.class);
 
-        DirectedAcyclicGraph<Action, DefaultEdge> inputGraph = WorkflowGraphBuilder.buildInputGraph(workflow, config);
+        ActionGraph inputGraph = WorkflowGraphBuilder.buildInputGraph(workflow, config);
         WorkflowGraphBuilder.buildWorkflowGraph(inputGraph, workflow, config);
     }
 
+    @Test
+    public void testDuplicateActionNames() throws WorkflowGraphException {
+        Action duplicate = new Action();
+        duplicate.setName("a1");
+        workflow.setActions(Arrays.asList(workflow.getActions().get(0), workflow.getActions().get(1), duplicate));
+        expectedException.expect(WorkflowGraphException.class);
+
+        WorkflowGraphBuilder.buildInputGraph(workflow, config);
+    }
+
     @Test
     public void testCycles() throws WorkflowGraphException {
         workflow.getActions().get(0).setDependencies(Sets.newHashSet("a2"));
         workflow.getActions().get(1).setDependencies(Sets.newHashSet("a1"));
         expectedException.expect(WorkflowGraphException.class);
-        DirectedAcyclicGraph<Action, DefaultEdge> inputGraph = WorkflowGraphBuilder.buildInputGraph(workflow, config);
+        ActionGraph inputGraph = WorkflowGraphBuilder.buildInputGraph(workflow, config);
         WorkflowGraphBuilder.buildWorkflowGraph(inputGraph, workflow, config);
     }
 
@@ -82,14 +94,14 @@ public class WorkflowGraphBuilderTest {
     public void testSelfEdge() throws WorkflowGraphException {
         workflow.getActions().get(0).setDependencies(Sets.newHashSet("a1"));
         expectedException.expect(IllegalArgumentException.class);
-        DirectedAcyclicGraph<Action, DefaultEdge> inputGraph = WorkflowGraphBuilder.buildInputGraph(workflow, config);
+        ActionGraph inputGraph = WorkflowGraphBuilder.buildInputGraph(workflow, config);
         WorkflowGraphBuilder.buildWorkflowGraph(inputGraph, workflow, config);
     }
 
     @Test
     public void testNoDependencies() throws WorkflowGraphException {
-        DirectedAcyclicGraph<Action, DefaultEdge> inputGraph = WorkflowGraphBuilder.buildInputGraph(workflow, config);
-        DirectedAcyclicGraph<Action, DefaultEdge> graph = WorkflowGraphBuilder.buildWorkflowGraph(inputGraph, workflow, config);
+        ActionGraph inputGraph = WorkflowGraphBuilder.buildInputGraph(workflow, config);
+        ActionGraph graph = WorkflowGraphBuilder.buildWorkflowGraph(inputGraph, workflow, config);
         Set<String> expectedVertices = Sets.newHashSet("a1", "a2", "a3", "start", "end", "kill", "fork-0", "join-0");
         Set<String> expectedEdges = Sets.newHashSet("a3:join-0", "join-0:end", "a1:join-0", "fork-0:a2", "fork-0:a1", "a2:join-0", "fork-0:a3", "start:fork-0");
         assertEquals(expectedVertices, getVertices(graph));
@@ -99,8 +111,8 @@ public class WorkflowGraphBuilderTest {
     @Test
     public void testTwoActionFork() throws WorkflowGraphException {
         workflow.getActions().get(2).setDependencies(Sets.newHashSet("a1", "a2"));
-        DirectedAcyclicGraph<Action, DefaultEdge> inputGraph = WorkflowGraphBuilder.buildInputGraph(workflow, config);
-        DirectedAcyclicGraph<Action, DefaultEdge> graph = WorkflowGraphBuilder.buildWorkflowGraph(inputGraph, workflow, config);
+        ActionGraph inputGraph = WorkflowGraphBuilder.buildInputGraph(workflow, config);
+        ActionGraph graph = WorkflowGraphBuilder.buildWorkflowGraph(inputGraph, workflow, config);
         Set<String> expectedVertices = Sets.newHashSet("a1", "a2", "a3", "start", "end", "kill", "fork-0", "join-0");
         Set<String> expectedEdges = Sets.newHashSet("start:fork-0", "fork-0:a1", "fork-0:a2", "a1:join-0", "a2:join-0", "join-0:a3", "a3:end");
         assertEquals(expectedVertices, getVertices(graph));
@@ -111,8 +123,8 @@ public class WorkflowGraphBuilderTest {
     public void testSingleStartNode() throws WorkflowGraphException {
         workflow.getActions().get(1).setDependencies(Sets.newHashSet("a1"));
         workflow.getActions().get(2).setDependencies(Sets.newHashSet("a1"));
-        DirectedAcyclicGraph<Action, DefaultEdge> inputGraph = WorkflowGraphBuilder.buildInputGraph(workflow, config);
-        DirectedAcyclicGraph<Action, DefaultEdge> graph = WorkflowGraphBuilder.buildWorkflowGraph(inputGraph, workflow, config);
+        ActionGraph inputGraph = WorkflowGraphBuilder.buildInputGraph(workflow, config);
+        ActionGraph graph = WorkflowGraphBuilder.buildWorkflowGraph(inputGraph, workflow, config);
         Set<String> expectedVertices = Sets.newHashSet("a1", "a2", "a3", "start", "end", "kill", "fork-0", "join-0");
         Set<String> expectedEdges = Sets.newHashSet("fork-0:a2", "a3:join-0", "fork-0:a3", "start:a1", "a2:join-0", "join-0:end", "a1:fork-0");
         assertEquals(expectedVertices, getVertices(graph));
@@ -123,8 +135,8 @@ public class WorkflowGraphBuilderTest {
     public void testChain() throws WorkflowGraphException {
         workflow.getActions().get(1).setDependencies(Sets.newHashSet("a1"));
         workflow.getActions().get(2).setDependencies(Sets.newHashSet("a2"));
-        DirectedAcyclicGraph<Action, DefaultEdge> inputGraph = WorkflowGraphBuilder.buildInputGraph(workflow, config);
-        DirectedAcyclicGraph<Action, DefaultEdge> graph = WorkflowGraphBuilder.buildWorkflowGraph(inputGraph, workflow, config);
+        ActionGraph inputGraph = WorkflowGraphBuilder.buildInputGraph(workflow, config);
+        ActionGraph graph = WorkflowGraphBuilder.buildWorkflowGraph(inputGraph, workflow, config);
         Set<String> expectedVertices = Sets.newHashSet("a1", "a2", "a3", "start", "end", "kill");
         Set<String> expectedEdges = Sets.newHashSet("start:a1", "a1:a2", "a2:a3", "a3:end");
         assertEquals(expectedVertices, getVertices(graph));
@@ -134,29 +146,281 @@ public class WorkflowGraphBuilderTest {
     @Test
     public void testDisconnectedComponents() throws WorkflowGraphException {
         workflow.getActions().get(2).setDependencies(Sets.newHashSet("a2"));
-        DirectedAcyclicGraph<Action, DefaultEdge> inputGraph = WorkflowGraphBuilder.buildInputGraph(workflow, config);
-        DirectedAcyclicGraph<Action, DefaultEdge> graph = WorkflowGraphBuilder.buildWorkflowGraph(inputGraph, workflow, config);
+        ActionGraph inputGraph = WorkflowGraphBuilder.buildInputGraph(workflow, config);
+        ActionGraph graph = WorkflowGraphBuilder.buildWorkflowGraph(inputGraph, workflow, config);
         Set<String> expectedVertices = Sets.newHashSet("a1", "a2", "a3", "start", "end", "kill", "fork-0", "join-0");
         Set<String> expectedEdges = Sets.newHashSet("a3:join-0", "a2:a3", "join-0:end", "a1:join-0", "fork-0:a2", "fork-0:a1", "start:fork-0");
         assertEquals(expectedVertices, getVertices(graph));
         assertEquals(expectedEdges, getEdges(graph));
     }
 
-    private Set<String> getVertices(final DirectedAcyclicGraph<Action, DefaultEdge> graph) {
-        return Sets.newHashSet(Collections2.transform(graph.vertexSet(), new Function<Action, String>() {
-            @Override
-            public String apply(Action input) {
-                return input.getName();
+    @Test
+    public void testNestedForkJoins() throws WorkflowGraphException {
+        Action a4 = new Action();
+        a4.setName("a4");
+        Action a5 = new Action();
+        a5.setName("a5");
+        Action a6 = new Action();
+        a6.setName("a6");
+        a6.setDependencies(Sets.newHashSet("a3"));
+        Action a7 = new Action();
+        a7.setName("a7");
+        a7.setDependencies(Sets.newHashSet("a3"));
+        workflow.getActions().get(2).setDependencies(Sets.newHashSet("a1", "a2"));
+        workflow.setActions(Lists.newArrayList(workflow.getActions().get(0), workflow.getActions().get(1), workflow.getActions().get(2), a4, a5, a6, a7));
+
+        ActionGraph inputGraph = WorkflowGraphBuilder.buildInputGraph(workflow, config);
+        ActionGraph graph = WorkflowGraphBuilder.buildWorkflowGraph(inputGraph, workflow, config);
+        Set<String> expectedVertices = Sets.newHashSet("a1", "a2", "a3", "a4", "a5", "a6", "a7", "start", "end", "kill",
+          "fork-0", "join-0", "fork-1", "join-1", "fork-2", "join-2");
+        Set<String> expectedEdges = Sets.newHashSet("start:fork-2", "fork-2:fork-0", "fork-2:a4", "fork-2:a5",
+          "fork-0:a1", "fork-0:a2", "a1:join-0", "a2:join-0", "join-0:a3", "a3:fork-1", "fork-1:a6", "fork-1:a7",
+          "a6:join-1", "a7:join-1", "join-1:join-2", "a4:join-2", "a5:join-2", "join-2:end");
+        assertEquals(expectedVertices, getVertices(graph));
+        assertEquals(expectedEdges, getEdges(graph));
+    }
+
+    @Test(timeout = 10000)
+    public void testLongChain() throws WorkflowGraphException {
+        List<Action> actions = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            Action action = new Action();
+            action.setName("a" + i);
+            if (i > 0) {
+                action.setDependencies(Sets.newHashSet("a" + (i - 1)));
             }
-        }));
+            actions.add(action);
+        }
+        workflow.setActions(actions);
+
+        ActionGraph inputGraph = WorkflowGraphBuilder.buildInputGraph(workflow, config);
+        ActionGraph graph = WorkflowGraphBuilder.buildWorkflowGraph(inputGraph, workflow, config);
+        assertEquals(5003, graph.size());
+        assertEquals(5001, graph.getEdgeCount());
+    }
+
+    @Test
+    public void testNoActions() throws WorkflowGraphException {
+        workflow.setActions(new ArrayList<Action>());
+        expectedException.expect(WorkflowGraphException.class);
+
+        ActionGraph inputGraph = WorkflowGraphBuilder.buildInputGraph(workflow, config);
+        WorkflowGraphBuilder.buildWorkflowGraph(inputGraph, workflow, config);
+    }
+
+    @Test
+    public void testSeriesParallelAvoidsFalseDependencies() throws WorkflowGraphException {
+        // a1 -> a3 and a2 -> a4 only meet again at a5, so a3 should not have to wait for a2
+        Action a4 = new Action();
+        a4.setName("a4");
+        a4.setDependencies(Sets.newHashSet("a2"));
+        Action a5 = new Action();
+        a5.setName("a5");
+        a5.setDependencies(Sets.newHashSet("a3", "a4"));
+        workflow.getActions().get(2).setDependencies(Sets.newHashSet("a1"));
+        workflow.setActions(Lists.newArrayList(workflow.getActions().get(0), workflow.getActions().get(1), workflow.getActions().get(2), a4, a5));
+
+        ActionGraph inputGraph = WorkflowGraphBuilder.buildInputGraph(workflow, config);
+        ActionGraph levelGraph = WorkflowGraphBuilder.buildWorkflowGraph(inputGraph, workflow, config, ForkJoinMode.LEVELS);
+        ActionGraph graph = WorkflowGraphBuilder.buildWorkflowGraph(inputGraph, workflow, config, ForkJoinMode.SERIES_PARALLEL);
+
+        Set<String> expectedVertices = Sets.newHashSet("a1", "a2", "a3", "a4", "a5", "start", "end", "kill", "fork-0", "join-0");
+        Set<String> expectedEdges = Sets.newHashSet("start:fork-0", "fork-0:a1", "fork-0:a2", "a1:a3", "a2:a4", "a3:join-0", "a4:join-0", "join-0:a5", "a5:end");
+        assertEquals(expectedVertices, getVertices(graph));
+        assertEquals(expectedEdges, getEdges(graph));
+        assertEquals(0, WorkflowGraphBuilder.countFalseDependencies(inputGraph, graph));
+        assertEquals(2, WorkflowGraphBuilder.countFalseDependencies(inputGraph, levelGraph));
+
+        ForkJoinLayout layout = WorkflowGraphBuilder.buildLayout(inputGraph, workflow, config, ForkJoinMode.SERIES_PARALLEL);
+        assertEquals(ForkJoinMode.SERIES_PARALLEL, layout.getMode());
+        assertEquals(Long.valueOf(0), layout.getFalseDependencies());
+        assertEquals(Long.valueOf(2), layout.getLevelFalseDependencies());
+        assertNull(layout.getMakespan());
+    }
+
+    @Test
+    public void testSeriesParallelCutsWhereItAddsFewestDependencies() throws WorkflowGraphException {
+        // a1 -> a2 -> a3 -> a4 next to a5 -> a6, where a6 also needs a1
+        // This cannot be built from fork/joins alone, but only a1 -> a5 has to be added to make it so
+        workflow.getActions().get(1).setDependencies(Sets.newHashSet("a1"));
+        workflow.getActions().get(2).setDependencies(Sets.newHashSet("a2"));
+        Action a4 = new Action();
+        a4.setName("a4");
+        a4.setDependencies(Sets.newHashSet("a3"));
+        Action a5 = new Action();
+        a5.setName("a5");
+        Action a6 = new Action();
+        a6.setName("a6");
+        a6.setDependencies(Sets.newHashSet("a1", "a5"));
+        workflow.setActions(Lists.newArrayList(workflow.getActions().get(0), workflow.getActions().get(1), workflow.getActions().get(2), a4, a5, a6));
+
+        ActionGraph inputGraph = WorkflowGraphBuilder.buildInputGraph(workflow, config);
+        ActionGraph levelGraph = WorkflowGraphBuilder.buildWorkflowGraph(inputGraph, workflow, config, ForkJoinMode.LEVELS);
+        ActionGraph graph = WorkflowGraphBuilder.buildWorkflowGraph(inputGraph, workflow, config, ForkJoinMode.SERIES_PARALLEL);
+
+        Set<String> expectedEdges = Sets.newHashSet("start:a1", "a1:fork-0", "fork-0:a2", "a2:a3", "a3:a4", "a4:join-0",
+          "fork-0:a5", "a5:a6", "a6:join-0", "join-0:end");
+        assertEquals(expectedEdges, getEdges(graph));
+        assertEquals(1, WorkflowGraphBuilder.countFalseDependencies(inputGraph, graph));
+        assertEquals(3, WorkflowGraphBuilder.countFalseDependencies(inputGraph, levelGraph));
+    }
+
+    @Test
+    public void testSeriesParallelFallsBackToLevels() throws WorkflowGraphException {
+        // a4 needs a2 and a3, a5 needs a1 and a4, and a6 needs a1 and a2
+        // The greedy cuts add more false dependencies here than the levels do, so the levels are used
+        workflow.getActions().get(2).setDependencies(Sets.<String>newHashSet());
+        Action a4 = new Action();
+        a4.setName("a4");
+        a4.setDependencies(Sets.newHashSet("a2", "a3"));
+        Action a5 = new Action();
+        a5.setName("a5");
+        a5.setDependencies(Sets.newHashSet("a1", "a4"));
+        Action a6 = new Action();
+        a6.setName("a6");
+        a6.setDependencies(Sets.newHashSet("a1", "a2"));
+        workflow.setActions(Lists.newArrayList(workflow.getActions().get(0), workflow.getActions().get(1), workflow.getActions().get(2), a4, a5, a6));
+
+        ActionGraph inputGraph = WorkflowGraphBuilder.buildInputGraph(workflow, config);
+        ActionGraph levelGraph = WorkflowGraphBuilder.buildWorkflowGraph(inputGraph, workflow, config, ForkJoinMode.LEVELS);
+        ForkJoinLayout layout = WorkflowGraphBuilder.buildLayout(inputGraph, workflow, config, ForkJoinMode.SERIES_PARALLEL);
+
+        assertEquals(ForkJoinMode.LEVELS, layout.getMode());
+        assertEquals(getEdges(levelGraph), getEdges(layout.getWorkflowGraph()));
+        assertEquals(Long.valueOf(2), layout.getFalseDependencies());
+        assertEquals(Long.valueOf(2), layout.getLevelFalseDependencies());
+    }
+
+    @Test
+    public void testCriticalPathCutsWhereItKeepsMakespanLowest() throws WorkflowGraphException {
+        // a1 and a4 are slow, a2 and a3 are fast
+        // Running a2 on its own first lets a1 -> a3 and a4 overlap, where the levels make a4 wait for a1
+        ActionType fast = new ActionType();
+        fast.setName("fast");
+        fast.setExpectedDuration(1L);
+        config.setActionTypes(Lists.newArrayList(fast));
+
+        workflow.getActions().get(0).setExpectedDuration(10L);
+        workflow.getActions().get(1).setType("fast");
+        workflow.getActions().get(2).setType("fast");
+        workflow.getActions().get(2).setDependencies(Sets.newHashSet("a1", "a2"));
+        Action a4 = new Action();
+        a4.setName("a4");
+        a4.setExpectedDuration(10L);
+        a4.setDependencies(Sets.newHashSet("a2"));
+        workflow.setActions(Lists.newArrayList(workflow.getActions().get(0), workflow.getActions().get(1), workflow.getActions().get(2), a4));
+
+        ActionGraph inputGraph = WorkflowGraphBuilder.buildInputGraph(workflow, config);
+        ActionGraph levelGraph = WorkflowGraphBuilder.buildWorkflowGraph(inputGraph, workflow, config, ForkJoinMode.LEVELS);
+        ActionGraph graph = WorkflowGraphBuilder.buildWorkflowGraph(inputGraph, workflow, config, ForkJoinMode.CRITICAL_PATH);
+
+        Set<String> expectedEdges = Sets.newHashSet("start:a2", "a2:fork-0", "fork-0:a1", "a1:a3", "a3:join-0",
+          "fork-0:a4", "a4:join-0", "join-0:end");
+        assertEquals(expectedEdges, getEdges(graph));
+        assertEquals(12, WorkflowGraphBuilder.predictMakespan(graph, config));
+        assertEquals(20, WorkflowGraphBuilder.predictMakespan(levelGraph, config));
+
+        ForkJoinLayout layout = WorkflowGraphBuilder.buildLayout(inputGraph, workflow, config, ForkJoinMode.CRITICAL_PATH);
+        assertEquals(ForkJoinMode.CRITICAL_PATH, layout.getMode());
+        assertEquals(Long.valueOf(12), layout.getMakespan());
+        assertEquals(Long.valueOf(20), layout.getLevelMakespan());
+        assertNull(layout.getFalseDependencies());
+    }
+
+    @Test
+    public void testWorkflowChoosesForkJoinMode() throws WorkflowGraphException {
+        workflow.getActions().get(2).setDependencies(Sets.newHashSet("a1", "a2"));
+        workflow.setForkJoinMode("series-parallel");
+        ActionGraph inputGraph = WorkflowGraphBuilder.buildInputGraph(workflow, config);
+        ActionGraph graph = WorkflowGraphBuilder.buildWorkflowGraph(inputGraph, workflow, config);
+        Set<String> expectedEdges = Sets.newHashSet("start:fork-0", "fork-0:a1", "fork-0:a2", "a1:join-0", "a2:join-0", "join-0:a3", "a3:end");
+        assertEquals(expectedEdges, getEdges(graph));
+    }
+
+    @Test
+    public void testInvalidForkJoinMode() throws WorkflowGraphException {
+        workflow.setForkJoinMode("missing");
+        expectedException.expect(WorkflowGraphException.class);
+
+        ActionGraph inputGraph = WorkflowGraphBuilder.buildInputGraph(workflow, config);
+        WorkflowGraphBuilder.buildWorkflowGraph(inputGraph, workflow, config);
+    }
+
+    @Test
+    public void testMaxForkWidthBalancesLanes() throws WorkflowGraphException {
+        Action a4 = new Action();
+        a4.setName("a4");
+        workflow.setActions(Lists.newArrayList(workflow.getActions().get(0), workflow.getActions().get(1), workflow.getActions().get(2), a4));
+        workflow.getActions().get(0).setExpectedDuration(10L);
+        workflow.getActions().get(1).setExpectedDuration(1L);
+        workflow.getActions().get(2).setExpectedDuration(1L);
+        workflow.getActions().get(3).setExpectedDuration(8L);
+        config.setMaxForkWidth(2);
+
+        ActionGraph inputGraph = WorkflowGraphBuilder.buildInputGraph(workflow, config);
+        ActionGraph graph = WorkflowGraphBuilder.buildWorkflowGraph(inputGraph, workflow, config);
+        Set<String> expectedEdges = Sets.newHashSet("start:fork-0", "fork-0:a1", "a1:join-0", "fork-0:a2", "a2:a3", "a3:a4",
+          "a4:join-0", "join-0:end");
+        assertEquals(expectedEdges, getEdges(graph));
+        assertEquals(10, WorkflowGraphBuilder.predictMakespan(graph, config));
+    }
+
+    @Test
+    public void testMaxForkWidthWithMixedDurations() throws WorkflowGraphException {
+        List<Action> actions = Lists.newArrayList(workflow.getActions().get(0));
+        actions.get(0).setExpectedDuration(10L);
+        for (int i = 1; i <= 5; i++) {
+            Action b = new Action();
+            b.setName("b" + i);
+            b.setDependencies(Sets.newHashSet("a1"));
+            actions.add(b);
+        }
+        workflow.setActions(actions);
+        config.setMaxForkWidth(2);
+
+        // Actions without a duration are spread over every lane as if they took the mean known duration
+        ActionGraph inputGraph = WorkflowGraphBuilder.buildInputGraph(workflow, config);
+        ActionGraph graph = WorkflowGraphBuilder.buildWorkflowGraph(inputGraph, workflow, config);
+        Set<String> expectedEdges = Sets.newHashSet("start:a1", "a1:fork-0", "fork-0:b1", "b1:b3", "b3:b5", "b5:join-0",
+          "fork-0:b2", "b2:b4", "b4:join-0", "join-0:end");
+        assertEquals(expectedEdges, getEdges(graph));
+    }
+
+    @Test
+    public void testWorkflowOverridesMaxForkWidth() throws WorkflowGraphException {
+        config.setMaxForkWidth(3);
+        workflow.setMaxForkWidth(1);
+
+        ActionGraph inputGraph = WorkflowGraphBuilder.buildInputGraph(workflow, config);
+        ActionGraph graph = WorkflowGraphBuilder.buildWorkflowGraph(inputGraph, workflow, config);
+        Set<String> expectedEdges = Sets.newHashSet("start:a1", "a1:a2", "a2:a3", "a3:end");
+        assertEquals(expectedEdges, getEdges(graph));
+    }
+
+    @Test
+    public void testInvalidMaxForkWidth() throws WorkflowGraphException {
+        workflow.setMaxForkWidth(0);
+        expectedException.expect(WorkflowGraphException.class);
+
+        ActionGraph inputGraph = WorkflowGraphBuilder.buildInputGraph(workflow, config);
+        WorkflowGraphBuilder.buildWorkflowGraph(inputGraph, workflow, config);
+    }
+
+    private Set<String> getVertices(ActionGraph graph) {
+        Set<String> vertices = new HashSet<>();
+        for (int i = 0; i < graph.size(); i++) {
+            vertices.add(graph.getAction(i).getName());
+        }
+        return vertices;
     }
 
-    private Set<String> getEdges(final DirectedAcyclicGraph<Action, DefaultEdge> graph) {
-        return Sets.newHashSet(Collections2.transform(graph.edgeSet(), new Function<DefaultEdge, String>() {
-            @Override
-            public String apply(DefaultEdge input) {
-                return String.format("%s:%s", graph.getEdgeSource(input).getName(), graph.getEdgeTarget(input).getName());
+    private Set<String> getEdges(ActionGraph graph) {
+        Set<String> edges = new HashSet<>();
+        for (int i = 0; i < graph.size(); i++) {
+            for (int j = 0; j < graph.outDegree(i); j++) {
+                edges.add(String.format("%s:%s", graph.getAction(i).getName(), graph.getAction(graph.getSuccessor(i, j)).getName()));
             }
-        }));
+        }
+        return edges;
     }
 }
@@ -0,0 +1,79 @@
+package net.achalaggarwal.arbiter.workflow;
+
+import net.achalaggarwal.arbiter.Action;
+import net.achalaggarwal.arbiter.Workflow;
+import net.achalaggarwal.arbiter.config.Config;
+import net.achalaggarwal.arbiter.exception.WorkflowGraphException;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class WorkflowGraphIndexTest {
+    private ActionGraph workflowGraph;
+    private Map<String, Integer> nodes;
+    private WorkflowGraphIndex index;
+
+    @Before
+    public void setup() throws WorkflowGraphException {
+        // a1 and a2 run in a fork/join before a4, and that runs alongside a3 in an outer fork/join
+        Workflow workflow = new Workflow();
+        workflow.setName("workflow");
+        workflow.setActions(Lists.newArrayList(action("a1"), action("a2"), action("a3"), action("a4", "a1", "a2")));
+        Config config = new Config();
+
+        ActionGraph inputGraph = WorkflowGraphBuilder.buildInputGraph(workflow, config);
+        workflowGraph = WorkflowGraphBuilder.buildWorkflowGraph(inputGraph, workflow, config);
+
+        nodes = new HashMap<>();
+        for (int node = 0; node < workflowGraph.size(); node++) {
+            nodes.put(workflowGraph.getAction(node).getName(), node);
+        }
+        index = new WorkflowGraphIndex(workflowGraph);
+    }
+
+    @Test
+    public void testEnclosingForkJoinName() {
+        assertEquals("join-0", index.getEnclosingForkJoinName(nodes.get("a1")));
+        assertEquals("join-0", index.getEnclosingForkJoinName(nodes.get("a2")));
+        assertEquals("join-1", index.getEnclosingForkJoinName(nodes.get("a3")));
+        assertEquals("join-1", index.getEnclosingForkJoinName(nodes.get("a4")));
+    }
+
+    @Test
+    public void testTransitions() {
+        assertEquals(node("fork-1"), index.getTransition(nodes.get("start")));
+        assertEquals(node("a4"), index.getTransition(nodes.get("join-0")));
+        assertEquals(node("join-1"), index.getTransition(nodes.get("a4")));
+        assertEquals(node("end"), index.getTransition(nodes.get("join-1")));
+        assertNull(index.getTransition(nodes.get("fork-1")));
+        assertNull(index.getTransition(nodes.get("end")));
+    }
+
+    @Test
+    public void testNodes() {
+        assertEquals(nodes.get("start").intValue(), index.getNodes()[0]);
+        assertEquals(nodes.size(), index.getNodes().length);
+        assertEquals(Sets.newHashSet("fork-0", "a3"), Sets.newHashSet(index.getForkPaths(nodes.get("fork-1"))));
+        assertEquals(node("end"), index.getActionByType("end"));
+        assertNull(index.getActionByType("kill"));
+    }
+
+    private Action node(String name) {
+        return workflowGraph.getAction(nodes.get(name));
+    }
+
+    private static Action action(String name, String... dependencies) {
+        Action action = new Action();
+        action.setName(name);
+        action.setType("type");
+        action.setDependencies(Sets.newHashSet(dependencies));
+        return action;
+    }
+}
@@ -0,0 +1,67 @@
+package net.achalaggarwal.arbiter.workflow.node;
+
+import net.achalaggarwal.arbiter.Action;
+import net.achalaggarwal.arbiter.config.ActionType;
+import net.achalaggarwal.arbiter.util.DocumentWriter;
+import net.achalaggarwal.arbiter.util.IncludeExternalizer;
+import net.achalaggarwal.arbiter.workflow.Node;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static net.achalaggarwal.arbiter.util.DocumentWriter.XML_HEAD;
+import static org.junit.Assert.assertEquals;
+
+public class ActionNodeTest {
+  @Test
+  public void shouldAddExternalizedFilesAfterPositionalArgs() throws IOException {
+    File dir = Files.createTempDirectory("arbiter").toFile();
+    FileUtils.writeStringToFile(new File(dir, "opts.txt"), "much too large");
+
+    ActionType type = new ActionType();
+    type.setTag("java");
+    Map<String, List<String>> defaultArgs = new LinkedHashMap<>();
+    defaultArgs.put("main-class", Arrays.asList("Main"));
+    defaultArgs.put("java-opts", Arrays.asList("@@opts.txt@@"));
+    type.setDefaultArgs(defaultArgs);
+
+    Action action = new Action();
+    action.setName("action");
+    action.setType("java");
+    action.setPositionalArgs(new LinkedHashMap<String, List<String>>());
+    action.getPositionalArgs().put("arg", Arrays.asList("input"));
+    action.getPositionalArgs().put("file", Arrays.asList("lib.jar"));
+
+    Action transition = new Action();
+    transition.setName("end");
+    File workflowFile = new File(dir, "workflow.yaml");
+    Node actionNode = new ActionNode(action, type, transition, transition, null, workflowFile, null, new IncludeExternalizer(new File(dir, "workflow.xml"), 10));
+
+    StringWriter writer = new StringWriter();
+    DocumentWriter.write(actionNode, writer);
+
+    assertEquals(
+      XML_HEAD
+        + "<action name=\"action\">\n"
+        + "  <java>\n"
+        + "    <main-class>Main</main-class>\n"
+        + "    <java-opts>opts.txt</java-opts>\n"
+        + "    <arg>input</arg>\n"
+        + "    <file>lib.jar</file>\n"
+        + "    <file>workflow-includes/opts.txt#opts.txt</file>\n"
+        + "  </java>\n"
+        + "  <ok to=\"end\"/>\n"
+        + "  <error to=\"end\"/>\n"
+        + "</action>\n",
+      writer.toString()
+    );
+  }
+}
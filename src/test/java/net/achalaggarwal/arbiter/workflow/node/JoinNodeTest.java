@@ -2,12 +2,10 @@ package net.achalaggarwal.arbiter.workflow.node;
 
 import net.achalaggarwal.arbiter.Action;
 import net.achalaggarwal.arbiter.util.DocumentWriter;
+import net.achalaggarwal.arbiter.workflow.Node;
 import org.junit.Test;
-import org.xembly.Directives;
 
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.stream.StreamResult;
+import java.io.IOException;
 import java.io.StringWriter;
 
 import static net.achalaggarwal.arbiter.util.DocumentWriter.XML_HEAD;
@@ -20,18 +18,18 @@ public class JoinNodeTest {
   }
 
   @Test
-  public void shouldBuildJoinNodeFromJoinAction() throws TransformerException, ParserConfigurationException {
-    Directives joinNode = new JoinNode(
+  public void shouldBuildJoinNodeFromJoinAction() throws IOException {
+    Node joinNode = new JoinNode(
       new Action() { {
         setName("join-0");
       } },
       new Action() { {
         setName("next-action");
       } }
-    ).buildNode();
+    );
 
     StringWriter writer = new StringWriter();
-    DocumentWriter.writeToStreamResult(joinNode, new StreamResult(writer));
+    DocumentWriter.write(joinNode, writer);
 
     assertEquals(XML_HEAD + "<join name=\"join-0\" to=\"next-action\"/>\n", writer.toString());
   }
@@ -2,12 +2,10 @@ package net.achalaggarwal.arbiter.workflow.node;
 
 import net.achalaggarwal.arbiter.Action;
 import net.achalaggarwal.arbiter.util.DocumentWriter;
+import net.achalaggarwal.arbiter.workflow.Node;
 import org.junit.Test;
-import org.xembly.Directives;
 
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.stream.StreamResult;
+import java.io.IOException;
 import java.io.StringWriter;
 
 import static net.achalaggarwal.arbiter.util.DocumentWriter.XML_HEAD;
@@ -15,16 +13,16 @@ import static org.junit.Assert.*;
 
 public class KillNodeTest {
   @Test
-  public void shouldBuildKillNodeFromKillAction() throws TransformerException, ParserConfigurationException {
-    Directives killNode = new KillNode(
+  public void shouldBuildKillNodeFromKillAction() throws IOException {
+    Node killNode = new KillNode(
       new Action() { {
         setName("kill-0");
         setProperty("message", "kill-message");
       } }
-    ).buildNode();
+    );
 
     StringWriter writer = new StringWriter();
-    DocumentWriter.writeToStreamResult(killNode, new StreamResult(writer));
+    DocumentWriter.write(killNode, writer);
 
     assertEquals(XML_HEAD + "<kill name=\"kill-0\">\n" +
       "  <message>kill-message</message>\n" +
@@ -0,0 +1,48 @@
+package org.yaml.snakeyaml.introspector;
+
+import net.achalaggarwal.arbiter.Action;
+import net.achalaggarwal.arbiter.config.Prepare;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class MissingPropertyTest {
+    @Test
+    public void testSetsNamedAndPositionalArgs() throws Exception {
+        Action action = new Action();
+        new MissingProperty("named").set(action, "value");
+        new MissingProperty("positional").set(action, Lists.newArrayList("a", "b"));
+        // A second value of the same type goes through the cached setter
+        new MissingProperty("other").set(action, "other-value");
+
+        assertEquals("value", action.getNamedArgs().get("named"));
+        assertEquals("other-value", action.getNamedArgs().get("other"));
+        assertEquals(new ArrayList<>(Lists.newArrayList("a", "b")), action.getPositionalArgs().get("positional"));
+    }
+
+    @Test
+    public void testSetsPrepareProperties() throws Exception {
+        Prepare prepare = new Prepare();
+        new MissingProperty("delete").set(prepare, "/tmp/a");
+
+        assertFalse(prepare.isEmpty());
+    }
+
+    @Test(expected = NoSuchMethodException.class)
+    public void testUnsupportedValueTypeFails() throws Exception {
+        new MissingProperty("count").set(new Action(), 1);
+    }
+
+    @Test(expected = NoSuchMethodException.class)
+    public void testUnsupportedValueTypeFailsEveryTime() throws Exception {
+        try {
+            new MissingProperty("count").set(new Action(), 2L);
+        } catch (NoSuchMethodException e) {
+            new MissingProperty("count").set(new Action(), 3L);
+        }
+    }
+}